@@ -175,7 +175,10 @@ const useChatStore = create((set, get) => ({
     try {
       set({ isLoadingMessages: true });
       
-      const res = await axios.get(`/api/messages/chat/${chatId}?page=${page}&size=${size}`);
+      // Older pages are fetched with a keyset cursor on the oldest loaded message
+      const oldest = page > 0 ? get().messages[get().messages.length - 1] : null;
+      const query = oldest ? `before=${oldest.id}&size=${size}` : `size=${size}`;
+      const res = await axios.get(`/api/messages/chat/${chatId}?${query}`);
       const newMessages = res.data.content;
       const hasMore = !res.data.last;
       
@@ -6,9 +6,52 @@ import useChatStore from './chatStore';
 import useContactsStore from './contactsStore';
 import useNotificationStore from './notificationStore';
 
+const DEFAULT_RECONNECT = { minDelayMs: 1000, maxDelayMs: 5000 };
+
+const randomDelay = ({ minDelayMs, maxDelayMs }) =>
+  minDelayMs + Math.random() * Math.max(0, maxDelayMs - minDelayMs);
+
 const useWebSocketStore = create((set, get) => {
   let stompClient = null;
   
+  // Subscriptions by id, kept across connections so a resumed session can restore them
+  let subscriptions = {};
+  let nextSubscriptionId = 0;
+  
+  // Latest session message: resume token and reconnect hints
+  let session = null;
+  let reconnectTimer = null;
+  
+  const subscribe = (destination, callback) => {
+    const id = `sub-${nextSubscriptionId++}`;
+    subscriptions[id] = { destination, callback };
+    stompClient.subscribe(destination, callback, { id });
+  };
+  
+  const scheduleReconnect = (delayMs) => {
+    if (reconnectTimer) return;
+    reconnectTimer = setTimeout(() => {
+      reconnectTimer = null;
+      get().connect();
+    }, delayMs);
+  };
+  
+  const handleSession = (message) => {
+    const info = JSON.parse(message.body);
+    session = info;
+    
+    // Resubscribe whatever the server did not restore; on a first connect, start from scratch
+    if (Object.keys(subscriptions).length === 0) {
+      get().subscribeToPersonalTopics();
+      return;
+    }
+    Object.entries(subscriptions).forEach(([id, { destination, callback }]) => {
+      if (!info.restored.includes(id)) {
+        stompClient.subscribe(destination, callback, { id });
+      }
+    });
+  };
+  
   return {
     connected: false,
     connecting: false,
@@ -31,28 +74,49 @@ const useWebSocketStore = create((set, get) => {
         Authorization: `Bearer ${token}`
       };
       
+      // Within the grace window the server restores our subscriptions under their old ids,
+      // so bind the handlers before any frame for them arrives
+      if (session?.resumeToken) {
+        headers['resume-token'] = session.resumeToken;
+        Object.entries(subscriptions).forEach(([id, { callback }]) => {
+          stompClient.subscriptions[id] = callback;
+        });
+      }
+      
       stompClient.connect(
         headers,
         () => {
           set({ connected: true, connecting: false });
-          get().subscribeToPersonalTopics();
+          // The session message tells us which subscriptions were restored
+          stompClient.subscribe('/user/queue/session', handleSession, { id: 'session' });
         },
         (error) => {
           console.error('WebSocket connection error:', error);
           set({ connected: false, connecting: false });
           
-          // Try to reconnect after 5 seconds
-          setTimeout(() => {
-            get().connect();
-          }, 5000);
+          // A throttled CONNECT is told when to retry; otherwise wait a random delay within
+          // the server's hints so clients don't all reconnect at once
+          const retryAfter = error?.headers?.['retry-after-ms'];
+          if (retryAfter) {
+            socket.close();
+            scheduleReconnect(Number(retryAfter));
+          } else {
+            scheduleReconnect(randomDelay(session?.reconnect || DEFAULT_RECONNECT));
+          }
         }
       );
     },
     
     disconnect: () => {
+      if (reconnectTimer) {
+        clearTimeout(reconnectTimer);
+        reconnectTimer = null;
+      }
       if (stompClient) {
         stompClient.disconnect();
       }
+      subscriptions = {};
+      session = null;
       set({ connected: false, typingUsers: {} });
     },
     
@@ -65,17 +129,28 @@ const useWebSocketStore = create((set, get) => {
       const updateUserStatus = useContactsStore.getState().updateUserStatus;
       const addNotification = useNotificationStore.getState().addNotification;
       
-      // Subscribe to personal queue for messages sent when offline
-      stompClient.subscribe(`/user/${user.username}/queue/messages`, (message) => {
-        const receivedMessage = JSON.parse(message.body);
-        addMessage(receivedMessage);
-        updateChatLastMessage(receivedMessage);
+      // Subscribe to the mailbox of events missed while offline; the server drains it on subscribe
+      subscribe('/user/queue/mailbox', (message) => {
+        const mailboxEvent = JSON.parse(message.body);
+        
+        if (mailboxEvent.type === 'message') {
+          addMessage(mailboxEvent.message);
+          updateChatLastMessage(mailboxEvent.message);
+        } else if (mailboxEvent.type === 'resync') {
+          // Too much was missed in this chat to replay; reload it
+          const { activeChat, fetchMessages, fetchChats } = useChatStore.getState();
+          if (activeChat?.id === mailboxEvent.chatId) {
+            fetchMessages(mailboxEvent.chatId);
+          }
+          fetchChats();
+        }
       });
       
       // Subscribe to user status updates
-      stompClient.subscribe('/topic/users/status', (message) => {
-        const statusUpdate = JSON.parse(message.body);
-        updateUserStatus(statusUpdate.userId, statusUpdate.status);
+      // Presence digests only cover users sharing a chat with us or listing us as a contact
+      subscribe('/user/queue/presence', (message) => {
+        const digest = JSON.parse(message.body);
+        digest.statuses.forEach(({ userId, status }) => updateUserStatus(userId, status));
       });
     },
     
@@ -87,51 +162,41 @@ const useWebSocketStore = create((set, get) => {
       const updateMessageReaction = useChatStore.getState().updateMessageReaction;
       
       // Subscribe to chat messages
-      stompClient.subscribe(`/topic/chat/${chatId}`, (message) => {
+      subscribe(`/topic/chat/${chatId}`, (message) => {
         const receivedMessage = JSON.parse(message.body);
         addMessage(receivedMessage);
         updateChatLastMessage(receivedMessage);
       });
       
-      // Subscribe to typing indicators
-      stompClient.subscribe(`/topic/chat/${chatId}/typing`, (message) => {
+      // Subscribe to typing indicators; each frame lists everyone currently typing in the chat
+      subscribe(`/topic/chat/${chatId}/typing`, (message) => {
         const typingEvent = JSON.parse(message.body);
         
         set(state => {
-          // Clear after 3 seconds of inactivity
-          if (state.typingUsers[typingEvent.userId]) {
-            clearTimeout(state.typingUsers[typingEvent.userId].timeout);
-          }
+          const typingUsers = { ...state.typingUsers };
           
-          const timeout = setTimeout(() => {
-            set(innerState => {
-              const updatedTypingUsers = { ...innerState.typingUsers };
-              delete updatedTypingUsers[typingEvent.userId];
-              return { typingUsers: updatedTypingUsers };
-            });
-          }, 3000);
-          
-          return {
-            typingUsers: {
-              ...state.typingUsers,
-              [typingEvent.userId]: {
-                username: typingEvent.username,
-                chatId,
-                timeout
-              }
+          Object.keys(typingUsers).forEach(userId => {
+            if (typingUsers[userId].chatId === chatId) {
+              delete typingUsers[userId];
             }
-          };
+          });
+          
+          typingEvent.users.forEach(user => {
+            typingUsers[user.userId] = { username: user.username, chatId };
+          });
+          
+          return { typingUsers };
         });
       });
       
       // Subscribe to read status updates
-      stompClient.subscribe(`/topic/chat/${chatId}/read`, (message) => {
+      subscribe(`/topic/chat/${chatId}/read`, (message) => {
         const readEvent = JSON.parse(message.body);
         // Handle read status updates
       });
       
       // Subscribe to reaction updates
-      stompClient.subscribe(`/topic/chat/${chatId}/reactions`, (message) => {
+      subscribe(`/topic/chat/${chatId}/reactions`, (message) => {
         const reactionEvent = JSON.parse(message.body);
         updateMessageReaction(reactionEvent.messageId, reactionEvent.reactions);
       });
@@ -145,7 +210,6 @@ const useWebSocketStore = create((set, get) => {
         
         Object.keys(newTypingUsers).forEach(userId => {
           if (newTypingUsers[userId].chatId === chatId) {
-            clearTimeout(newTypingUsers[userId].timeout);
             delete newTypingUsers[userId];
           }
         });
@@ -166,13 +230,13 @@ const useWebSocketStore = create((set, get) => {
       return true;
     },
     
-    sendTypingEvent: (chatId) => {
+    sendTypingEvent: (chatId, typing = true) => {
       if (!stompClient || !get().connected) return;
       
       stompClient.send(
         `/app/chat/${chatId}/typing`,
         {},
-        JSON.stringify({})
+        JSON.stringify({ typing })
       );
     },
     
@@ -3,11 +3,28 @@ package com.chatapp.controller;
 import com.chatapp.model.LoginAttempt;
 import com.chatapp.model.User;
 import com.chatapp.repository.LoginAttemptRepository;
+import com.chatapp.security.TokenAuthenticator;
+import com.chatapp.service.ChatMembershipCache;
 import com.chatapp.service.LoginAttemptService;
+import com.chatapp.service.MessageSearchIndex;
+import com.chatapp.service.StoredObjectService;
+import com.chatapp.websocket.ChatDestinationGuard;
+import com.chatapp.websocket.FanoutPublisher;
+import com.chatapp.websocket.InstrumentedChannelExecutor;
+import com.chatapp.websocket.OutboundPriorityLanes;
+import com.chatapp.websocket.PayloadFormatNegotiator;
+import com.chatapp.websocket.PresenceDigestPublisher;
+import com.chatapp.websocket.PresenceRegistry;
+import com.chatapp.websocket.SessionResumption;
+import com.chatapp.websocket.SlowConsumerGuard;
+import com.chatapp.websocket.TransportMetrics;
+import com.chatapp.websocket.TypingAggregator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -15,7 +32,9 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @RestController
@@ -30,6 +49,56 @@ public class AdminController {
     @Autowired
     private LoginAttemptService loginAttemptService;
     
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+    
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Autowired
+    private PresenceDigestPublisher presenceDigests;
+    
+    @Autowired
+    private FanoutPublisher fanoutPublisher;
+    
+    @Autowired
+    private TypingAggregator typingAggregator;
+
+    @Autowired
+    private SlowConsumerGuard slowConsumerGuard;
+
+    @Autowired
+    private OutboundPriorityLanes priorityLanes;
+
+    @Autowired
+    @Qualifier("clientInboundChannelExecutor")
+    private ThreadPoolTaskExecutor clientInboundExecutor;
+
+    @Autowired
+    @Qualifier("clientOutboundChannelExecutor")
+    private ThreadPoolTaskExecutor clientOutboundExecutor;
+
+    @Autowired
+    private PayloadFormatNegotiator payloadFormats;
+
+    @Autowired
+    private TransportMetrics transportMetrics;
+    
+    @Autowired
+    private ChatMembershipCache membershipCache;
+
+    @Autowired
+    private ChatDestinationGuard chatDestinationGuard;
+
+    @Autowired
+    private SessionResumption sessionResumption;
+    
+    @Autowired
+    private StoredObjectService storedObjectService;
+
+    @Autowired
+    private TokenAuthenticator tokenAuthenticator;
+    
     /**
      * Get all login attempts with additional access control and audit logging
      */
@@ -121,6 +190,145 @@ public class AdminController {
         return ResponseEntity.ok(Map.of("message", "Purged " + oldRecords.size() + " old records"));
     }
     
+    /**
+     * Rebuild the message full-text search index from the database
+     */
+    @PostMapping("/search/rebuild")
+    public ResponseEntity<?> rebuildSearchIndex() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        logger.info("Admin {} triggered a message search index rebuild", auth.getName());
+        
+        long indexed = messageSearchIndex.rebuild();
+        
+        return ResponseEntity.ok(Map.of("message", "Indexed " + indexed + " messages"));
+    }
+    
+    /**
+     * Presence registry size and churn counters
+     */
+    @GetMapping("/presence/metrics")
+    public ResponseEntity<Map<String, Object>> getPresenceMetrics() {
+        return ResponseEntity.ok(presenceRegistry.getMetrics());
+    }
+    
+    /**
+     * Presence changes routed to watchers and digests sent
+     */
+    @GetMapping("/presence/digests/metrics")
+    public ResponseEntity<Map<String, Object>> getPresenceDigestMetrics() {
+        return ResponseEntity.ok(presenceDigests.getMetrics());
+    }
+    
+    /**
+     * Websocket fan-out serializations vs sends
+     */
+    @GetMapping("/websocket/fanout/metrics")
+    public ResponseEntity<Map<String, Object>> getFanoutMetrics() {
+        return ResponseEntity.ok(fanoutPublisher.getMetrics());
+    }
+    
+    /**
+     * Websocket sessions, bytes and send time per transport
+     */
+    @GetMapping("/websocket/transports/metrics")
+    public ResponseEntity<Map<String, Object>> getTransportMetrics() {
+        return ResponseEntity.ok(transportMetrics.getMetrics());
+    }
+    
+    /**
+     * Websocket frames and bytes per negotiated payload format
+     */
+    @GetMapping("/websocket/formats/metrics")
+    public ResponseEntity<Map<String, Object>> getPayloadFormatMetrics() {
+        return ResponseEntity.ok(payloadFormats.getMetrics());
+    }
+    
+    /**
+     * STOMP channel executor queue depth and task latency, slow-consumer counters and per-lane latency
+     */
+    @GetMapping("/websocket/channels/metrics")
+    public ResponseEntity<Map<String, Object>> getChannelMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("inbound", executorMetrics(clientInboundExecutor));
+        metrics.put("outbound", executorMetrics(clientOutboundExecutor));
+        metrics.put("slowConsumers", slowConsumerGuard.getMetrics());
+        metrics.put("lanes", priorityLanes.getMetrics());
+        return ResponseEntity.ok(metrics);
+    }
+    
+    /**
+     * Typing frames received vs published
+     */
+    @GetMapping("/websocket/typing/metrics")
+    public ResponseEntity<Map<String, Object>> getTypingMetrics() {
+        return ResponseEntity.ok(typingAggregator.getMetrics());
+    }
+    
+    /**
+     * Chat destination checks, denied frames and revoked subscriptions
+     */
+    @GetMapping("/websocket/authorization/metrics")
+    public ResponseEntity<Map<String, Object>> getDestinationGuardMetrics() {
+        return ResponseEntity.ok(chatDestinationGuard.getMetrics());
+    }
+    
+    /**
+     * Resume tokens issued and redeemed, deferred presence and CONNECT admission
+     */
+    @GetMapping("/websocket/resume/metrics")
+    public ResponseEntity<Map<String, Object>> getSessionResumeMetrics() {
+        return ResponseEntity.ok(sessionResumption.getMetrics());
+    }
+    
+    /**
+     * Chat membership cache size and hit/miss counters
+     */
+    @GetMapping("/membership-cache/metrics")
+    public ResponseEntity<Map<String, Object>> getMembershipCacheMetrics() {
+        return ResponseEntity.ok(membershipCache.getMetrics());
+    }
+    
+    /**
+     * Verified-token cache size and hit/miss counters
+     */
+    @GetMapping("/tokens/metrics")
+    public ResponseEntity<Map<String, Object>> getTokenCacheMetrics() {
+        return ResponseEntity.ok(tokenAuthenticator.getMetrics());
+    }
+    
+    /**
+     * Reject every token issued to a user so far, e.g. after changing their roles
+     */
+    @PostMapping("/users/{userId}/tokens/revoke")
+    public ResponseEntity<?> revokeUserTokens(@PathVariable Long userId) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        logger.warn("Admin {} revoked tokens of user {}", auth.getName(), userId);
+        
+        tokenAuthenticator.invalidateUser(userId);
+        sessionResumption.revokeUser(userId);
+        
+        return ResponseEntity.ok(Map.of("message", "Tokens revoked for user " + userId));
+    }
+    
+    /**
+     * Attachment deduplication report: logical vs stored bytes
+     */
+    @GetMapping("/storage/dedup")
+    public ResponseEntity<Map<String, Object>> getDedupReport() {
+        return ResponseEntity.ok(storedObjectService.getDedupReport());
+    }
+    
+    private Map<String, Object> executorMetrics(ThreadPoolTaskExecutor executor) {
+        if (executor instanceof InstrumentedChannelExecutor) {
+            return ((InstrumentedChannelExecutor) executor).getMetrics();
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("poolSize", executor.getPoolSize());
+        metrics.put("activeThreads", executor.getActiveCount());
+        metrics.put("queueDepth", executor.getThreadPoolExecutor().getQueue().size());
+        return metrics;
+    }
+    
     /**
      * DTO for returning decrypted credential data
      */
@@ -1,12 +1,13 @@
 package com.chatapp.controller;
 
 import com.chatapp.model.Attachment;
+import com.chatapp.model.AttachmentThumbnail;
 import com.chatapp.model.dto.AttachmentDto;
 import com.chatapp.security.UserDetailsImpl;
 import com.chatapp.service.FileStorageService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -19,6 +20,7 @@ import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @RestController
@@ -112,7 +114,9 @@ public class FileController {
     }
     
     /**
-     * Download an attachment
+     * Download an attachment. The file is streamed from the content store; Range requests
+     * get a 206 partial response and a matching If-None-Match gets a 304, both handled by
+     * Spring MVC for Resource bodies based on the ETag set here.
      */
     @GetMapping("/attachments/{attachmentId}")
     public ResponseEntity<Resource> downloadAttachment(@PathVariable Long attachmentId) {
@@ -120,9 +124,32 @@ public class FileController {
                 .orElseThrow(() -> new RuntimeException("File not found with id " + attachmentId));
         
         return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(attachment.getFileType()))
+                .contentType(mediaTypeOf(attachment))
+                .eTag(attachment.getContentHash())
+                .cacheControl(CacheControl.maxAge(30, TimeUnit.DAYS).cachePrivate())
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + attachment.getFileName() + "\"")
-                .body(new ByteArrayResource(attachment.getFileContent()));
+                .body(fileStorageService.loadContent(attachment));
+    }
+    
+    /**
+     * Download a generated thumbnail of an image attachment, picking the stored size that best
+     * fits the requested one. 404 until the background job has produced it.
+     */
+    @GetMapping("/attachments/{attachmentId}/thumbnail")
+    public ResponseEntity<Resource> downloadThumbnail(
+            @PathVariable Long attachmentId,
+            @RequestParam(defaultValue = "160") int size) {
+        AttachmentThumbnail thumbnail = fileStorageService.getThumbnail(attachmentId, size).orElse(null);
+        if (thumbnail == null) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(thumbnail.getFileType()))
+                .eTag(thumbnail.getContentHash())
+                .cacheControl(CacheControl.maxAge(30, TimeUnit.DAYS).cachePrivate())
+                .body(fileStorageService.loadContent(thumbnail));
     }
     
     /**
@@ -158,8 +185,18 @@ public class FileController {
                 .orElseThrow(() -> new RuntimeException("Profile picture not found for user with id " + userId));
         
         return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(attachment.getFileType()))
-                .body(new ByteArrayResource(attachment.getFileContent()));
+                .contentType(mediaTypeOf(attachment))
+                .eTag(attachment.getContentHash())
+                .body(fileStorageService.loadContent(attachment));
+    }
+    
+    /**
+     * Helper method to resolve the response content type of an attachment
+     */
+    private MediaType mediaTypeOf(Attachment attachment) {
+        return attachment.getFileType() != null
+                ? MediaType.parseMediaType(attachment.getFileType())
+                : MediaType.APPLICATION_OCTET_STREAM;
     }
     
     /**
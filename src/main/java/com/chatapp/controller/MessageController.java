@@ -2,11 +2,15 @@ package com.chatapp.controller;
 
 import com.chatapp.model.dto.MessageDto;
 import com.chatapp.model.dto.MessageRequest;
+import com.chatapp.model.dto.MessageSearchResultDto;
+import com.chatapp.model.dto.SyncRequest;
+import com.chatapp.model.dto.SyncResponseDto;
 import com.chatapp.security.UserDetailsImpl;
 import com.chatapp.service.ChatService;
 import com.chatapp.service.MessageService;
+import com.chatapp.service.SyncService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
@@ -22,18 +26,25 @@ import java.util.Map;
 @RequestMapping("/api/messages")
 public class MessageController {
 
+    private static final int MAX_SEARCH_SIZE = 100;
+
     @Autowired
     private MessageService messageService;
 
     @Autowired
     private ChatService chatService;
 
+    @Autowired
+    private SyncService syncService;
+
     @GetMapping("/chat/{chatId}")
     @PreAuthorize("hasRole('USER') or hasRole('MODERATOR') or hasRole('ADMIN')")
-    public ResponseEntity<Page<MessageDto>> getChatMessages(
+    public ResponseEntity<Slice<MessageDto>> getChatMessages(
             @PathVariable Long chatId,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int size,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
             Authentication authentication) {
         UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
         
@@ -42,7 +53,14 @@ public class MessageController {
             return ResponseEntity.status(403).build();
         }
         
-        Page<MessageDto> messages = messageService.findByChatId(chatId, page, size);
+        if (before != null && after != null) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        // Prefer cursor paging; offset paging is kept for older clients
+        Slice<MessageDto> messages = (before != null || after != null)
+                ? messageService.findByChatIdAroundCursor(chatId, before, after, size, userDetails.getId())
+                : messageService.findByChatId(chatId, page, size, userDetails.getId());
         return ResponseEntity.ok(messages);
     }
 
@@ -200,25 +218,39 @@ public class MessageController {
         }});
     }
 
+    /**
+     * Everything after the client's last seen sequence for each chat, in one call.
+     */
+    @PostMapping("/sync")
+    @PreAuthorize("hasRole('USER') or hasRole('MODERATOR') or hasRole('ADMIN')")
+    public ResponseEntity<SyncResponseDto> sync(
+            @RequestBody SyncRequest syncRequest,
+            Authentication authentication) {
+        UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
+        
+        return ResponseEntity.ok(syncService.sync(syncRequest, userDetails.getId()));
+    }
+
     @GetMapping("/search")
     @PreAuthorize("hasRole('USER') or hasRole('MODERATOR') or hasRole('ADMIN')")
-    public ResponseEntity<List<MessageDto>> searchMessages(
+    public ResponseEntity<MessageSearchResultDto> searchMessages(
             @RequestParam String query,
             @RequestParam(required = false) Long chatId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
             Authentication authentication) {
         UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
         
-        List<MessageDto> messages;
-        if (chatId != null) {
-            // Verify user has access to this chat
-            if (!chatService.isUserInChat(userDetails.getId(), chatId)) {
-                return ResponseEntity.status(403).build();
-            }
-            messages = messageService.searchMessagesInChat(query, chatId);
-        } else {
-            messages = messageService.searchMessagesForUser(query, userDetails.getId());
+        // Verify user has access to this chat
+        if (chatId != null && !chatService.isUserInChat(userDetails.getId(), chatId)) {
+            return ResponseEntity.status(403).build();
         }
         
-        return ResponseEntity.ok(messages);
+        int pageSize = Math.max(1, Math.min(size, MAX_SEARCH_SIZE));
+        try {
+            return ResponseEntity.ok(messageService.searchMessages(query, userDetails.getId(), chatId, cursor, pageSize));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 }
\ No newline at end of file
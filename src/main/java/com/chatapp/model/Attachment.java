@@ -26,19 +26,14 @@ public class Attachment {
     private String filePath;
     private Long fileSize;
     
-    // Store file content directly in the database
-    @Lob
-    @Column(columnDefinition = "BLOB")
-    private byte[] fileContent;
+    // SHA-256 of the file content; the bytes live in the ContentStore
+    @Column(length = 64)
+    private String contentHash;
     
     @Enumerated(EnumType.STRING)
     private AttachmentType type;
     
-    // Store thumbnail data directly in the database
-    @Lob
-    @Column(columnDefinition = "BLOB")
-    private byte[] thumbnailContent;
-    
+    // Set once background thumbnail generation has finished (see AttachmentThumbnail)
     private String thumbnailUrl;
     
     // Reference to user (for profile pictures)
@@ -0,0 +1,39 @@
+package com.chatapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "attachment_thumbnails",
+       uniqueConstraints = {
+           @UniqueConstraint(columnNames = {"attachment_id", "max_dimension"})
+       })
+public class AttachmentThumbnail {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "attachment_id", nullable = false)
+    private Long attachmentId;
+
+    // Bounding box the thumbnail was scaled into, e.g. 160 or 480
+    @Column(name = "max_dimension")
+    private int maxDimension;
+
+    private int width;
+    private int height;
+
+    private String fileType;
+
+    // Thumbnail bytes live in the ContentStore like attachment content
+    @Column(length = 64)
+    private String contentHash;
+}
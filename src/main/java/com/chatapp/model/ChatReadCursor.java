@@ -0,0 +1,38 @@
+package com.chatapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "chat_read_cursors",
+       uniqueConstraints = {
+           @UniqueConstraint(columnNames = {"chat_id", "user_id"})
+       },
+       indexes = {
+           @Index(name = "idx_read_cursor_user", columnList = "user_id")
+       })
+public class ChatReadCursor {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    // Highest message id the member has read in this chat
+    private Long lastReadMessageId;
+
+    private LocalDateTime lastReadAt;
+}
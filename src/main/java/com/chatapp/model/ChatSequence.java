@@ -0,0 +1,25 @@
+package com.chatapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+/**
+ * Last sequence number handed out for a chat, shared by all nodes in cluster mode.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "chat_sequences")
+public class ChatSequence {
+    @Id
+    @Column(name = "chat_id")
+    private Long chatId;
+
+    private long lastValue;
+}
@@ -0,0 +1,55 @@
+package com.chatapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Event waiting for a user who was offline when it happened: a reference to a message,
+ * or a marker telling the client to resync a chat whose backlog overflowed the mailbox.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "mailbox_entries",
+       indexes = {
+           @Index(name = "idx_mailbox_user", columnList = "user_id, id"),
+           @Index(name = "idx_mailbox_user_chat", columnList = "user_id, chat_id")
+       })
+public class MailboxEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+
+    // Null for RESYNC markers
+    @Column(name = "message_id")
+    private Long messageId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private EntryType type;
+
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public enum EntryType {
+        MESSAGE,
+        RESYNC
+    }
+}
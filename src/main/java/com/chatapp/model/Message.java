@@ -16,7 +16,12 @@ import java.util.Set;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "messages")
+@Table(name = "messages",
+       indexes = {
+           @Index(name = "idx_message_chat_id", columnList = "chat_id, id"),
+           @Index(name = "idx_message_chat_created", columnList = "chat_id, createdAt, id"),
+           @Index(name = "idx_message_chat_sequence", columnList = "chat_id, sequence")
+       })
 public class Message {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -34,6 +39,9 @@ public class Message {
     @JoinColumn(name = "chat_id")
     private Chat chat;
 
+    // Monotonic per-chat sequence number assigned at write time
+    private Long sequence;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "reply_to_id")
     private Message replyTo;
@@ -47,6 +55,7 @@ public class Message {
                inverseJoinColumns = @JoinColumn(name = "attachment_id"))
     private Set<Attachment> attachments = new HashSet<>();
 
+    // Legacy per-click reactions; counts are now kept in ReactionCount
     @ManyToMany(fetch = FetchType.LAZY)
     @JoinTable(name = "message_reactions",
                joinColumns = @JoinColumn(name = "message_id"),
@@ -57,6 +66,7 @@ public class Message {
     private LocalDateTime editedAt;
     private boolean deleted;
     
+    // Legacy per-message receipts; read state is now tracked by ChatReadCursor
     @ManyToMany(fetch = FetchType.LAZY)
     @JoinTable(name = "message_read_by",
                joinColumns = @JoinColumn(name = "message_id"),
@@ -68,7 +78,10 @@ public class Message {
 
     @PrePersist
     protected void onCreate() {
-        this.createdAt = LocalDateTime.now();
+        // Write-behind persistence sets createdAt when the message is accepted
+        if (this.createdAt == null) {
+            this.createdAt = LocalDateTime.now();
+        }
         this.updatedAt = LocalDateTime.now();
     }
 
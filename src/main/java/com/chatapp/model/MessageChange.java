@@ -0,0 +1,53 @@
+package com.chatapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Edit or deletion of a message, recorded under its own per-chat sequence number so a
+ * client can catch up on everything after the last sequence it saw. New messages do not
+ * need a record; they carry their sequence on the message row.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "message_changes",
+       indexes = {
+           @Index(name = "idx_message_change_chat_sequence", columnList = "chat_id, sequence")
+       })
+public class MessageChange {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+
+    private Long sequence;
+
+    @Column(name = "message_id", nullable = false)
+    private Long messageId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private ChangeType type;
+
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public enum ChangeType {
+        EDITED,
+        DELETED
+    }
+}
@@ -0,0 +1,41 @@
+package com.chatapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Chat sequence number handed out in cluster mode whose message or change record has not
+ * been committed or abandoned yet. Delta sync does not report past the lowest open claim.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "chat_sequence_claims",
+       uniqueConstraints = {
+           @UniqueConstraint(columnNames = {"chat_id", "sequence"})
+       })
+public class SequenceClaim {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+
+    @Column(nullable = false)
+    private Long sequence;
+
+    private LocalDateTime claimedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        this.claimedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,44 @@
+package com.chatapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "stored_objects",
+       indexes = {
+           @Index(name = "idx_stored_object_ref_count", columnList = "refCount")
+       })
+public class StoredObject {
+    // SHA-256 of the content, also its name in the content store
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    private long size;
+
+    // Number of attachments pointing at this content
+    private long refCount;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        this.updatedAt = LocalDateTime.now();
+    }
+}
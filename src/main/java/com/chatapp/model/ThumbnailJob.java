@@ -0,0 +1,56 @@
+package com.chatapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "thumbnail_jobs",
+       indexes = {
+           @Index(name = "idx_thumbnail_job_status", columnList = "status")
+       })
+public class ThumbnailJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "attachment_id", nullable = false)
+    private Long attachmentId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private JobStatus status;
+
+    private int attempts;
+
+    private String error;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    public enum JobStatus {
+        PENDING,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+}
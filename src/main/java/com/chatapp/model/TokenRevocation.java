@@ -0,0 +1,29 @@
+package com.chatapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+/**
+ * Tokens issued to a user before {@code revokedBefore} (epoch ms) are rejected, on every node
+ * and across restarts.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "token_revocations",
+       indexes = {
+           @Index(name = "idx_token_revocation_revoked_before", columnList = "revokedBefore")
+       })
+public class TokenRevocation {
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    private long revokedBefore;
+}
@@ -23,11 +23,14 @@ public class MessageDto {
     @NotNull
     private Long chatId;
     
+    private Long sequence;
     private UserDto sender;
     private Long replyToId;
     private MessageDto replyTo;
     private List<AttachmentDto> attachments;
     private Map<String, Integer> reactions;
+    // Emojis the requesting user reacted with
+    private List<String> myReactions;
     private boolean edited;
     private String editedAt;
     private boolean deleted;
@@ -0,0 +1,29 @@
+package com.chatapp.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class MessageSearchResultDto {
+    private List<Hit> results;
+    
+    // Opaque cursor for the next page, null when there are no more results
+    private String nextCursor;
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Hit {
+        private MessageDto message;
+        private float score;
+        private String snippet;
+    }
+}
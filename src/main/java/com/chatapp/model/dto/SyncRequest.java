@@ -0,0 +1,20 @@
+package com.chatapp.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SyncRequest {
+    // Last sequence the client has seen per chat id; 0 for a chat it has nothing of
+    private Map<Long, Long> chats;
+    
+    // Maximum number of records returned per chat
+    private Integer limit;
+}
@@ -0,0 +1,49 @@
+package com.chatapp.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SyncResponseDto {
+    private List<ChatSync> chats;
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class ChatSync {
+        private Long chatId;
+        
+        // New messages in sequence order
+        private List<MessageDto> messages;
+        
+        // Edits and deletions in sequence order
+        private List<Change> changes;
+        
+        // Sequence to send on the next sync; everything up to it has been returned
+        private Long syncedTo;
+        
+        // True when the limit was hit and the client should sync again from syncedTo
+        private boolean hasMore;
+    }
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Change {
+        private Long sequence;
+        private String type;
+        private Long messageId;
+        
+        // Current state of an edited message; null for deletions
+        private MessageDto message;
+    }
+}
@@ -14,7 +14,7 @@ public interface AttachmentRepository extends JpaRepository<Attachment, Long> {
     @Query("SELECT a FROM Attachment a JOIN a.messages m WHERE m.id = ?1")
     List<Attachment> findByMessageId(Long messageId);
     
-    @Query("SELECT a FROM Attachment a JOIN a.messages m WHERE m.chat.id = ?1")
+    @Query("SELECT DISTINCT a FROM Attachment a JOIN a.messages m WHERE m.chat.id = ?1")
     List<Attachment> findByChatId(Long chatId);
     
     // Direct reference to user
@@ -26,6 +26,12 @@ public interface AttachmentRepository extends JpaRepository<Attachment, Long> {
     @Query("SELECT a FROM Attachment a JOIN a.messages m WHERE m.sender.id = ?1")
     List<Attachment> findBySenderId(Long senderId);
     
+    long countByContentHash(String contentHash);
+    
+    // Returns [attachmentCount, logicalBytes] over all attachments backed by the content store
+    @Query("SELECT COUNT(a), COALESCE(SUM(a.fileSize), 0) FROM Attachment a WHERE a.contentHash IS NOT NULL")
+    List<Object[]> summarizeContent();
+    
     @Query("SELECT a FROM Attachment a WHERE a.type = ?1 AND EXISTS (SELECT m FROM a.messages m WHERE m.chat.id = ?2)")
     List<Attachment> findByTypeAndChatId(String attachmentType, Long chatId);
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.AttachmentThumbnail;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface AttachmentThumbnailRepository extends JpaRepository<AttachmentThumbnail, Long> {
+    List<AttachmentThumbnail> findByAttachmentIdOrderByMaxDimensionAsc(Long attachmentId);
+    
+    void deleteByAttachmentId(Long attachmentId);
+    
+    long countByContentHash(String contentHash);
+}
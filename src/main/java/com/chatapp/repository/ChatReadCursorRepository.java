@@ -0,0 +1,30 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.ChatReadCursor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ChatReadCursorRepository extends JpaRepository<ChatReadCursor, Long> {
+    Optional<ChatReadCursor> findByChatIdAndUserId(Long chatId, Long userId);
+    
+    boolean existsByChatIdAndUserId(Long chatId, Long userId);
+    
+    List<ChatReadCursor> findByChatId(Long chatId);
+    
+    // Only moves the cursor forward so out-of-order read events cannot rewind it
+    @Modifying
+    @Query("UPDATE ChatReadCursor rc SET rc.lastReadMessageId = ?3, rc.lastReadAt = ?4 " +
+           "WHERE rc.chatId = ?1 AND rc.userId = ?2 AND (rc.lastReadMessageId IS NULL OR rc.lastReadMessageId < ?3)")
+    int advance(Long chatId, Long userId, Long messageId, LocalDateTime readAt);
+    
+    @Modifying
+    @Query("DELETE FROM ChatReadCursor rc WHERE rc.chatId = ?1")
+    void deleteByChatId(Long chatId);
+}
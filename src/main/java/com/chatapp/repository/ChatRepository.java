@@ -8,6 +8,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -30,4 +31,21 @@ public interface ChatRepository extends JpaRepository<Chat, Long> {
     
     @Query("SELECT c FROM Chat c WHERE c.creator.id = ?1")
     List<Chat> findChatsByCreator(Long userId);
+    
+    @Query("SELECT c.id FROM Chat c JOIN c.members m WHERE m.id = ?1")
+    List<Long> findChatIdsByMemberId(Long userId);
+    
+    @Query("SELECT m.id FROM Chat c JOIN c.members m WHERE c.id = ?1")
+    List<Long> findMemberIdsByChatId(Long chatId);
+    
+    @Query("SELECT COUNT(m) FROM Chat c JOIN c.members m WHERE c.id = ?1")
+    long countMembers(Long chatId);
+    
+    // Returns [chatId, memberId] pairs for a batch of chats
+    @Query("SELECT c.id, m.id FROM Chat c JOIN c.members m WHERE c.id IN ?1")
+    List<Object[]> findMemberIdsByChatIds(Collection<Long> chatIds);
+    
+    // Returns [userId, username] for everyone sharing at least one chat with the user
+    @Query("SELECT DISTINCT m2.id, m2.username FROM Chat c JOIN c.members m1 JOIN c.members m2 WHERE m1.id = ?1 AND m2.id <> ?1")
+    List<Object[]> findCoMemberRows(Long userId);
 }
\ No newline at end of file
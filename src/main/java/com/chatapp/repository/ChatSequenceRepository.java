@@ -0,0 +1,20 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.ChatSequence;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ChatSequenceRepository extends JpaRepository<ChatSequence, Long> {
+    // Row-locking increment; concurrent callers on any node are serialised by the database
+    @Modifying
+    @Query("UPDATE ChatSequence cs SET cs.lastValue = cs.lastValue + 1 WHERE cs.chatId = ?1")
+    int increment(Long chatId);
+    
+    @Query("SELECT cs.lastValue FROM ChatSequence cs WHERE cs.chatId = ?1")
+    Optional<Long> findLastValue(Long chatId);
+}
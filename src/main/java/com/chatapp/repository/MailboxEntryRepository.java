@@ -0,0 +1,40 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.MailboxEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface MailboxEntryRepository extends JpaRepository<MailboxEntry, Long> {
+    List<MailboxEntry> findByUserIdOrderByIdAsc(Long userId, Pageable pageable);
+    
+    // Returns [userId, entryCount] pairs; users with an empty mailbox are omitted
+    @Query("SELECT e.userId, COUNT(e) FROM MailboxEntry e WHERE e.userId IN ?1 GROUP BY e.userId")
+    List<Object[]> countByUserIds(Collection<Long> userIds);
+    
+    @Query("SELECT e.userId FROM MailboxEntry e WHERE e.userId IN ?1 AND e.chatId = ?2 AND e.type = 'RESYNC'")
+    List<Long> findUserIdsWithResyncMarker(Collection<Long> userIds, Long chatId);
+    
+    @Modifying
+    @Query("DELETE FROM MailboxEntry e WHERE e.userId IN ?1 AND e.chatId = ?2 AND e.type = 'MESSAGE'")
+    int deleteMessageEntries(Collection<Long> userIds, Long chatId);
+    
+    @Modifying
+    @Query("DELETE FROM MailboxEntry e WHERE e.id IN ?1")
+    void deleteByIdIn(Collection<Long> ids);
+    
+    @Modifying
+    @Query("DELETE FROM MailboxEntry e WHERE e.chatId = ?1")
+    void deleteByChatId(Long chatId);
+    
+    @Modifying
+    @Query("DELETE FROM MailboxEntry e WHERE e.createdAt < ?1")
+    int deleteOlderThan(LocalDateTime cutoff);
+}
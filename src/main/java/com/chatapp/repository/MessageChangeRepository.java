@@ -0,0 +1,27 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.MessageChange;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface MessageChangeRepository extends JpaRepository<MessageChange, Long> {
+    @Query("SELECT mc FROM MessageChange mc WHERE mc.chatId = ?1 AND mc.sequence > ?2 AND mc.sequence <= ?3 ORDER BY mc.sequence")
+    List<MessageChange> findBetween(Long chatId, Long after, Long upTo, Pageable pageable);
+    
+    @Query("SELECT MAX(mc.sequence) FROM MessageChange mc WHERE mc.chatId = ?1")
+    Long findMaxSequenceByChatId(Long chatId);
+    
+    @Query("SELECT DISTINCT mc.messageId FROM MessageChange mc WHERE mc.createdAt >= ?1")
+    List<Long> findMessageIdsChangedSince(LocalDateTime since);
+    
+    @Modifying
+    @Query("DELETE FROM MessageChange mc WHERE mc.chatId = ?1")
+    void deleteByChatId(Long chatId);
+}
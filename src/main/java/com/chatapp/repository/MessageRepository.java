@@ -3,33 +3,93 @@ package com.chatapp.repository;
 import com.chatapp.model.Message;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
     Page<Message> findByChatIdOrderByCreatedAtDesc(Long chatId, Pageable pageable);
     
-    List<Message> findByChatIdAndCreatedAtAfterOrderByCreatedAtAsc(Long chatId, LocalDateTime after);
+    // Flat history rows for MessageReadModel:
+    // [id, chatId, sequence, content, senderId, replyToId, edited, editedAt, deleted, createdAt]
+    String HISTORY_ROW = "SELECT m.id, m.chat.id, m.sequence, m.content, m.sender.id, m.replyTo.id, " +
+                         "m.edited, m.editedAt, m.deleted, m.createdAt FROM Message m ";
+    
+    @Query(HISTORY_ROW + "WHERE m.chat.id = ?1 ORDER BY m.createdAt DESC, m.id DESC")
+    Slice<Object[]> findHistoryRows(Long chatId, Pageable pageable);
+    
+    // Keyset pages over the (chat_id, created_at, id) index: older than / newer than a cursor message
+    @Query(HISTORY_ROW + "WHERE m.chat.id = ?1 " +
+           "AND (m.createdAt < ?2 OR (m.createdAt = ?2 AND m.id < ?3)) " +
+           "ORDER BY m.createdAt DESC, m.id DESC")
+    Slice<Object[]> findHistoryRowsBefore(Long chatId, LocalDateTime createdAt, Long id, Pageable pageable);
+    
+    @Query(HISTORY_ROW + "WHERE m.chat.id = ?1 " +
+           "AND (m.createdAt > ?2 OR (m.createdAt = ?2 AND m.id > ?3)) " +
+           "ORDER BY m.createdAt ASC, m.id ASC")
+    Slice<Object[]> findHistoryRowsAfter(Long chatId, LocalDateTime createdAt, Long id, Pageable pageable);
+    
+    @Query(HISTORY_ROW + "WHERE m.id IN ?1")
+    List<Object[]> findHistoryRowsByIdIn(Collection<Long> ids);
+    
+    // Returns [id, content, senderId] rows for reply previews
+    @Query("SELECT m.id, m.content, m.sender.id FROM Message m WHERE m.id IN ?1")
+    List<Object[]> findReplyPreviewRows(Collection<Long> ids);
+    
+    // Returns [messageId, attachmentId, fileName, fileType, fileSize, type, thumbnailUrl, createdAt] rows
+    @Query("SELECT m.id, a.id, a.fileName, a.fileType, a.fileSize, a.type, a.thumbnailUrl, a.createdAt " +
+           "FROM Message m JOIN m.attachments a WHERE m.id IN ?1")
+    List<Object[]> findAttachmentRowsByMessageIds(Collection<Long> messageIds);
+    
+    // Returns [id, sequence] rows of messages after a sync position up to a limit, in sequence order
+    @Query("SELECT m.id, m.sequence FROM Message m WHERE m.chat.id = ?1 AND m.sequence > ?2 AND m.sequence <= ?3 ORDER BY m.sequence")
+    List<Object[]> findSequenceRowsBetween(Long chatId, Long after, Long upTo, Pageable pageable);
     
     List<Message> findBySenderId(Long userId);
     
-    @Query("SELECT m FROM Message m WHERE m.chat.id = ?1 AND m.content LIKE %?2%")
-    List<Message> searchMessagesInChat(Long chatId, String keyword);
+    @Query("SELECT MAX(m.sequence) FROM Message m WHERE m.chat.id = ?1")
+    Long findMaxSequenceByChatId(Long chatId);
+    
+    @Query("SELECT m.chat.id FROM Message m WHERE m.id = ?1")
+    Optional<Long> findChatIdById(Long messageId);
+    
+    @Query("SELECT m.createdAt FROM Message m WHERE m.id = ?1 AND m.chat.id = ?2")
+    Optional<LocalDateTime> findCreatedAtByIdAndChatId(Long messageId, Long chatId);
+    
+    // Unread messages are those past the member's read cursor
+    Long countByChatIdAndIdGreaterThan(Long chatId, Long lastReadMessageId);
+    
+    // Returns [id, chatId, content] rows in id order for rebuilding the search index
+    @Query("SELECT m.id, m.chat.id, m.content FROM Message m WHERE m.id > ?1 ORDER BY m.id")
+    List<Object[]> findSearchIndexRowsAfter(Long afterId, Pageable pageable);
+    
+    // Returns [id, chatId, content] rows for re-indexing individual messages
+    @Query("SELECT m.id, m.chat.id, m.content FROM Message m WHERE m.id IN ?1")
+    List<Object[]> findSearchIndexRowsByIds(Collection<Long> messageIds);
     
-    @Query("SELECT m FROM Message m JOIN m.readBy r WHERE m.chat.id = ?1 AND r.id = ?2")
-    List<Message> findMessagesReadByUser(Long chatId, Long userId);
+    @Query("SELECT MIN(m.id) FROM Message m WHERE m.createdAt >= ?1")
+    Long findMinIdCreatedSince(LocalDateTime since);
     
-    @Query("SELECT m FROM Message m WHERE m.chat.id = ?1 AND m.id NOT IN (SELECT rm.id FROM Message rm JOIN rm.readBy r WHERE r.id = ?2)")
-    List<Message> findUnreadMessagesForUser(Long chatId, Long userId);
+    // Returns [messageId, chatId] pairs for messages carrying the attachment
+    @Query("SELECT m.id, m.chat.id FROM Message m JOIN m.attachments a WHERE a.id = ?1")
+    List<Object[]> findMessageAndChatIdsByAttachmentId(Long attachmentId);
     
-    @Query("SELECT COUNT(m) FROM Message m WHERE m.chat.id = ?1 AND m.id NOT IN (SELECT rm.id FROM Message rm JOIN rm.readBy r WHERE r.id = ?2)")
-    Long countUnreadMessagesForUser(Long chatId, Long userId);
+    // Latest message of each chat in the batch, with sender and roles fetched in the same statement
+    @Query("SELECT DISTINCT m FROM Message m LEFT JOIN FETCH m.sender s LEFT JOIN FETCH s.roles " +
+           "WHERE m.id IN (SELECT MAX(lm.id) FROM Message lm WHERE lm.chat.id IN ?1 GROUP BY lm.chat.id)")
+    List<Message> findLastMessagesByChatIds(Collection<Long> chatIds);
     
-    @Query("SELECT m FROM Message m WHERE m.content LIKE %?1% AND m.chat.id IN (SELECT c.id FROM Chat c JOIN c.members mem WHERE mem.id = ?2)")
-    List<Message> searchMessagesForUser(String keyword, Long userId);
+    // Returns [chatId, unreadCount] pairs; chats without unread messages are omitted
+    @Query("SELECT m.chat.id, COUNT(m) FROM Message m " +
+           "LEFT JOIN ChatReadCursor rc ON rc.chatId = m.chat.id AND rc.userId = ?2 " +
+           "WHERE m.chat.id IN ?1 AND (rc.lastReadMessageId IS NULL OR m.id > rc.lastReadMessageId) " +
+           "GROUP BY m.chat.id")
+    List<Object[]> countUnreadMessagesByChatIds(Collection<Long> chatIds, Long userId);
 }
\ No newline at end of file
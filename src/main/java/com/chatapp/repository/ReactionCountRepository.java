@@ -0,0 +1,41 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.ReactionCount;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ReactionCountRepository extends JpaRepository<ReactionCount, Long> {
+    @Modifying
+    @Query("UPDATE ReactionCount rc SET rc.reactionCount = rc.reactionCount + 1, rc.updatedAt = ?3 " +
+           "WHERE rc.messageId = ?1 AND rc.emoji = ?2")
+    int increment(Long messageId, String emoji, LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE ReactionCount rc SET rc.reactionCount = rc.reactionCount - 1, rc.updatedAt = ?3 " +
+           "WHERE rc.messageId = ?1 AND rc.emoji = ?2 AND rc.reactionCount > 0")
+    int decrement(Long messageId, String emoji, LocalDateTime now);
+    
+    @Modifying
+    @Query("DELETE FROM ReactionCount rc WHERE rc.messageId = ?1 AND rc.emoji = ?2 AND rc.reactionCount <= 0")
+    int deleteIfEmpty(Long messageId, String emoji);
+    
+    @Modifying
+    @Query("DELETE FROM ReactionCount rc WHERE rc.messageId = ?1")
+    void deleteByMessageId(Long messageId);
+    
+    @Modifying
+    @Query("DELETE FROM ReactionCount rc WHERE rc.messageId IN (SELECT m.id FROM Message m WHERE m.chat.id = ?1)")
+    void deleteByChatId(Long chatId);
+    
+    // Returns [messageId, emoji, count] rows
+    @Query("SELECT rc.messageId, rc.emoji, rc.reactionCount FROM ReactionCount rc " +
+           "WHERE rc.messageId IN ?1 AND rc.reactionCount > 0")
+    List<Object[]> findCountsByMessageIds(Collection<Long> messageIds);
+}
@@ -0,0 +1,27 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.SequenceClaim;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface SequenceClaimRepository extends JpaRepository<SequenceClaim, Long> {
+    @Query("SELECT MIN(sc.sequence) FROM SequenceClaim sc WHERE sc.chatId = ?1")
+    Long findLowestOpenSequence(Long chatId);
+    
+    @Modifying
+    @Query("DELETE FROM SequenceClaim sc WHERE sc.chatId = ?1 AND sc.sequence = ?2")
+    int release(Long chatId, Long sequence);
+    
+    @Modifying
+    @Query("DELETE FROM SequenceClaim sc WHERE sc.chatId = ?1")
+    void deleteByChatId(Long chatId);
+    
+    @Modifying
+    @Query("DELETE FROM SequenceClaim sc WHERE sc.claimedAt < ?1")
+    int deleteClaimedBefore(LocalDateTime cutoff);
+}
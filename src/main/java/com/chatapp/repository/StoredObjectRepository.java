@@ -0,0 +1,45 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.StoredObject;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface StoredObjectRepository extends JpaRepository<StoredObject, String> {
+    // Row lock shared by every node: uploads and the GC sweep serialize on it
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT o FROM StoredObject o WHERE o.hash = ?1")
+    Optional<StoredObject> findByIdForUpdate(String hash);
+    
+    // A plain INSERT: save() merges entities with an assigned id, overwriting a concurrent insert
+    @Modifying
+    @Query(value = "INSERT INTO stored_objects (hash, size, ref_count, created_at, updated_at) VALUES (?1, ?2, 1, ?3, ?3)",
+           nativeQuery = true)
+    int insertReferenced(String hash, long size, LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE StoredObject o SET o.refCount = o.refCount + 1, o.updatedAt = ?2 WHERE o.hash = ?1")
+    int incrementRefCount(String hash, LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE StoredObject o SET o.refCount = o.refCount - 1, o.updatedAt = ?2 WHERE o.hash = ?1 AND o.refCount > 0")
+    int decrementRefCount(String hash, LocalDateTime now);
+    
+    @Query("SELECT o.hash FROM StoredObject o WHERE o.refCount <= 0")
+    List<String> findUnreferencedHashes(Pageable pageable);
+    
+    @Query("SELECT o.hash FROM StoredObject o WHERE o.updatedAt < ?1 ORDER BY o.hash")
+    List<String> findHashesNotUpdatedSince(LocalDateTime cutoff, Pageable pageable);
+    
+    @Query("SELECT COUNT(o), COALESCE(SUM(o.size), 0) FROM StoredObject o")
+    List<Object[]> summarize();
+}
@@ -0,0 +1,25 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.ThumbnailJob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ThumbnailJobRepository extends JpaRepository<ThumbnailJob, Long> {
+    List<ThumbnailJob> findByStatusOrderByIdAsc(ThumbnailJob.JobStatus status, Pageable pageable);
+    
+    // Claim a job for a worker; returns 0 if another worker already took it
+    @Modifying
+    @Query("UPDATE ThumbnailJob j SET j.status = 'RUNNING', j.attempts = j.attempts + 1 WHERE j.id = ?1 AND j.status = 'PENDING'")
+    int claim(Long id);
+    
+    // Jobs left RUNNING by a previous process go back to the queue on startup
+    @Modifying
+    @Query("UPDATE ThumbnailJob j SET j.status = 'PENDING' WHERE j.status = 'RUNNING'")
+    int resetRunning();
+}
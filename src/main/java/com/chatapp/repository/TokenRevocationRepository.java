@@ -0,0 +1,28 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.TokenRevocation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface TokenRevocationRepository extends JpaRepository<TokenRevocation, Long> {
+    // A plain INSERT, so a concurrent first revocation fails it instead of being merged over
+    @Modifying
+    @Query(value = "INSERT INTO token_revocations (user_id, revoked_before) VALUES (?1, ?2)", nativeQuery = true)
+    int insert(Long userId, long revokedBefore);
+    
+    // Only moves forward, so concurrent revocations on different nodes keep the latest
+    @Modifying
+    @Query("UPDATE TokenRevocation tr SET tr.revokedBefore = ?2 WHERE tr.userId = ?1 AND tr.revokedBefore < ?2")
+    int advance(Long userId, long revokedBefore);
+    
+    List<TokenRevocation> findByRevokedBeforeGreaterThanEqual(long cutoff);
+    
+    @Modifying
+    @Query("DELETE FROM TokenRevocation tr WHERE tr.revokedBefore < ?1")
+    int deleteOlderThan(long cutoff);
+}
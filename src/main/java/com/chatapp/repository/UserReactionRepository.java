@@ -0,0 +1,31 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.UserReaction;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface UserReactionRepository extends JpaRepository<UserReaction, Long> {
+    boolean existsByMessageIdAndUserIdAndEmoji(Long messageId, Long userId, String emoji);
+    
+    @Modifying
+    @Query("DELETE FROM UserReaction ur WHERE ur.messageId = ?1 AND ur.userId = ?2 AND ur.emoji = ?3")
+    int deleteByMessageIdAndUserIdAndEmoji(Long messageId, Long userId, String emoji);
+    
+    @Modifying
+    @Query("DELETE FROM UserReaction ur WHERE ur.messageId = ?1")
+    void deleteByMessageId(Long messageId);
+    
+    @Modifying
+    @Query("DELETE FROM UserReaction ur WHERE ur.messageId IN (SELECT m.id FROM Message m WHERE m.chat.id = ?1)")
+    void deleteByChatId(Long chatId);
+    
+    // Returns [messageId, emoji] rows for the reactions the user has left
+    @Query("SELECT ur.messageId, ur.emoji FROM UserReaction ur WHERE ur.messageId IN ?1 AND ur.userId = ?2")
+    List<Object[]> findEmojisByMessageIdsAndUserId(Collection<Long> messageIds, Long userId);
+}
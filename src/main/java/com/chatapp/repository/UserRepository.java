@@ -2,9 +2,12 @@ package com.chatapp.repository;
 
 import com.chatapp.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -30,6 +33,21 @@ public interface UserRepository extends JpaRepository<User, Long> {
     @Query("SELECT u FROM User u JOIN u.contacts c WHERE c.id = ?1")
     List<User> findContactsOf(Long userId);
     
+    // Returns [userId, username] for the users that list the given user as a contact
+    @Query("SELECT u.id, u.username FROM User u JOIN u.contacts c WHERE c.id = ?1")
+    List<Object[]> findContactOfRows(Long userId);
+    
     @Query("SELECT u FROM User u WHERE u IN (SELECT c FROM User usr JOIN usr.blockedUsers c WHERE usr.id = ?1)")
     List<User> findBlockedByUser(Long userId);
+    
+    @Modifying
+    @Query("UPDATE User u SET u.status = ?2 WHERE u.id IN ?1")
+    int updateStatusByIdIn(Collection<Long> ids, String status);
+    
+    @Modifying
+    @Query("UPDATE User u SET u.status = ?2, u.lastActive = ?3 WHERE u.id IN ?1")
+    int updateStatusAndLastActiveByIdIn(Collection<Long> ids, String status, LocalDateTime lastActive);
+    
+    @Query("SELECT DISTINCT u FROM User u LEFT JOIN FETCH u.roles WHERE u.id IN ?1")
+    List<User> findAllWithRolesByIdIn(Collection<Long> ids);
 }
\ No newline at end of file
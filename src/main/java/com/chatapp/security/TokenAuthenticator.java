@@ -0,0 +1,283 @@
+package com.chatapp.security;
+
+import com.chatapp.model.TokenRevocation;
+import com.chatapp.repository.TokenRevocationRepository;
+import io.jsonwebtoken.Claims;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Turns a bearer token into a principal without touching the database.
+ * <p>
+ * Tokens carry the user id, email and roles as claims, so a single verified parse is
+ * enough to build {@link UserDetailsImpl}. Verified tokens are cached by SHA-256 digest
+ * until they expire, so repeated REST calls and websocket connects with the same token
+ * skip the signature check as well. Tokens issued before the claims were added fall back
+ * to a user lookup.
+ * <p>
+ * Since roles are baked into the token, anything that changes a user's roles or disables
+ * them must call {@link #invalidateUser(Long)}: tokens issued to that user before the call
+ * are rejected from then on and the user has to log in again. Revocations are stored in
+ * {@code token_revocations} and checked in memory; each node loads them at startup and
+ * refreshes them every {@code revocation-refresh-ms}, so a revocation made on one node
+ * reaches the others within that interval and survives restarts.
+ */
+@Component
+public class TokenAuthenticator {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenAuthenticator.class);
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private UserDetailsServiceImpl userDetailsService;
+
+    @Autowired
+    private TokenRevocationRepository revocationRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${chatapp.security.token-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${chatapp.app.jwtExpirationMs}")
+    private long jwtExpirationMs;
+
+    private final Map<String, VerifiedToken> cache = new ConcurrentHashMap<>();
+
+    // userId -> tokens issued before this time (epoch ms, whole seconds) are rejected;
+    // a copy of the live rows of token_revocations
+    private final Map<Long, Long> revokedBefore = new ConcurrentHashMap<>();
+
+    private TransactionTemplate requiresNew;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        refreshRevocations();
+    }
+
+    /**
+     * Returns the principal for a token, or null if the token is invalid, expired or revoked.
+     */
+    public UserDetailsImpl authenticate(String token) {
+        VerifiedToken verified = verify(token);
+        return verified != null ? verified.getPrincipal() : null;
+    }
+
+    /**
+     * Like {@link #authenticate(String)}, but also returns when the token was issued and when
+     * it expires, for callers that keep a session alive beyond a single request.
+     */
+    public VerifiedToken verify(String token) {
+        String key = digest(token);
+        long now = System.currentTimeMillis();
+
+        VerifiedToken cached = cache.get(key);
+        if (cached != null) {
+            if (cached.expiresAt > now && !isRevoked(cached.principal.getId(), cached.issuedAt)) {
+                hits.incrementAndGet();
+                return cached;
+            }
+            cache.remove(key);
+        }
+        misses.incrementAndGet();
+
+        Claims claims = jwtUtils.parseClaims(token);
+        if (claims == null) {
+            return null;
+        }
+
+        UserDetailsImpl principal = claims.get(JwtUtils.CLAIM_USER_ID) != null
+                ? fromClaims(claims)
+                : loadUser(claims.getSubject());
+        if (principal == null) {
+            return null;
+        }
+
+        long issuedAt = claims.getIssuedAt() != null ? claims.getIssuedAt().getTime() : 0L;
+        if (isRevoked(principal.getId(), issuedAt)) {
+            rejected.incrementAndGet();
+            return null;
+        }
+
+        long expiresAt = claims.getExpiration() != null ? claims.getExpiration().getTime() : now + jwtExpirationMs;
+        VerifiedToken verified = new VerifiedToken(principal, issuedAt, expiresAt);
+        makeRoom(now);
+        cache.put(key, verified);
+        return verified;
+    }
+
+    /**
+     * Rejects every token issued to the user up to now, on every node. Call after changing
+     * a user's roles or disabling the account.
+     */
+    public void invalidateUser(Long userId) {
+        // iat has second precision; a token issued in the same second as the revocation stays valid
+        long now = System.currentTimeMillis();
+        long before = now - now % 1000;
+        long cutoff = now - jwtExpirationMs;
+        
+        requiresNew.executeWithoutResult(status -> {
+            if (revocationRepository.advance(userId, before) == 0 && !revocationRepository.existsById(userId)) {
+                storeRevocation(userId, before);
+            }
+            // Revocations older than the token lifetime can no longer match a live token
+            revocationRepository.deleteOlderThan(cutoff);
+        });
+        
+        revokedBefore.merge(userId, before, Math::max);
+        cache.values().removeIf(entry -> userId.equals(entry.principal.getId()));
+        revokedBefore.values().removeIf(time -> time < cutoff);
+        logger.info("Invalidated tokens issued to user {}", userId);
+    }
+
+    /**
+     * Picks up revocations made on other nodes and drops those no live token can match.
+     */
+    @Scheduled(fixedDelayString = "${chatapp.security.revocation-refresh-ms:5000}")
+    public void refreshRevocations() {
+        long cutoff = System.currentTimeMillis() - jwtExpirationMs;
+        for (TokenRevocation revocation : revocationRepository.findByRevokedBeforeGreaterThanEqual(cutoff)) {
+            revokedBefore.merge(revocation.getUserId(), revocation.getRevokedBefore(), Math::max);
+        }
+        revokedBefore.values().removeIf(time -> time < cutoff);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("cachedTokens", cache.size());
+        metrics.put("maxEntries", maxEntries);
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("revokedUsers", revokedBefore.size());
+        metrics.put("rejectedRevoked", rejected.get());
+        return metrics;
+    }
+
+    /**
+     * Whether a token issued to the user at {@code issuedAt} (epoch ms) has been revoked by
+     * {@link #invalidateUser(Long)}.
+     */
+    public boolean isRevoked(Long userId, long issuedAt) {
+        Long before = revokedBefore.get(userId);
+        return before != null && issuedAt < before;
+    }
+
+    private void storeRevocation(Long userId, long before) {
+        try {
+            // A failed insert would roll back the purge with it, so the first revocation
+            // of a user is stored in its own transaction
+            requiresNew.executeWithoutResult(status -> revocationRepository.insert(userId, before));
+        } catch (DataIntegrityViolationException ex) {
+            // Revoked concurrently on another node; keep the later of the two
+            revocationRepository.advance(userId, before);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private UserDetailsImpl fromClaims(Claims claims) {
+        Long userId = ((Number) claims.get(JwtUtils.CLAIM_USER_ID)).longValue();
+        Object roles = claims.get(JwtUtils.CLAIM_ROLES);
+        List<GrantedAuthority> authorities = roles instanceof Collection
+                ? ((Collection<Object>) roles).stream()
+                        .map(role -> new SimpleGrantedAuthority(String.valueOf(role)))
+                        .collect(Collectors.toList())
+                : Collections.emptyList();
+
+        return new UserDetailsImpl(
+                userId,
+                claims.getSubject(),
+                claims.get(JwtUtils.CLAIM_EMAIL, String.class),
+                null,
+                authorities);
+    }
+
+    private UserDetailsImpl loadUser(String username) {
+        try {
+            UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+            return (UserDetailsImpl) userDetails;
+        } catch (UsernameNotFoundException e) {
+            logger.warn("Token subject {} no longer exists", username);
+            return null;
+        }
+    }
+
+    private void makeRoom(long now) {
+        if (cache.size() < maxEntries) {
+            return;
+        }
+        cache.values().removeIf(entry -> entry.expiresAt <= now);
+
+        // Still full: drop arbitrary entries, they are re-verified on next use
+        Iterator<String> it = cache.keySet().iterator();
+        while (cache.size() >= maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(md.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * A verified token's principal with its issue and expiry times (epoch ms).
+     */
+    public static class VerifiedToken {
+        private final UserDetailsImpl principal;
+        private final long issuedAt;
+        private final long expiresAt;
+
+        VerifiedToken(UserDetailsImpl principal, long issuedAt, long expiresAt) {
+            this.principal = principal;
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public UserDetailsImpl getPrincipal() {
+            return principal;
+        }
+
+        public long getIssuedAt() {
+            return issuedAt;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
@@ -73,6 +73,7 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
             .antMatchers("/api/auth/**").permitAll()
             .antMatchers("/api/public/**").permitAll()
             .antMatchers("/ws/**").permitAll()
+            .antMatchers("/ws-raw").permitAll()
             .antMatchers("/h2-console/**").permitAll()
             .anyRequest().authenticated();
         
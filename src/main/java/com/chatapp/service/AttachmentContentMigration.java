@@ -0,0 +1,151 @@
+package com.chatapp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One-off migration that moves attachment bytes still stored in the legacy
+ * {@code attachments.file_content} BLOB column into the {@link ContentStore},
+ * taking a {@link StoredObjectService} reference for each one.
+ * Files written to {@code uploads/attachments} by the old message upload path are
+ * imported as well. Runs at startup and is a no-op once nothing legacy is left.
+ */
+@Component
+public class AttachmentContentMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentContentMigration.class);
+
+    private static final int BATCH_SIZE = 50;
+
+    private final Path legacyAttachmentDir = Paths.get("uploads/attachments").toAbsolutePath().normalize();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private StoredObjectService storedObjectService;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        migrateLegacyFiles();
+        
+        if (!legacyColumnExists()) {
+            return;
+        }
+        
+        long migrated = 0;
+        List<Long> ids;
+        do {
+            ids = jdbcTemplate.queryForList(
+                    "SELECT id FROM attachments WHERE file_content IS NOT NULL ORDER BY id LIMIT " + BATCH_SIZE,
+                    Long.class);
+            
+            for (Long id : ids) {
+                migrateOne(id);
+                migrated++;
+            }
+        } while (ids.size() == BATCH_SIZE);
+        
+        if (migrated > 0) {
+            logger.info("Moved {} attachment BLOBs into the content store", migrated);
+        }
+    }
+
+    /**
+     * Import files written by the old per-upload UUID_name scheme under uploads/attachments.
+     */
+    private void migrateLegacyFiles() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT id, file_path FROM attachments WHERE content_hash IS NULL AND file_path LIKE '/uploads/attachments/%'");
+        
+        long migrated = 0;
+        for (Map<String, Object> row : rows) {
+            Long id = ((Number) row.get("id")).longValue();
+            String fileName = Paths.get((String) row.get("file_path")).getFileName().toString();
+            Path file = legacyAttachmentDir.resolve(fileName).normalize();
+            
+            if (!file.startsWith(legacyAttachmentDir) || !Files.isRegularFile(file)) {
+                continue;
+            }
+            
+            try (InputStream input = Files.newInputStream(file)) {
+                ContentStore.StoredContent content = storedObjectService.store(input);
+                jdbcTemplate.update(
+                        "UPDATE attachments SET content_hash = ?, file_path = ? WHERE id = ?",
+                        content.getHash(), "/api/attachments/" + id, id);
+                Files.delete(file);
+                migrated++;
+            } catch (IOException ex) {
+                logger.error("Could not migrate attachment file {}: {}", file, ex.getMessage());
+            }
+        }
+        
+        if (migrated > 0) {
+            logger.info("Moved {} legacy attachment files into the content store", migrated);
+        }
+    }
+
+    private void migrateOne(Long id) {
+        // Stream the BLOB straight to disk rather than materialising it as a byte[]
+        ContentStore.StoredContent content = jdbcTemplate.query(
+                "SELECT file_content FROM attachments WHERE id = ?",
+                rs -> {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    try (InputStream input = rs.getBinaryStream(1)) {
+                        return storedObjectService.store(input);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException("Could not migrate attachment " + id, ex);
+                    }
+                },
+                id);
+        
+        if (content != null) {
+            jdbcTemplate.update(
+                    "UPDATE attachments SET content_hash = ?, file_size = ?, file_content = NULL WHERE id = ?",
+                    content.getHash(), content.getSize(), id);
+        }
+    }
+
+    private boolean legacyColumnExists() {
+        try (Connection connection = dataSource.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            for (String table : new String[]{"attachments", "ATTACHMENTS"}) {
+                for (String column : new String[]{"file_content", "FILE_CONTENT"}) {
+                    try (ResultSet rs = metaData.getColumns(null, null, table, column)) {
+                        if (rs.next()) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        } catch (SQLException ex) {
+            logger.error("Could not inspect attachments table: {}", ex.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.chatapp.service;
+
+import com.chatapp.repository.ChatRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory chatId → member ids index used for authorization checks on hot paths.
+ * <p>
+ * Each chat's members are held in a compact open-addressing long set, so {@link #contains}
+ * is O(1) without boxing. Entries are loaded on first use, dropped when membership changes
+ * (immediately and again after the surrounding transaction commits), expire after a TTL,
+ * and the least recently used chats are evicted once the cache grows past its size limit.
+ */
+@Component
+public class ChatMembershipCache {
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Value("${chatapp.membership-cache.ttl-ms:300000}")
+    private long ttlMs;
+
+    @Value("${chatapp.membership-cache.max-chats:10000}")
+    private int maxChats;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public boolean contains(Long chatId, Long userId) {
+        return userId != null && getMembers(chatId).contains(userId);
+    }
+
+    public MemberSet getMembers(Long chatId) {
+        long now = System.nanoTime();
+        Entry entry = entries.get(chatId);
+        
+        if (entry != null && now - entry.loadedAt < TimeUnit.MILLISECONDS.toNanos(ttlMs)) {
+            hits.increment();
+            entry.lastAccess = now;
+            return entry.members;
+        }
+        
+        misses.increment();
+        entry = entries.compute(chatId, (id, existing) -> {
+            if (existing != null && now - existing.loadedAt < TimeUnit.MILLISECONDS.toNanos(ttlMs)) {
+                return existing;
+            }
+            return new Entry(MemberSet.of(chatRepository.findMemberIdsByChatId(id)), now);
+        });
+        entry.lastAccess = now;
+        
+        return entry.members;
+    }
+
+    public void invalidate(Long chatId) {
+        entries.remove(chatId);
+        
+        // A concurrent reader may reload the old membership before this transaction commits
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    entries.remove(chatId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Drop expired entries and trim the cache back to its size limit, least recently used first.
+     */
+    @Scheduled(fixedDelayString = "${chatapp.membership-cache.cleanup-interval-ms:30000}")
+    public void evict() {
+        long now = System.nanoTime();
+        long ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        
+        entries.entrySet().removeIf(e -> {
+            boolean expired = now - e.getValue().loadedAt >= ttlNanos;
+            if (expired) {
+                evictions.increment();
+            }
+            return expired;
+        });
+        
+        int excess = entries.size() - maxChats;
+        if (excess > 0) {
+            entries.entrySet().stream()
+                    .sorted(Comparator.comparingLong(e -> e.getValue().lastAccess))
+                    .limit(excess)
+                    .map(Map.Entry::getKey)
+                    .forEach(chatId -> {
+                        entries.remove(chatId);
+                        evictions.increment();
+                    });
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("chats", entries.size());
+        metrics.put("hits", hits.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("evictions", evictions.sum());
+        return metrics;
+    }
+
+    private static class Entry {
+        private final MemberSet members;
+        private final long loadedAt;
+        private volatile long lastAccess;
+
+        Entry(MemberSet members, long loadedAt) {
+            this.members = members;
+            this.loadedAt = loadedAt;
+            this.lastAccess = loadedAt;
+        }
+    }
+
+    /**
+     * Immutable open-addressing set of positive member ids backed by a single long[].
+     */
+    public static final class MemberSet {
+        private static final MemberSet EMPTY = new MemberSet(new long[1], 0);
+
+        private final long[] table;
+        private final int size;
+
+        private MemberSet(long[] table, int size) {
+            this.table = table;
+            this.size = size;
+        }
+
+        static MemberSet of(Collection<Long> ids) {
+            if (ids.isEmpty()) {
+                return EMPTY;
+            }
+            
+            // Power-of-two capacity at most half full keeps probe sequences short
+            int capacity = Integer.highestOneBit(Math.max(2, ids.size() * 2 - 1)) << 1;
+            long[] table = new long[capacity];
+            int size = 0;
+            for (Long id : ids) {
+                int slot = slot(id, capacity);
+                while (table[slot] != 0 && table[slot] != id) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                if (table[slot] == 0) {
+                    table[slot] = id;
+                    size++;
+                }
+            }
+            return new MemberSet(table, size);
+        }
+
+        public boolean contains(long id) {
+            if (size == 0 || id <= 0) {
+                return false;
+            }
+            
+            int mask = table.length - 1;
+            int slot = slot(id, table.length);
+            while (table[slot] != 0) {
+                if (table[slot] == id) {
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long[] toArray() {
+            long[] ids = new long[size];
+            int i = 0;
+            for (long id : table) {
+                if (id != 0) {
+                    ids[i++] = id;
+                }
+            }
+            return ids;
+        }
+
+        private static int slot(long id, int capacity) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & (capacity - 1);
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package com.chatapp.service;
 
+import com.chatapp.model.Attachment;
 import com.chatapp.model.Chat;
+import com.chatapp.model.Message;
 import com.chatapp.model.User;
 import com.chatapp.model.dto.ChatDto;
 import com.chatapp.model.dto.MessageDto;
 import com.chatapp.model.dto.UserDto;
+import com.chatapp.repository.AttachmentRepository;
 import com.chatapp.repository.ChatRepository;
 import com.chatapp.repository.MessageRepository;
 import com.chatapp.repository.UserRepository;
+import com.chatapp.websocket.ChatDestinationGuard;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -30,19 +34,42 @@ public class ChatService {
     @Autowired
     private MessageRepository messageRepository;
 
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+
     @Autowired
     private MessageService messageService;
 
+    @Autowired
+    private FileStorageService fileStorageService;
+
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private ReadCursorService readCursorService;
+
+    @Autowired
+    private ReactionService reactionService;
+
+    @Autowired
+    private ChatMembershipCache membershipCache;
+
+    @Autowired
+    private PresenceInterestGraph interestGraph;
+
+    @Autowired
+    private ChatDestinationGuard chatDestinationGuard;
+
+    @Autowired
+    private MailboxService mailboxService;
+
     private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    @Transactional(readOnly = true)
     public List<ChatDto> findChatsByUserId(Long userId) {
         List<Chat> chats = chatRepository.findByMemberId(userId);
-        return chats.stream()
-                .map(chat -> convertToDto(chat, userId))
-                .collect(Collectors.toList());
+        return convertToDtos(chats, userId);
     }
 
     public Chat findById(Long id) {
@@ -83,6 +110,8 @@ public class ChatService {
         
         chat.setMembers(members);
         Chat savedChat = chatRepository.save(chat);
+        membershipCache.invalidate(savedChat.getId());
+        interestGraph.invalidate(members.stream().mapToLong(User::getId).toArray());
         
         return convertToDto(savedChat, creatorId);
     }
@@ -108,7 +137,18 @@ public class ChatService {
 
     @Transactional
     public void deleteChat(Long chatId) {
+        // Messages cascade with the chat; their attachments have to release the stored content
+        List<Attachment> attachments = attachmentRepository.findByChatId(chatId);
+        
+        readCursorService.deleteCursorsForChat(chatId);
+        reactionService.deleteReactionsForChat(chatId);
+        messageService.deleteChangesForChat(chatId);
+        mailboxService.deleteEntriesForChat(chatId);
+        interestGraph.invalidate(membershipCache.getMembers(chatId).toArray());
         chatRepository.deleteById(chatId);
+        fileStorageService.deleteMessageAttachments(attachments);
+        membershipCache.invalidate(chatId);
+        chatDestinationGuard.revokeChat(chatId);
     }
 
     @Transactional
@@ -119,6 +159,10 @@ public class ChatService {
         
         chat.getMembers().add(user);
         chatRepository.save(chat);
+        // Everyone in the chat gains or loses the user as a presence watcher, and vice versa
+        interestGraph.invalidate(membershipCache.getMembers(chatId).toArray());
+        interestGraph.invalidate(userId);
+        membershipCache.invalidate(chatId);
     }
 
     @Transactional
@@ -129,6 +173,11 @@ public class ChatService {
         
         chat.getMembers().remove(user);
         chatRepository.save(chat);
+        interestGraph.invalidate(membershipCache.getMembers(chatId).toArray());
+        interestGraph.invalidate(userId);
+        membershipCache.invalidate(chatId);
+        // The broker stops fanning out the chat to the user's open sessions
+        chatDestinationGuard.revokeMember(chatId, userId);
     }
 
     public List<UserDto> getChatMembers(Long chatId) {
@@ -166,21 +215,20 @@ public class ChatService {
         chat.setMembers(members);
         
         Chat savedChat = chatRepository.save(chat);
+        membershipCache.invalidate(savedChat.getId());
+        interestGraph.invalidate(user1Id, user2Id);
+        
         return convertToDto(savedChat, user1Id);
     }
 
+    @Transactional(readOnly = true)
     public List<ChatDto> searchChats(String query, Long userId) {
         List<Chat> chats = chatRepository.searchChatsByNameForUser(query, userId);
-        
-        return chats.stream()
-                .map(chat -> convertToDto(chat, userId))
-                .collect(Collectors.toList());
+        return convertToDtos(chats, userId);
     }
 
     public boolean isUserInChat(Long userId, Long chatId) {
-        Chat chat = findById(chatId);
-        return chat.getMembers().stream()
-                .anyMatch(member -> member.getId().equals(userId));
+        return membershipCache.contains(chatId, userId);
     }
 
     public boolean isUserChatCreator(Long userId, Long chatId) {
@@ -215,16 +263,107 @@ public class ChatService {
         }
         
         // Get last message in chat
-        List<MessageDto> lastMessages = messageService.findByChatId(chat.getId(), 0, 1).getContent();
+        List<MessageDto> lastMessages = messageService.findByChatId(chat.getId(), 0, 1, currentUserId).getContent();
         if (!lastMessages.isEmpty()) {
             dto.setLastMessage(lastMessages.get(0));
         }
         
         // Count unread messages for current user
         if (currentUserId != null) {
-            dto.setUnreadCount(messageRepository.countUnreadMessagesForUser(chat.getId(), currentUserId).intValue());
+            dto.setUnreadCount(readCursorService.countUnread(chat.getId(), currentUserId).intValue());
         }
         
         return dto;
     }
+
+    /**
+     * Convert a list of chats for the inbox using a fixed number of set-based queries
+     * (members, users with roles, last messages and unread counts) instead of
+     * issuing them per chat as {@link #convertToDto(Chat, Long)} does.
+     */
+    public List<ChatDto> convertToDtos(List<Chat> chats, Long currentUserId) {
+        if (chats.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        List<Long> chatIds = chats.stream()
+                .map(Chat::getId)
+                .collect(Collectors.toList());
+        
+        // Member ids per chat
+        Map<Long, List<Long>> memberIdsByChat = new HashMap<>();
+        Set<Long> userIds = new HashSet<>();
+        for (Object[] row : chatRepository.findMemberIdsByChatIds(chatIds)) {
+            Long chatId = (Long) row[0];
+            Long memberId = (Long) row[1];
+            memberIdsByChat.computeIfAbsent(chatId, id -> new ArrayList<>()).add(memberId);
+            userIds.add(memberId);
+        }
+        
+        for (Chat chat : chats) {
+            if (chat.getCreator() != null) {
+                userIds.add(chat.getCreator().getId());
+            }
+        }
+        
+        // Members and creators with their roles
+        Map<Long, UserDto> usersById = new HashMap<>();
+        if (!userIds.isEmpty()) {
+            for (User user : userRepository.findAllWithRolesByIdIn(userIds)) {
+                usersById.put(user.getId(), userService.convertToDto(user));
+            }
+        }
+        
+        // Last message per chat
+        Map<Long, MessageDto> lastMessageByChat = new HashMap<>();
+        for (Message message : messageRepository.findLastMessagesByChatIds(chatIds)) {
+            MessageDto messageDto = messageService.convertToSummaryDto(message);
+            lastMessageByChat.put(messageDto.getChatId(), messageDto);
+        }
+        
+        // Unread counts per chat
+        Map<Long, Integer> unreadByChat = new HashMap<>();
+        if (currentUserId != null) {
+            for (Object[] row : messageRepository.countUnreadMessagesByChatIds(chatIds, currentUserId)) {
+                unreadByChat.put((Long) row[0], ((Long) row[1]).intValue());
+            }
+        }
+        
+        List<ChatDto> dtos = new ArrayList<>(chats.size());
+        for (Chat chat : chats) {
+            ChatDto dto = new ChatDto();
+            dto.setId(chat.getId());
+            dto.setName(chat.getName());
+            dto.setType(chat.getType().name());
+            dto.setAvatarUrl(chat.getAvatarUrl());
+            dto.setDescription(chat.getDescription());
+            
+            if (chat.getCreator() != null) {
+                dto.setCreator(usersById.get(chat.getCreator().getId()));
+            }
+            
+            dto.setMembers(memberIdsByChat.getOrDefault(chat.getId(), Collections.emptyList()).stream()
+                    .map(usersById::get)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList()));
+            
+            if (chat.getCreatedAt() != null) {
+                dto.setCreatedAt(chat.getCreatedAt().format(formatter));
+            }
+            
+            if (chat.getUpdatedAt() != null) {
+                dto.setUpdatedAt(chat.getUpdatedAt().format(formatter));
+            }
+            
+            dto.setLastMessage(lastMessageByChat.get(chat.getId()));
+            
+            if (currentUserId != null) {
+                dto.setUnreadCount(unreadByChat.getOrDefault(chat.getId(), 0));
+            }
+            
+            dtos.add(dto);
+        }
+        
+        return dtos;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+package com.chatapp.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed file store for attachment bytes. Objects are named by the SHA-256
+ * of their content, computed while the upload is streamed to disk, and sharded into
+ * two directory levels ({@code ab/cd/abcd...}). Attachment rows only keep the hash;
+ * reference counting and garbage collection live in {@link StoredObjectService}.
+ */
+@Component
+public class ContentStore {
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    @Value("${chatapp.storage.content-dir:uploads/content}")
+    private String contentDir;
+
+    private Path root;
+    private Path tmp;
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(contentDir).toAbsolutePath().normalize();
+        tmp = root.resolve("tmp");
+        Files.createDirectories(tmp);
+    }
+
+    /**
+     * Stream the input to disk and file it under its SHA-256. Storing content that is
+     * already present leaves the existing object untouched.
+     */
+    public StoredContent store(InputStream input) throws IOException {
+        return commit(stage(input));
+    }
+
+    /**
+     * Stream the input to a temporary file, hashing it on the way. Nothing is visible
+     * under the content hash until {@link #commit(StagedContent)} is called.
+     */
+    public StagedContent stage(InputStream input) throws IOException {
+        MessageDigest digest = sha256();
+        Path tempFile = Files.createTempFile(tmp, "upload-", ".part");
+        
+        try {
+            long size;
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tempFile), digest)) {
+                size = input.transferTo(out);
+            }
+            
+            return new StagedContent(tempFile, HexFormat.of().formatHex(digest.digest()), size);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tempFile);
+            throw ex;
+        }
+    }
+
+    /**
+     * Move staged content into place, or discard it if identical content is already stored.
+     */
+    public StoredContent commit(StagedContent staged) throws IOException {
+        try {
+            Path target = resolve(staged.hash);
+            boolean created = false;
+            
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(staged.tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+                    created = true;
+                } catch (FileAlreadyExistsException ex) {
+                    // Another upload of the same content won the race
+                }
+            }
+            
+            return new StoredContent(staged.hash, staged.size, created);
+        } finally {
+            Files.deleteIfExists(staged.tempFile);
+        }
+    }
+
+    public Resource load(String hash) {
+        return new FileSystemResource(resolve(hash));
+    }
+
+    public boolean exists(String hash) {
+        return Files.exists(resolve(hash));
+    }
+
+    public boolean delete(String hash) throws IOException {
+        return Files.deleteIfExists(resolve(hash));
+    }
+
+    public Path resolve(String hash) {
+        if (hash == null || !HASH_PATTERN.matcher(hash).matches()) {
+            throw new IllegalArgumentException("Invalid content hash: " + hash);
+        }
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    public static class StagedContent {
+        private final Path tempFile;
+        private final String hash;
+        private final long size;
+
+        StagedContent(Path tempFile, String hash, long size) {
+            this.tempFile = tempFile;
+            this.hash = hash;
+            this.size = size;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    public static class StoredContent {
+        private final String hash;
+        private final long size;
+        private final boolean created;
+
+        StoredContent(String hash, long size, boolean created) {
+            this.hash = hash;
+            this.size = size;
+            this.created = created;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * False if identical content was already stored.
+         */
+        public boolean isCreated() {
+            return created;
+        }
+    }
+}
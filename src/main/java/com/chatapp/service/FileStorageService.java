@@ -2,16 +2,20 @@ package com.chatapp.service;
 
 import com.chatapp.config.FileUploadSecurityConfig.FileUploadValidator;
 import com.chatapp.model.Attachment;
+import com.chatapp.model.AttachmentThumbnail;
 import com.chatapp.model.Message;
 import com.chatapp.model.User;
 import com.chatapp.repository.AttachmentRepository;
 import com.chatapp.repository.MessageRepository;
 import com.chatapp.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
 
@@ -29,10 +33,20 @@ public class FileStorageService {
     
     @Autowired
     private FileUploadValidator fileUploadValidator;
+    
+    @Autowired
+    private ContentStore contentStore;
+    
+    @Autowired
+    private StoredObjectService storedObjectService;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
 
     /**
      * Store a profile picture for a user
      */
+    @Transactional
     public Attachment storeProfilePicture(MultipartFile file, Long userId) throws IOException {
         // Validate the file
         fileUploadValidator.validateProfilePicture(file);
@@ -42,13 +56,15 @@ public class FileStorageService {
 
         // Check for existing profile picture and delete if exists
         attachmentRepository.findByUserIdAndIsProfilePicture(userId, true)
-                .forEach(attachmentRepository::delete);
+                .forEach(this::deleteAttachment);
+        
+        ContentStore.StoredContent content = storeContent(file);
         
         Attachment attachment = Attachment.builder()
                 .fileName(sanitizeFileName(file.getOriginalFilename()))
                 .fileType(file.getContentType())
-                .fileSize(file.getSize())
-                .fileContent(file.getBytes())
+                .fileSize(content.getSize())
+                .contentHash(content.getHash())
                 .isProfilePicture(true)
                 .type(determineAttachmentType(file.getContentType()))
                 .user(user)
@@ -67,6 +83,7 @@ public class FileStorageService {
     /**
      * Store a file attachment for a message
      */
+    @Transactional
     public Attachment storeMessageAttachment(MultipartFile file, Long messageId) throws IOException {
         // Validate the file
         fileUploadValidator.validateAttachment(file);
@@ -74,11 +91,13 @@ public class FileStorageService {
         Message message = messageRepository.findById(messageId)
                 .orElseThrow(() -> new RuntimeException("Message not found with id: " + messageId));
         
+        ContentStore.StoredContent content = storeContent(file);
+        
         Attachment attachment = Attachment.builder()
                 .fileName(sanitizeFileName(file.getOriginalFilename()))
                 .fileType(file.getContentType())
-                .fileSize(file.getSize())
-                .fileContent(file.getBytes())
+                .fileSize(content.getSize())
+                .contentHash(content.getHash())
                 .type(determineAttachmentType(file.getContentType()))
                 .build();
         
@@ -88,6 +107,9 @@ public class FileStorageService {
         message.getAttachments().add(attachment);
         messageRepository.save(message);
         
+        // Thumbnails are rendered in the background once this upload is committed
+        thumbnailService.enqueue(attachment);
+        
         return attachment;
     }
     
@@ -113,6 +135,71 @@ public class FileStorageService {
                 .stream().findFirst();
     }
     
+    /**
+     * Open the stored bytes of an attachment for streaming
+     */
+    public Resource loadContent(Attachment attachment) {
+        if (attachment.getContentHash() == null || !contentStore.exists(attachment.getContentHash())) {
+            throw new RuntimeException("File content not found for attachment " + attachment.getId());
+        }
+        
+        return contentStore.load(attachment.getContentHash());
+    }
+    
+    /**
+     * Get the generated thumbnail closest to the requested size: the smallest one at least
+     * that large, or the largest available
+     */
+    public Optional<AttachmentThumbnail> getThumbnail(Long attachmentId, int size) {
+        List<AttachmentThumbnail> thumbnails = thumbnailService.getThumbnails(attachmentId);
+        
+        return thumbnails.stream()
+                .filter(thumbnail -> thumbnail.getMaxDimension() >= size)
+                .findFirst()
+                .or(() -> thumbnails.isEmpty()
+                        ? Optional.empty()
+                        : Optional.of(thumbnails.get(thumbnails.size() - 1)));
+    }
+    
+    /**
+     * Open the stored bytes of a generated thumbnail
+     */
+    public Resource loadContent(AttachmentThumbnail thumbnail) {
+        if (!contentStore.exists(thumbnail.getContentHash())) {
+            throw new RuntimeException("Thumbnail content not found for attachment " + thumbnail.getAttachmentId());
+        }
+        
+        return contentStore.load(thumbnail.getContentHash());
+    }
+    
+    /**
+     * Delete an attachment and release its reference on the stored content
+     */
+    @Transactional
+    public void deleteAttachment(Attachment attachment) {
+        thumbnailService.deleteThumbnails(attachment.getId());
+        attachmentRepository.delete(attachment);
+        storedObjectService.release(attachment.getContentHash());
+    }
+    
+    /**
+     * Delete the attachments of messages that are being deleted in the same transaction.
+     * Load them before the messages go; the join rows are removed ahead of the attachments on flush.
+     */
+    @Transactional
+    public void deleteMessageAttachments(List<Attachment> attachments) {
+        attachments.forEach(this::deleteAttachment);
+    }
+    
+    /**
+     * Stream an upload into the deduplicating content store without buffering it in memory
+     */
+    private ContentStore.StoredContent storeContent(MultipartFile file) throws IOException {
+        try (InputStream input = file.getInputStream()) {
+            return storedObjectService.store(input);
+        }
+    }
+    
     /**
      * Determine attachment type based on content type
      */
@@ -0,0 +1,198 @@
+package com.chatapp.service;
+
+import com.chatapp.model.MailboxEntry;
+import com.chatapp.model.dto.MessageDto;
+import com.chatapp.repository.MailboxEntryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Persistent per-user mailbox for events a user missed while offline.
+ * <p>
+ * Entries only reference message ids. A mailbox holds at most {@code max-entries}
+ * message references; when a new message would overflow it, the user's references for
+ * that chat collapse into a single RESYNC marker, after which further messages in the chat
+ * are not recorded individually. A mailbox therefore never exceeds the limit plus one
+ * marker per chat, and draining it costs in proportion to what was missed.
+ * <p>
+ * Drained events go to {@code /user/queue/mailbox} as {@code {type: "message", chatId, message}}
+ * or {@code {type: "resync", chatId}}; on a resync the client catches up on that chat
+ * with the sync API.
+ */
+@Service
+public class MailboxService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailboxService.class);
+
+    public static final String MAILBOX_DESTINATION = "/queue/mailbox";
+
+    @Autowired
+    private MailboxEntryRepository mailboxEntryRepository;
+
+    @Autowired
+    private MessageReadModel messageReadModel;
+
+    @Autowired
+    private SimpMessageSendingOperations messagingTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${chatapp.mailbox.max-entries:500}")
+    private int maxEntries;
+
+    @Value("${chatapp.mailbox.drain-batch-size:100}")
+    private int drainBatchSize;
+
+    @Value("${chatapp.mailbox.retention-days:14}")
+    private int retentionDays;
+
+    // Users whose mailbox is being drained; a second session waits for the next connect
+    private final Set<Long> draining = ConcurrentHashMap.newKeySet();
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Record a new message for recipients who are offline. Runs a fixed number of
+     * statements however many recipients there are.
+     */
+    @Transactional
+    public void deliver(Long chatId, Long messageId, Collection<Long> recipientIds) {
+        if (recipientIds.isEmpty()) {
+            return;
+        }
+        
+        Map<Long, Long> counts = new HashMap<>();
+        for (Object[] row : mailboxEntryRepository.countByUserIds(recipientIds)) {
+            counts.put((Long) row[0], ((Number) row[1]).longValue());
+        }
+        Set<Long> alreadyResyncing = new HashSet<>(mailboxEntryRepository.findUserIdsWithResyncMarker(recipientIds, chatId));
+        
+        List<MailboxEntry> entries = new ArrayList<>();
+        List<Long> overflowing = new ArrayList<>();
+        for (Long userId : recipientIds) {
+            if (alreadyResyncing.contains(userId)) {
+                continue;
+            }
+            
+            if (counts.getOrDefault(userId, 0L) >= maxEntries) {
+                overflowing.add(userId);
+            } else {
+                entries.add(MailboxEntry.builder()
+                        .userId(userId)
+                        .chatId(chatId)
+                        .messageId(messageId)
+                        .type(MailboxEntry.EntryType.MESSAGE)
+                        .build());
+            }
+        }
+        
+        if (!overflowing.isEmpty()) {
+            mailboxEntryRepository.deleteMessageEntries(overflowing, chatId);
+            overflowing.forEach(userId -> entries.add(MailboxEntry.builder()
+                    .userId(userId)
+                    .chatId(chatId)
+                    .type(MailboxEntry.EntryType.RESYNC)
+                    .build()));
+        }
+        
+        mailboxEntryRepository.saveAll(entries);
+    }
+
+    /**
+     * Send the user's pending events in batches, oldest first, removing each batch once sent.
+     *
+     * @return the number of entries drained
+     */
+    public int drain(Long userId, String username) {
+        if (!draining.add(userId)) {
+            return 0;
+        }
+        
+        int drained = 0;
+        try {
+            List<MailboxEntry> batch;
+            do {
+                batch = mailboxEntryRepository.findByUserIdOrderByIdAsc(userId, PageRequest.of(0, drainBatchSize));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                
+                List<Long> messageIds = batch.stream()
+                        .filter(entry -> entry.getType() == MailboxEntry.EntryType.MESSAGE)
+                        .map(MailboxEntry::getMessageId)
+                        .collect(Collectors.toList());
+                Map<Long, MessageDto> messagesById = messageReadModel.findByIds(messageIds, userId);
+                
+                for (MailboxEntry entry : batch) {
+                    Map<String, Object> event = new HashMap<>();
+                    event.put("chatId", entry.getChatId());
+                    
+                    if (entry.getType() == MailboxEntry.EntryType.RESYNC) {
+                        event.put("type", "resync");
+                    } else {
+                        MessageDto message = messagesById.get(entry.getMessageId());
+                        // Deleted in the meantime
+                        if (message == null) {
+                            continue;
+                        }
+                        event.put("type", "message");
+                        event.put("message", message);
+                    }
+                    
+                    messagingTemplate.convertAndSendToUser(username, MAILBOX_DESTINATION, event);
+                }
+                
+                List<Long> entryIds = batch.stream().map(MailboxEntry::getId).collect(Collectors.toList());
+                transactionTemplate.executeWithoutResult(status -> mailboxEntryRepository.deleteByIdIn(entryIds));
+                drained += batch.size();
+            } while (batch.size() == drainBatchSize);
+        } finally {
+            draining.remove(userId);
+        }
+        
+        if (drained > 0) {
+            logger.debug("Drained {} mailbox entries for user {}", drained, userId);
+        }
+        
+        return drained;
+    }
+
+    @Transactional
+    public void deleteEntriesForChat(Long chatId) {
+        mailboxEntryRepository.deleteByChatId(chatId);
+    }
+
+    /**
+     * Drop entries of users who have not come back within the retention period.
+     */
+    @Scheduled(cron = "${chatapp.mailbox.prune-cron:0 0 4 * * *}")
+    public void prune() {
+        int deleted = transactionTemplate.execute(status ->
+                mailboxEntryRepository.deleteOlderThan(LocalDateTime.now().minusDays(retentionDays)));
+        
+        if (deleted > 0) {
+            logger.info("Pruned {} expired mailbox entries", deleted);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.chatapp.service;
+
+import com.chatapp.model.Attachment;
+import com.chatapp.model.User;
+import com.chatapp.model.dto.AttachmentDto;
+import com.chatapp.model.dto.MessageDto;
+import com.chatapp.model.dto.UserDto;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityNotFoundException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Read path for chat history. Pages are assembled from flat column projections plus one
+ * batched side query each for reply previews, users, attachments, reaction counts and the
+ * viewer's own reactions, keyed by
+ * the message ids of the page, so the number of statements per page does not depend on
+ * the page size and no {@code Message} entity is ever loaded.
+ */
+@Service
+public class MessageReadModel {
+
+    // Column order of MessageRepository.HISTORY_ROW
+    private static final int ID = 0;
+    private static final int CHAT_ID = 1;
+    private static final int SEQUENCE = 2;
+    private static final int CONTENT = 3;
+    private static final int SENDER_ID = 4;
+    private static final int REPLY_TO_ID = 5;
+    private static final int EDITED = 6;
+    private static final int EDITED_AT = 7;
+    private static final int DELETED = 8;
+    private static final int CREATED_AT = 9;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ReadCursorService readCursorService;
+
+    @Autowired
+    private ReactionService reactionService;
+
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Newest-first page of a chat's history. {@code viewerId} selects whose reactions fill
+     * {@code myReactions} and may be null.
+     */
+    @Transactional(readOnly = true)
+    public Slice<MessageDto> findPage(Long chatId, int page, int size, Long viewerId) {
+        Pageable pageable = PageRequest.of(page, size);
+        Slice<Object[]> rows = messageRepository.findHistoryRows(chatId, pageable);
+        
+        return new SliceImpl<>(assemble(rows.getContent(), viewerId), pageable, rows.hasNext());
+    }
+
+    /**
+     * Keyset page relative to a cursor message, see {@link MessageService#findByChatIdAroundCursor}.
+     */
+    @Transactional(readOnly = true)
+    public Slice<MessageDto> findPageAround(Long chatId, Long beforeId, Long afterId, int size, Long viewerId) {
+        Long cursorId = beforeId != null ? beforeId : afterId;
+        LocalDateTime cursorCreatedAt = messageRepository.findCreatedAtByIdAndChatId(cursorId, chatId)
+                .orElseThrow(() -> new EntityNotFoundException("Message not found with id: " + cursorId));
+        
+        Pageable pageable = PageRequest.of(0, size);
+        Slice<Object[]> rows = beforeId != null
+                ? messageRepository.findHistoryRowsBefore(chatId, cursorCreatedAt, cursorId, pageable)
+                : messageRepository.findHistoryRowsAfter(chatId, cursorCreatedAt, cursorId, pageable);
+        
+        return new SliceImpl<>(assemble(rows.getContent(), viewerId), pageable, rows.hasNext());
+    }
+
+    /**
+     * Messages by id, possibly from several chats. Ids that no longer exist are absent from the map.
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, MessageDto> findByIds(Collection<Long> messageIds, Long viewerId) {
+        Map<Long, MessageDto> dtosById = new HashMap<>();
+        if (messageIds.isEmpty()) {
+            return dtosById;
+        }
+        
+        for (MessageDto dto : assemble(messageRepository.findHistoryRowsByIdIn(messageIds), viewerId)) {
+            dtosById.put(dto.getId(), dto);
+        }
+        
+        return dtosById;
+    }
+
+    private List<MessageDto> assemble(List<Object[]> rows, Long viewerId) {
+        if (rows.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        List<Long> messageIds = new ArrayList<>(rows.size());
+        Set<Long> replyToIds = new HashSet<>();
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> chatIds = new HashSet<>();
+        for (Object[] row : rows) {
+            messageIds.add((Long) row[ID]);
+            chatIds.add((Long) row[CHAT_ID]);
+            if (row[SENDER_ID] != null) {
+                userIds.add((Long) row[SENDER_ID]);
+            }
+            if (row[REPLY_TO_ID] != null) {
+                replyToIds.add((Long) row[REPLY_TO_ID]);
+            }
+        }
+        
+        // Reply previews first so their senders join the single user lookup below
+        Map<Long, Object[]> repliesById = new HashMap<>();
+        if (!replyToIds.isEmpty()) {
+            for (Object[] reply : messageRepository.findReplyPreviewRows(replyToIds)) {
+                repliesById.put((Long) reply[0], reply);
+                if (reply[2] != null) {
+                    userIds.add((Long) reply[2]);
+                }
+            }
+        }
+        
+        Map<Long, UserDto> usersById = new HashMap<>();
+        if (!userIds.isEmpty()) {
+            for (User user : userRepository.findAllWithRolesByIdIn(userIds)) {
+                usersById.put(user.getId(), userService.convertToDto(user));
+            }
+        }
+        
+        Map<Long, List<AttachmentDto>> attachmentsByMessage = new HashMap<>();
+        for (Object[] row : messageRepository.findAttachmentRowsByMessageIds(messageIds)) {
+            attachmentsByMessage.computeIfAbsent((Long) row[0], id -> new ArrayList<>()).add(toAttachmentDto(row));
+        }
+        
+        Map<Long, Map<String, Integer>> reactionsByMessage = reactionService.getCounts(messageIds);
+        Map<Long, List<String>> myReactionsByMessage = reactionService.getUserReactions(messageIds, viewerId);
+        
+        Map<Long, ReadCursorService.ReadReceiptView> receiptsByChat = new HashMap<>();
+        for (Long chatId : chatIds) {
+            receiptsByChat.put(chatId, readCursorService.getReadReceiptView(chatId));
+        }
+        
+        List<MessageDto> dtos = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Long id = (Long) row[ID];
+            
+            MessageDto dto = new MessageDto();
+            dto.setId(id);
+            dto.setChatId((Long) row[CHAT_ID]);
+            dto.setSequence((Long) row[SEQUENCE]);
+            dto.setContent((String) row[CONTENT]);
+            dto.setSender(usersById.get((Long) row[SENDER_ID]));
+            
+            Long replyToId = (Long) row[REPLY_TO_ID];
+            if (replyToId != null) {
+                dto.setReplyToId(replyToId);
+                Object[] reply = repliesById.get(replyToId);
+                if (reply != null) {
+                    MessageDto replyDto = new MessageDto();
+                    replyDto.setId(replyToId);
+                    replyDto.setContent((String) reply[1]);
+                    replyDto.setSender(usersById.get((Long) reply[2]));
+                    dto.setReplyTo(replyDto);
+                }
+            }
+            
+            dto.setAttachments(attachmentsByMessage.getOrDefault(id, new ArrayList<>()));
+            dto.setReactions(reactionsByMessage.getOrDefault(id, new HashMap<>()));
+            dto.setMyReactions(myReactionsByMessage.getOrDefault(id, new ArrayList<>()));
+            
+            dto.setEdited((Boolean) row[EDITED]);
+            if (row[EDITED_AT] != null) {
+                dto.setEditedAt(((LocalDateTime) row[EDITED_AT]).format(formatter));
+            }
+            dto.setDeleted((Boolean) row[DELETED]);
+            
+            ReadCursorService.ReadReceiptView readReceipts = receiptsByChat.get(dto.getChatId());
+            if (!readReceipts.isEmpty()) {
+                dto.setReadBy(readReceipts.readBy(id));
+            }
+            
+            if (row[CREATED_AT] != null) {
+                dto.setCreatedAt(((LocalDateTime) row[CREATED_AT]).format(formatter));
+            }
+            
+            dtos.add(dto);
+        }
+        
+        return dtos;
+    }
+
+    // [messageId, attachmentId, fileName, fileType, fileSize, type, thumbnailUrl, createdAt]
+    private AttachmentDto toAttachmentDto(Object[] row) {
+        Long attachmentId = (Long) row[1];
+        
+        AttachmentDto dto = new AttachmentDto();
+        dto.setId(attachmentId);
+        dto.setFileName((String) row[2]);
+        dto.setFileType((String) row[3]);
+        dto.setFileUrl("/api/attachments/" + attachmentId);
+        dto.setFileSize((Long) row[4]);
+        dto.setType(row[5] != null ? ((Attachment.AttachmentType) row[5]).name() : null);
+        dto.setThumbnailUrl((String) row[6]);
+        
+        if (row[7] != null) {
+            dto.setCreatedAt(((LocalDateTime) row[7]).format(formatter));
+        }
+        
+        return dto;
+    }
+}
@@ -0,0 +1,455 @@
+package com.chatapp.service;
+
+import com.chatapp.model.Message;
+import com.chatapp.repository.MessageChangeRepository;
+import com.chatapp.repository.MessageRepository;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.highlight.*;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * In-process Lucene index over message content. Kept up to date incrementally by
+ * {@link MessageService} after each transaction commits, and searched with the caller's
+ * chat ids as a filter so results never leak messages from chats they are not in.
+ * <p>
+ * The writer commits periodically and on shutdown. Each commit records when it was taken,
+ * so after a crash the updates since then are replayed from the database at startup.
+ */
+@Component
+public class MessageSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearchIndex.class);
+
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_ID_SORT = "idSort";
+    private static final String FIELD_CHAT_ID = "chatId";
+    private static final String FIELD_CONTENT = "content";
+
+    private static final String COMMITTED_AT = "committedAt";
+
+    private static final int REBUILD_BATCH_SIZE = 1000;
+    private static final int SNIPPET_FRAGMENT_SIZE = 120;
+
+    // Index updates run after their transaction commits, so a change stamped shortly before
+    // an index commit may not be in it yet; replay starts this much earlier
+    private static final Duration REPLAY_MARGIN = Duration.ofMinutes(5);
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MessageChangeRepository messageChangeRepository;
+
+    @Value("${chatapp.search.index-dir:data/search-index}")
+    private String indexDir;
+
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final Sort sort = new Sort(SortField.FIELD_SCORE, new SortField(FIELD_ID_SORT, SortField.Type.LONG, true));
+
+    private FSDirectory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+
+    @PostConstruct
+    public void open() throws IOException {
+        Path path = Paths.get(indexDir).toAbsolutePath().normalize();
+        Files.createDirectories(path);
+        
+        directory = FSDirectory.open(path);
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        searcherManager = new SearcherManager(writer, null);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        commit();
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+
+    /**
+     * Bring the index in line with the database at startup. An empty index, e.g. after the
+     * directory was wiped, is rebuilt. Otherwise messages created and changed since shortly
+     * before the last commit are re-indexed, which repairs updates lost in a crash.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void reconcile() {
+        if (writer.getDocStats().numDocs == 0) {
+            if (messageRepository.count() > 0) {
+                logger.info("Message search index is empty, rebuilding from database");
+                rebuild();
+            }
+            return;
+        }
+        
+        try {
+            LocalDateTime replayFrom = lastCommittedAt()
+                    .map(committedAt -> committedAt.minus(REPLAY_MARGIN))
+                    .orElse(null);
+            
+            // New messages: everything above the highest indexed id, and anything created
+            // since the replay point in case it was persisted out of id order
+            long afterId = highestIndexedId();
+            if (replayFrom != null) {
+                Long firstRecent = messageRepository.findMinIdCreatedSince(replayFrom);
+                if (firstRecent != null) {
+                    afterId = Math.min(afterId, firstRecent - 1);
+                }
+            }
+            long reindexed = reindexAfter(afterId);
+            
+            // Edits and deletions of older messages
+            if (replayFrom != null) {
+                reindexed += reindex(messageChangeRepository.findMessageIdsChangedSince(replayFrom));
+            }
+            
+            commitWriter();
+            searcherManager.maybeRefresh();
+            
+            if (reindexed > 0) {
+                logger.info("Reconciled message search index with the database: {} messages re-indexed", reindexed);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not reconcile message search index", ex);
+        }
+    }
+
+    public void index(Message message) {
+        Long id = message.getId();
+        Long chatId = message.getChat().getId();
+        String content = message.getContent();
+        
+        afterCommit(() -> writer.updateDocument(new Term(FIELD_ID, id.toString()), toDocument(id, chatId, content)));
+    }
+
+    public void delete(Long messageId) {
+        afterCommit(() -> writer.deleteDocuments(new Term(FIELD_ID, messageId.toString())));
+    }
+
+    /**
+     * Drop and re-create the whole index from the messages table.
+     *
+     * @return number of messages indexed
+     */
+    public synchronized long rebuild() {
+        try {
+            writer.deleteAll();
+            long indexed = reindexAfter(0L);
+            
+            commitWriter();
+            searcherManager.maybeRefresh();
+            
+            logger.info("Rebuilt message search index with {} messages", indexed);
+            return indexed;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not rebuild message search index", ex);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chatapp.search.commit-interval-ms:30000}")
+    public void commit() {
+        try {
+            if (writer.hasUncommittedChanges()) {
+                commitWriter();
+            }
+        } catch (IOException ex) {
+            logger.error("Could not commit message search index: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Ranked search restricted to the given chats.
+     *
+     * @param cursor value of {@link Results#getNextCursor()} from the previous page, or null
+     * @param size    hits per page; callers cap it, as one more hit than this is fetched
+     */
+    public Results search(String queryText, Collection<Long> chatIds, String cursor, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + size);
+        }
+        if (chatIds.isEmpty() || queryText == null || queryText.isBlank()) {
+            return new Results(Collections.emptyList(), null);
+        }
+        
+        Query contentQuery;
+        try {
+            QueryParser parser = new QueryParser(FIELD_CONTENT, analyzer);
+            parser.setDefaultOperator(QueryParser.Operator.AND);
+            contentQuery = parser.parse(QueryParser.escape(queryText));
+        } catch (ParseException ex) {
+            return new Results(Collections.emptyList(), null);
+        }
+        
+        Query query = new BooleanQuery.Builder()
+                .add(contentQuery, BooleanClause.Occur.MUST)
+                .add(LongPoint.newSetQuery(FIELD_CHAT_ID, chatIds), BooleanClause.Occur.FILTER)
+                .build();
+        
+        Highlighter highlighter = new Highlighter(
+                new SimpleHTMLFormatter("<mark>", "</mark>"),
+                new SimpleHTMLEncoder(),
+                new QueryTermScorer(contentQuery, FIELD_CONTENT));
+        highlighter.setTextFragmenter(new SimpleFragmenter(SNIPPET_FRAGMENT_SIZE));
+        
+        try {
+            searcherManager.maybeRefresh();
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                FieldDoc after = decodeCursor(cursor);
+                if (after != null) {
+                    // (score, id) is unique, so the only tie is the cursor's own message; the
+                    // highest doc id in this reader keeps it from coming back
+                    after.doc = Math.max(0, searcher.getIndexReader().maxDoc() - 1);
+                }
+                
+                // Fetch one extra hit to know whether another page exists
+                TopFieldDocs topDocs = searcher.searchAfter(after, query, size + 1, sort, true);
+                
+                List<Hit> hits = new ArrayList<>();
+                String nextCursor = null;
+                for (int i = 0; i < topDocs.scoreDocs.length; i++) {
+                    FieldDoc fieldDoc = (FieldDoc) topDocs.scoreDocs[i];
+                    if (i == size) {
+                        nextCursor = encodeCursor((FieldDoc) topDocs.scoreDocs[i - 1]);
+                        break;
+                    }
+                    
+                    Document doc = searcher.doc(fieldDoc.doc);
+                    String content = doc.get(FIELD_CONTENT);
+                    hits.add(new Hit(
+                            Long.valueOf(doc.get(FIELD_ID)),
+                            fieldDoc.score,
+                            snippet(highlighter, content)));
+                }
+                
+                return new Results(hits, nextCursor);
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not search messages", ex);
+        }
+    }
+
+    private void commitWriter() throws IOException {
+        writer.setLiveCommitData(Collections.singletonMap(COMMITTED_AT,
+                String.valueOf(System.currentTimeMillis())).entrySet());
+        writer.commit();
+    }
+
+    private long reindexAfter(long afterId) throws IOException {
+        long indexed = 0;
+        Long lastId = afterId;
+        List<Object[]> rows;
+        do {
+            rows = messageRepository.findSearchIndexRowsAfter(lastId, PageRequest.of(0, REBUILD_BATCH_SIZE));
+            for (Object[] row : rows) {
+                lastId = (Long) row[0];
+                writer.updateDocument(new Term(FIELD_ID, lastId.toString()), toDocument(lastId, (Long) row[1], (String) row[2]));
+                indexed++;
+            }
+        } while (rows.size() == REBUILD_BATCH_SIZE);
+        return indexed;
+    }
+
+    private long reindex(List<Long> messageIds) throws IOException {
+        long indexed = 0;
+        for (int from = 0; from < messageIds.size(); from += REBUILD_BATCH_SIZE) {
+            List<Long> batch = messageIds.subList(from, Math.min(from + REBUILD_BATCH_SIZE, messageIds.size()));
+            Set<Long> missing = new HashSet<>(batch);
+            for (Object[] row : messageRepository.findSearchIndexRowsByIds(batch)) {
+                Long id = (Long) row[0];
+                writer.updateDocument(new Term(FIELD_ID, id.toString()), toDocument(id, (Long) row[1], (String) row[2]));
+                missing.remove(id);
+                indexed++;
+            }
+            // Deleted since; drop them from the index
+            for (Long id : missing) {
+                writer.deleteDocuments(new Term(FIELD_ID, id.toString()));
+            }
+        }
+        return indexed;
+    }
+
+    private long highestIndexedId() throws IOException {
+        searcherManager.maybeRefresh();
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopFieldDocs top = searcher.search(new MatchAllDocsQuery(), 1,
+                    new Sort(new SortField(FIELD_ID_SORT, SortField.Type.LONG, true)));
+            if (top.scoreDocs.length == 0) {
+                return 0L;
+            }
+            return (Long) ((FieldDoc) top.scoreDocs[0]).fields[0];
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private Optional<LocalDateTime> lastCommittedAt() throws IOException {
+        if (!DirectoryReader.indexExists(directory)) {
+            return Optional.empty();
+        }
+        String committedAt = SegmentInfos.readLatestCommit(directory).getUserData().get(COMMITTED_AT);
+        if (committedAt == null) {
+            return Optional.empty();
+        }
+        return Optional.of(LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(committedAt)), ZoneId.systemDefault()));
+    }
+
+    private String snippet(Highlighter highlighter, String content) throws IOException {
+        if (content == null) {
+            return null;
+        }
+        
+        try {
+            String fragment = highlighter.getBestFragment(analyzer, FIELD_CONTENT, content);
+            if (fragment != null) {
+                return fragment;
+            }
+        } catch (InvalidTokenOffsetsException ex) {
+            logger.debug("Could not highlight message content: {}", ex.getMessage());
+        }
+        
+        String plain = content.length() > SNIPPET_FRAGMENT_SIZE ? content.substring(0, SNIPPET_FRAGMENT_SIZE) : content;
+        return new SimpleHTMLEncoder().encodeText(plain);
+    }
+
+    private Document toDocument(Long id, Long chatId, String content) {
+        Document doc = new Document();
+        doc.add(new StringField(FIELD_ID, id.toString(), Field.Store.YES));
+        doc.add(new NumericDocValuesField(FIELD_ID_SORT, id));
+        doc.add(new LongPoint(FIELD_CHAT_ID, chatId));
+        doc.add(new StoredField(FIELD_CHAT_ID, chatId));
+        doc.add(new TextField(FIELD_CONTENT, content != null ? content : "", Field.Store.YES));
+        return doc;
+    }
+
+    private String encodeCursor(FieldDoc last) {
+        float score = (Float) last.fields[0];
+        long id = (Long) last.fields[1];
+        String raw = Integer.toHexString(Float.floatToIntBits(score)) + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private FieldDoc decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 2);
+            float score = Float.intBitsToFloat(Integer.parseUnsignedInt(parts[0], 16));
+            long id = Long.parseLong(parts[1]);
+            return new FieldDoc(0, score, new Object[]{score, id});
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Invalid search cursor");
+        }
+    }
+
+    private void afterCommit(IndexAction action) {
+        Runnable task = () -> {
+            try {
+                action.run();
+            } catch (IOException ex) {
+                logger.error("Could not update message search index: {}", ex.getMessage());
+            }
+        };
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IndexAction {
+        void run() throws IOException;
+    }
+
+    public static class Results {
+        private final List<Hit> hits;
+        private final String nextCursor;
+
+        Results(List<Hit> hits, String nextCursor) {
+            this.hits = hits;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Hit> getHits() {
+            return hits;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    public static class Hit {
+        private final Long messageId;
+        private final float score;
+        private final String snippet;
+
+        Hit(Long messageId, float score, String snippet) {
+            this.messageId = messageId;
+            this.score = score;
+            this.snippet = snippet;
+        }
+
+        public Long getMessageId() {
+            return messageId;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        public String getSnippet() {
+            return snippet;
+        }
+    }
+}
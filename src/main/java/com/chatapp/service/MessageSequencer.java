@@ -0,0 +1,223 @@
+package com.chatapp.service;
+
+import com.chatapp.model.ChatSequence;
+import com.chatapp.model.SequenceClaim;
+import com.chatapp.repository.ChatSequenceRepository;
+import com.chatapp.repository.MessageChangeRepository;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.repository.SequenceClaimRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out monotonic per-chat sequence numbers for new messages and for edit/delete
+ * change records. Counters are seeded lazily from the highest sequence already stored
+ * for the chat in either table.
+ * <p>
+ * A single node keeps the counters in memory. In cluster mode several nodes write to the
+ * same chats, so each number is instead taken from a shared {@link ChatSequence} row with
+ * an atomic increment in its own short transaction.
+ * <p>
+ * Numbers are handed out before the row that carries them commits, so a higher sequence
+ * can become visible before a lower one. Every number stays open until it is settled, and
+ * {@link #committedThrough(Long)} reports the highest sequence with nothing open at or below
+ * it. Delta sync never reports past that watermark. A number taken inside a transaction
+ * settles when that transaction completes, whether it commits or rolls back. Callers without
+ * a transaction call {@link #settle(Long, long)} themselves once the row has committed or
+ * will never be written. Open numbers live in memory on a single node. In cluster mode they
+ * are {@link SequenceClaim} rows, written in the same transaction as the increment.
+ */
+@Component
+public class MessageSequencer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSequencer.class);
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MessageChangeRepository messageChangeRepository;
+
+    @Autowired
+    private ChatSequenceRepository chatSequenceRepository;
+
+    @Autowired
+    private SequenceClaimRepository sequenceClaimRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${chatapp.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    // Claims left open this long belong to a node that died mid-write
+    @Value("${chatapp.sync.claim-expiry-minutes:10}")
+    private long claimExpiryMinutes;
+
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+    private TransactionTemplate requiresNew;
+
+    @PostConstruct
+    public void init() {
+        requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Next sequence for the chat. It stays open until the surrounding transaction completes,
+     * or, outside a transaction, until {@link #settle(Long, long)} is called for it.
+     */
+    public long next(Long chatId) {
+        long sequence;
+        if (clusterEnabled) {
+            sequence = nextShared(chatId);
+        } else {
+            Counter counter = counters.computeIfAbsent(chatId, id -> new Counter(maxStored(id)));
+            synchronized (counter) {
+                sequence = ++counter.last;
+                counter.open.add(sequence);
+            }
+        }
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            long taken = sequence;
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    settle(chatId, taken);
+                }
+            });
+        }
+        
+        return sequence;
+    }
+
+    /**
+     * Close a sequence: its row has committed, or it will never be written and stays a gap.
+     */
+    public void settle(Long chatId, long sequence) {
+        if (clusterEnabled) {
+            try {
+                requiresNew.executeWithoutResult(status -> sequenceClaimRepository.release(chatId, sequence));
+            } catch (RuntimeException ex) {
+                // The claim expires on its own; until then sync stops short of it
+                logger.warn("Could not release sequence {} of chat {}: {}", sequence, chatId, ex.getMessage());
+            }
+            return;
+        }
+        
+        Counter counter = counters.get(chatId);
+        if (counter != null) {
+            synchronized (counter) {
+                counter.open.remove(sequence);
+            }
+        }
+    }
+
+    /**
+     * Highest sequence of the chat at or below which every number has been settled, so
+     * everything up to it that was ever committed is already visible.
+     */
+    public long committedThrough(Long chatId) {
+        if (clusterEnabled) {
+            // Read the counter before the claims: a number at or below it was claimed in the same commit
+            return requiresNew.execute(status -> chatSequenceRepository.findLastValue(chatId)
+                    .map(last -> {
+                        Long lowestOpen = sequenceClaimRepository.findLowestOpenSequence(chatId);
+                        return lowestOpen != null ? lowestOpen - 1 : last;
+                    })
+                    .orElseGet(() -> maxStored(chatId)));
+        }
+        
+        Counter counter = counters.computeIfAbsent(chatId, id -> new Counter(maxStored(id)));
+        synchronized (counter) {
+            return counter.open.isEmpty() ? counter.last : counter.open.first() - 1;
+        }
+    }
+
+    public void forget(Long chatId) {
+        counters.remove(chatId);
+        if (clusterEnabled) {
+            requiresNew.executeWithoutResult(status -> {
+                chatSequenceRepository.findById(chatId).ifPresent(chatSequenceRepository::delete);
+                sequenceClaimRepository.deleteByChatId(chatId);
+            });
+        }
+    }
+
+    /**
+     * Drop claims whose writer never settled them, so a crashed node cannot hold sync back forever.
+     */
+    @Scheduled(fixedDelayString = "${chatapp.sync.claim-sweep-interval-ms:60000}")
+    public void expireClaims() {
+        if (!clusterEnabled) {
+            return;
+        }
+        
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(claimExpiryMinutes);
+        Integer expired = requiresNew.execute(status -> sequenceClaimRepository.deleteClaimedBefore(cutoff));
+        if (expired != null && expired > 0) {
+            logger.warn("Expired {} sequence claims left open for more than {} minutes", expired, claimExpiryMinutes);
+        }
+    }
+
+    private long nextShared(Long chatId) {
+        try {
+            return requiresNew.execute(status -> incrementShared(chatId));
+        } catch (DataIntegrityViolationException ex) {
+            // Another node created the row first; it exists now
+            return requiresNew.execute(status -> incrementShared(chatId));
+        }
+    }
+
+    private long incrementShared(Long chatId) {
+        long sequence;
+        if (chatSequenceRepository.increment(chatId) > 0) {
+            sequence = chatSequenceRepository.findLastValue(chatId).orElseThrow(IllegalStateException::new);
+        } else {
+            sequence = maxStored(chatId) + 1;
+            chatSequenceRepository.saveAndFlush(ChatSequence.builder()
+                    .chatId(chatId)
+                    .lastValue(sequence)
+                    .build());
+        }
+        
+        sequenceClaimRepository.save(SequenceClaim.builder()
+                .chatId(chatId)
+                .sequence(sequence)
+                .build());
+        return sequence;
+    }
+
+    private long maxStored(Long chatId) {
+        Long messageMax = messageRepository.findMaxSequenceByChatId(chatId);
+        Long changeMax = messageChangeRepository.findMaxSequenceByChatId(chatId);
+        return Math.max(messageMax != null ? messageMax : 0L, changeMax != null ? changeMax : 0L);
+    }
+
+    private static class Counter {
+        private long last;
+        // Handed out but not yet settled
+        private final TreeSet<Long> open = new TreeSet<>();
+
+        Counter(long last) {
+            this.last = last;
+        }
+    }
+}
@@ -4,22 +4,16 @@ import com.chatapp.model.*;
 import com.chatapp.model.dto.AttachmentDto;
 import com.chatapp.model.dto.MessageDto;
 import com.chatapp.model.dto.MessageRequest;
+import com.chatapp.model.dto.MessageSearchResultDto;
 import com.chatapp.repository.*;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.persistence.EntityNotFoundException;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -41,27 +35,42 @@ public class MessageService {
     private AttachmentRepository attachmentRepository;
 
     @Autowired
-    private ReactionRepository reactionRepository;
+    private ReactionService reactionService;
 
     @Autowired
     private UserService userService;
 
-    private final Path fileStorageLocation = Paths.get("uploads/attachments").toAbsolutePath().normalize();
+    @Autowired
+    private ReadCursorService readCursorService;
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private MessageSequencer messageSequencer;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private MessageReadModel messageReadModel;
+
+    @Autowired
+    private MessageChangeRepository messageChangeRepository;
+
     private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
-    public MessageService() {
-        try {
-            Files.createDirectories(fileStorageLocation);
-        } catch (IOException ex) {
-            throw new RuntimeException("Could not create the directory where the uploaded files will be stored.", ex);
-        }
+    public Slice<MessageDto> findByChatId(Long chatId, int page, int size, Long viewerId) {
+        return messageReadModel.findPage(chatId, page, size, viewerId);
     }
 
-    public Page<MessageDto> findByChatId(Long chatId, int page, int size) {
-        Pageable pageable = PageRequest.of(page, size, Sort.by("createdAt").descending());
-        Page<Message> messages = messageRepository.findByChatIdOrderByCreatedAtDesc(chatId, pageable);
-        
-        return messages.map(this::convertToDto);
+    /**
+     * Keyset page of chat history relative to a cursor message. With {@code beforeId} the
+     * slice holds older messages, newest first; with {@code afterId} it holds newer messages,
+     * oldest first. No total count is computed, so every page costs the same.
+     */
+    public Slice<MessageDto> findByChatIdAroundCursor(Long chatId, Long beforeId, Long afterId, int size, Long viewerId) {
+        return messageReadModel.findPageAround(chatId, beforeId, afterId, size, viewerId);
     }
 
     public MessageDto findById(Long id) {
@@ -77,13 +86,18 @@ public class MessageService {
         message.setContent(messageDto.getContent());
         message.setSender(sender);
         message.setChat(chat);
+        message.setSequence(messageSequencer.next(chat.getId()));
         
         if (messageDto.getReplyToId() != null) {
             messageRepository.findById(messageDto.getReplyToId())
                     .ifPresent(message::setReplyTo);
         }
         
-        return messageRepository.save(message);
+        Message savedMessage = messageRepository.save(message);
+        readCursorService.advance(chat.getId(), sender.getId(), savedMessage.getId());
+        messageSearchIndex.index(savedMessage);
+        
+        return savedMessage;
     }
 
     @Transactional
@@ -98,6 +112,7 @@ public class MessageService {
         message.setContent(messageRequest.getContent());
         message.setSender(sender);
         message.setChat(chat);
+        message.setSequence(messageSequencer.next(chat.getId()));
         
         if (messageRequest.getReplyToId() != null) {
             messageRepository.findById(messageRequest.getReplyToId())
@@ -105,53 +120,20 @@ public class MessageService {
         }
         
         Message savedMessage = messageRepository.save(message);
+        readCursorService.advance(chat.getId(), senderId, savedMessage.getId());
+        messageSearchIndex.index(savedMessage);
+        
         return convertToDto(savedMessage);
     }
 
     @Transactional
     public String addAttachment(Long messageId, MultipartFile file) {
-        Message message = messageRepository.findById(messageId)
-                .orElseThrow(() -> new EntityNotFoundException("Message not found with id: " + messageId));
-        
-        String fileName = UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-        Path targetLocation = fileStorageLocation.resolve(fileName);
-        
         try {
-            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
-            
-            Attachment attachment = new Attachment();
-            attachment.setFileName(file.getOriginalFilename());
-            attachment.setFileType(file.getContentType());
-            attachment.setFilePath("/uploads/attachments/" + fileName);
-            attachment.setFileSize(file.getSize());
-            
-            // Determine type from content type
-            if (file.getContentType() != null) {
-                if (file.getContentType().startsWith("image/")) {
-                    attachment.setType(Attachment.AttachmentType.IMAGE);
-                } else if (file.getContentType().startsWith("video/")) {
-                    attachment.setType(Attachment.AttachmentType.VIDEO);
-                } else if (file.getContentType().startsWith("audio/")) {
-                    attachment.setType(Attachment.AttachmentType.AUDIO);
-                } else {
-                    attachment.setType(Attachment.AttachmentType.DOCUMENT);
-                }
-            } else {
-                attachment.setType(Attachment.AttachmentType.OTHER);
-            }
-            
-            Attachment savedAttachment = attachmentRepository.save(attachment);
-            
-            if (message.getAttachments() == null) {
-                message.setAttachments(new HashSet<>());
-            }
-            
-            message.getAttachments().add(savedAttachment);
-            messageRepository.save(message);
-            
-            return attachment.getFilePath();
+            // Shares the deduplicating content store with /api/messages/{id}/attachments uploads
+            Attachment attachment = fileStorageService.storeMessageAttachment(file, messageId);
+            return "/api/attachments/" + attachment.getId();
         } catch (IOException ex) {
-            throw new RuntimeException("Could not store file " + fileName, ex);
+            throw new RuntimeException("Could not store file " + file.getOriginalFilename(), ex);
         }
     }
 
@@ -167,87 +149,144 @@ public class MessageService {
         }
         
         Message updatedMessage = messageRepository.save(message);
+        messageSearchIndex.index(updatedMessage);
+        recordChange(updatedMessage.getChat().getId(), id, MessageChange.ChangeType.EDITED);
+        
         return convertToDto(updatedMessage);
     }
 
     @Transactional
     public void deleteMessage(Long id) {
+        Long chatId = messageRepository.findChatIdById(id)
+                .orElseThrow(() -> new EntityNotFoundException("Message not found with id: " + id));
+        List<Attachment> attachments = attachmentRepository.findByMessageId(id);
+        
+        reactionService.deleteReactionsForMessage(id);
         messageRepository.deleteById(id);
+        fileStorageService.deleteMessageAttachments(attachments);
+        messageSearchIndex.delete(id);
+        recordChange(chatId, id, MessageChange.ChangeType.DELETED);
+    }
+
+    @Transactional
+    public void deleteChangesForChat(Long chatId) {
+        messageChangeRepository.deleteByChatId(chatId);
+        messageSequencer.forget(chatId);
     }
 
     @Transactional
     public void markAsRead(Long messageId, Long userId) {
-        Message message = messageRepository.findById(messageId)
+        Long chatId = messageRepository.findChatIdById(messageId)
                 .orElseThrow(() -> new EntityNotFoundException("Message not found with id: " + messageId));
         
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new EntityNotFoundException("User not found with id: " + userId));
-        
-        if (message.getReadBy() == null) {
-            message.setReadBy(new HashSet<>());
-        }
-        
-        message.getReadBy().add(user);
-        messageRepository.save(message);
+        readCursorService.advance(chatId, userId, messageId);
     }
 
+    /**
+     * Mark everything up to and including the message as read in the chat the client named.
+     * The message has to belong to that chat, so a cursor cannot be moved with another chat's ids.
+     */
     @Transactional
-    public void addReaction(Long messageId, Long userId, String emoji) {
-        Message message = messageRepository.findById(messageId)
+    public void markAsRead(Long chatId, Long messageId, Long userId) {
+        Long messageChatId = messageRepository.findChatIdById(messageId)
                 .orElseThrow(() -> new EntityNotFoundException("Message not found with id: " + messageId));
-        
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new EntityNotFoundException("User not found with id: " + userId));
-        
-        // Remove any existing reaction with the same emoji from this user
-        List<Reaction> existingReactions = reactionRepository.findByMessageIdAndUserId(messageId, userId);
-        existingReactions.stream()
-                .filter(r -> r.getEmoji().equals(emoji))
-                .forEach(reactionRepository::delete);
-        
-        Reaction reaction = new Reaction();
-        reaction.setEmoji(emoji);
-        reaction.setName(emoji); // Simple name based on emoji
-        reaction.setUser(user);
-        
-        Reaction savedReaction = reactionRepository.save(reaction);
-        
-        if (message.getReactions() == null) {
-            message.setReactions(new HashSet<>());
+        if (!messageChatId.equals(chatId)) {
+            throw new EntityNotFoundException("Message " + messageId + " not found in chat " + chatId);
         }
         
-        message.getReactions().add(savedReaction);
-        messageRepository.save(message);
+        readCursorService.advance(chatId, userId, messageId);
+    }
+
+    @Transactional
+    public void addReaction(Long messageId, Long userId, String emoji) {
+        reactionService.addReaction(messageId, userId, emoji);
     }
 
     @Transactional
     public void removeReaction(Long messageId, Long userId, String emoji) {
-        List<Reaction> reactions = reactionRepository.findByMessageIdAndUserId(messageId, userId);
-        
-        reactions.stream()
-                .filter(r -> r.getEmoji().equals(emoji))
-                .forEach(reactionRepository::delete);
+        reactionService.removeReaction(messageId, userId, emoji);
     }
 
-    public List<MessageDto> searchMessagesInChat(String query, Long chatId) {
-        List<Message> messages = messageRepository.searchMessagesInChat(chatId, query);
-        return messages.stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
+    /**
+     * Record an edit or deletion under a fresh chat sequence number for delta sync.
+     */
+    private void recordChange(Long chatId, Long messageId, MessageChange.ChangeType type) {
+        messageChangeRepository.save(MessageChange.builder()
+                .chatId(chatId)
+                .sequence(messageSequencer.next(chatId))
+                .messageId(messageId)
+                .type(type)
+                .build());
     }
 
-    public List<MessageDto> searchMessagesForUser(String query, Long userId) {
-        List<Message> messages = messageRepository.searchMessagesForUser(query, userId);
-        return messages.stream()
-                .map(this::convertToDto)
+    /**
+     * Full-text search within one chat, or across all of the user's chats when chatId is null.
+     */
+    public MessageSearchResultDto searchMessages(String query, Long userId, Long chatId, String cursor, int size) {
+        Collection<Long> chatIds = chatId != null
+                ? Collections.singletonList(chatId)
+                : chatRepository.findChatIdsByMemberId(userId);
+        
+        MessageSearchIndex.Results results = messageSearchIndex.search(query, chatIds, cursor, size);
+        
+        List<Long> messageIds = results.getHits().stream()
+                .map(MessageSearchIndex.Hit::getMessageId)
                 .collect(Collectors.toList());
+        Map<Long, MessageDto> messagesById = messageReadModel.findByIds(messageIds, userId);
+        
+        // Keep the index ranking; skip hits whose message was deleted since the last refresh
+        List<MessageSearchResultDto.Hit> hits = results.getHits().stream()
+                .filter(hit -> messagesById.containsKey(hit.getMessageId()))
+                .map(hit -> MessageSearchResultDto.Hit.builder()
+                        .message(messagesById.get(hit.getMessageId()))
+                        .score(hit.getScore())
+                        .snippet(hit.getSnippet())
+                        .build())
+                .collect(Collectors.toList());
+        
+        return new MessageSearchResultDto(hits, results.getNextCursor());
+    }
+
+    /**
+     * Lightweight conversion used for chat list previews. Only touches the sender,
+     * so callers should fetch it together with the message.
+     */
+    public MessageDto convertToSummaryDto(Message message) {
+        MessageDto dto = new MessageDto();
+        dto.setId(message.getId());
+        dto.setContent(message.getContent());
+        dto.setChatId(message.getChat().getId());
+        dto.setSequence(message.getSequence());
+        
+        if (message.getSender() != null) {
+            dto.setSender(userService.convertToDto(message.getSender()));
+        }
+        
+        dto.setEdited(message.isEdited());
+        
+        if (message.getEditedAt() != null) {
+            dto.setEditedAt(message.getEditedAt().format(formatter));
+        }
+        
+        dto.setDeleted(message.isDeleted());
+        
+        if (message.getCreatedAt() != null) {
+            dto.setCreatedAt(message.getCreatedAt().format(formatter));
+        }
+        
+        return dto;
     }
 
     public MessageDto convertToDto(Message message) {
+        return convertToDto(message, readCursorService.getReadReceiptView(message.getChat().getId()));
+    }
+
+    public MessageDto convertToDto(Message message, ReadCursorService.ReadReceiptView readReceipts) {
         MessageDto dto = new MessageDto();
         dto.setId(message.getId());
         dto.setContent(message.getContent());
         dto.setChatId(message.getChat().getId());
+        dto.setSequence(message.getSequence());
         
         if (message.getSender() != null) {
             dto.setSender(userService.convertToDto(message.getSender()));
@@ -274,7 +313,7 @@ public class MessageService {
                         attachmentDto.setId(attachment.getId());
                         attachmentDto.setFileName(attachment.getFileName());
                         attachmentDto.setFileType(attachment.getFileType());
-                        attachmentDto.setFileUrl(attachment.getFilePath());
+                        attachmentDto.setFileUrl("/api/attachments/" + attachment.getId());
                         attachmentDto.setFileSize(attachment.getFileSize());
                         attachmentDto.setType(attachment.getType().name());
                         attachmentDto.setThumbnailUrl(attachment.getThumbnailUrl());
@@ -290,13 +329,7 @@ public class MessageService {
             dto.setAttachments(attachmentDtos);
         }
         
-        if (message.getReactions() != null) {
-            // Group reactions by emoji
-            Map<String, Integer> reactionCounts = message.getReactions().stream()
-                    .collect(Collectors.groupingBy(Reaction::getEmoji, Collectors.summingInt(r -> 1)));
-            
-            dto.setReactions(reactionCounts);
-        }
+        dto.setReactions(reactionService.getCounts(message.getId()));
         
         dto.setEdited(message.isEdited());
         
@@ -306,12 +339,9 @@ public class MessageService {
         
         dto.setDeleted(message.isDeleted());
         
-        if (message.getReadBy() != null) {
-            List<UserDto> readByUsers = message.getReadBy().stream()
-                    .map(userService::convertToDto)
-                    .collect(Collectors.toList());
-            
-            dto.setReadBy(readByUsers);
+        // Derived from read cursors; left empty for chats above the receipt size limit
+        if (!readReceipts.isEmpty()) {
+            dto.setReadBy(readReceipts.readBy(message.getId()));
         }
         
         if (message.getCreatedAt() != null) {
@@ -0,0 +1,166 @@
+package com.chatapp.service;
+
+import com.chatapp.repository.ChatRepository;
+import com.chatapp.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * userId → watchers index deciding who receives a user's presence changes.
+ * <p>
+ * A user's watchers are everyone who shares a chat with them or lists them as a contact.
+ * Lists are built on first use with two queries and kept until chat membership or contacts
+ * change for one of the users involved ({@link ChatService} and {@link UserService} invalidate
+ * them, immediately and again after commit), or until a TTL passes.
+ */
+@Component
+public class PresenceInterestGraph {
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Value("${chatapp.presence.interest-ttl-ms:600000}")
+    private long ttlMs;
+
+    @Value("${chatapp.presence.interest-max-users:50000}")
+    private int maxUsers;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public Watchers getWatchers(Long userId) {
+        long now = System.nanoTime();
+        Entry entry = entries.get(userId);
+        if (entry != null && now - entry.loadedAt < TimeUnit.MILLISECONDS.toNanos(ttlMs)) {
+            hits.increment();
+            return entry.watchers;
+        }
+
+        misses.increment();
+        Map<Long, String> watchers = new LinkedHashMap<>();
+        // Each row is [userId, username]
+        for (Object[] row : chatRepository.findCoMemberRows(userId)) {
+            watchers.put((Long) row[0], (String) row[1]);
+        }
+        for (Object[] row : userRepository.findContactOfRows(userId)) {
+            watchers.put((Long) row[0], (String) row[1]);
+        }
+        watchers.remove(userId);
+
+        Watchers loaded = Watchers.of(watchers);
+        entries.put(userId, new Entry(loaded, now));
+        return loaded;
+    }
+
+    /**
+     * Drop the watcher lists of the given users, e.g. all members of a chat whose
+     * membership changed, or the user someone added as a contact.
+     */
+    public void invalidate(long... userIds) {
+        for (long userId : userIds) {
+            entries.remove(userId);
+        }
+        invalidations.add(userIds.length);
+
+        // A concurrent presence change may reload the old lists before this transaction commits
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    for (long userId : userIds) {
+                        entries.remove(userId);
+                    }
+                }
+            });
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chatapp.presence.interest-cleanup-interval-ms:60000}")
+    public void evict() {
+        long now = System.nanoTime();
+        long ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        entries.values().removeIf(entry -> now - entry.loadedAt >= ttlNanos);
+
+        // Oldest lists first; they are rebuilt on the next presence change anyway
+        int excess = entries.size() - maxUsers;
+        if (excess > 0) {
+            entries.entrySet().stream()
+                    .sorted(Comparator.comparingLong(e -> e.getValue().loadedAt))
+                    .limit(excess)
+                    .map(Map.Entry::getKey)
+                    .forEach(entries::remove);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("users", entries.size());
+        metrics.put("edges", entries.values().stream().mapToLong(e -> e.watchers.size()).sum());
+        metrics.put("hits", hits.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("invalidations", invalidations.sum());
+        return metrics;
+    }
+
+    private static class Entry {
+        private final Watchers watchers;
+        private final long loadedAt;
+
+        Entry(Watchers watchers, long loadedAt) {
+            this.watchers = watchers;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * Immutable parallel arrays of watcher ids and usernames.
+     */
+    public static final class Watchers {
+        private final long[] ids;
+        private final String[] usernames;
+
+        private Watchers(long[] ids, String[] usernames) {
+            this.ids = ids;
+            this.usernames = usernames;
+        }
+
+        static Watchers of(Map<Long, String> watchers) {
+            long[] ids = new long[watchers.size()];
+            String[] usernames = new String[watchers.size()];
+            int i = 0;
+            for (Map.Entry<Long, String> watcher : watchers.entrySet()) {
+                ids[i] = watcher.getKey();
+                usernames[i] = watcher.getValue();
+                i++;
+            }
+            return new Watchers(ids, usernames);
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        public long getId(int index) {
+            return ids[index];
+        }
+
+        public String getUsername(int index) {
+            return usernames[index];
+        }
+    }
+}
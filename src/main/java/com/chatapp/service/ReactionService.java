@@ -0,0 +1,281 @@
+package com.chatapp.service;
+
+import com.chatapp.model.ReactionCount;
+import com.chatapp.model.UserReaction;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.repository.ReactionCountRepository;
+import com.chatapp.repository.UserReactionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityNotFoundException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reactions stored as per-(message, emoji) counters plus the set of emojis each user
+ * left, so reading a page never aggregates individual reaction rows.
+ * <p>
+ * Changes are not broadcast one by one: deltas are accumulated per message and flushed
+ * on a short interval to {@code /topic/chat/{chatId}/reactions}, so a burst of clicks on
+ * a popular post turns into one event carrying the net change and the current counts.
+ */
+@Service
+public class ReactionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactionService.class);
+
+    // Enough for a concurrent duplicate and a concurrently created counter to resolve
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+
+    @Autowired
+    private ReactionCountRepository reactionCountRepository;
+
+    @Autowired
+    private UserReactionRepository userReactionRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private SimpMessageSendingOperations messagingTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate requiresNew;
+
+    // messageId -> pending deltas not yet broadcast
+    private final Map<Long, PendingDelta> pending = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Add the user's reaction. Returns false if the user had already reacted with this emoji.
+     */
+    @Transactional
+    public boolean addReaction(Long messageId, Long userId, String emoji) {
+        Long chatId = messageRepository.findChatIdById(messageId)
+                .orElseThrow(() -> new EntityNotFoundException("Message not found with id: " + messageId));
+        
+        for (int attempt = 1; ; attempt++) {
+            if (userReactionRepository.existsByMessageIdAndUserIdAndEmoji(messageId, userId, emoji)) {
+                return false;
+            }
+            
+            try {
+                // A failed insert would poison the caller's transaction, so the reaction and
+                // its counter are written in their own, which commits both or neither
+                requiresNew.executeWithoutResult(status -> insertReaction(messageId, userId, emoji));
+                break;
+            } catch (DataIntegrityViolationException ex) {
+                // The same reaction, or the first counter for the emoji, was added concurrently
+                // and is committed now
+                if (attempt >= MAX_INSERT_ATTEMPTS) {
+                    throw ex;
+                }
+            }
+        }
+        
+        recordAfterCommit(chatId, messageId, emoji, 1);
+        return true;
+    }
+
+    private void insertReaction(Long messageId, Long userId, String emoji) {
+        userReactionRepository.saveAndFlush(UserReaction.builder()
+                .messageId(messageId)
+                .userId(userId)
+                .emoji(emoji)
+                .build());
+        
+        if (reactionCountRepository.increment(messageId, emoji, LocalDateTime.now()) == 0) {
+            reactionCountRepository.saveAndFlush(ReactionCount.builder()
+                    .messageId(messageId)
+                    .emoji(emoji)
+                    .reactionCount(1)
+                    .build());
+        }
+    }
+
+    /**
+     * Remove the user's reaction. Returns false if there was nothing to remove.
+     */
+    @Transactional
+    public boolean removeReaction(Long messageId, Long userId, String emoji) {
+        if (userReactionRepository.deleteByMessageIdAndUserIdAndEmoji(messageId, userId, emoji) == 0) {
+            return false;
+        }
+        
+        reactionCountRepository.decrement(messageId, emoji, LocalDateTime.now());
+        reactionCountRepository.deleteIfEmpty(messageId, emoji);
+        
+        messageRepository.findChatIdById(messageId)
+                .ifPresent(chatId -> recordAfterCommit(chatId, messageId, emoji, -1));
+        return true;
+    }
+
+    public Map<String, Integer> getCounts(Long messageId) {
+        return getCounts(Collections.singletonList(messageId)).getOrDefault(messageId, new HashMap<>());
+    }
+
+    /**
+     * Counts per emoji for each message; messages without reactions are absent.
+     */
+    public Map<Long, Map<String, Integer>> getCounts(Collection<Long> messageIds) {
+        Map<Long, Map<String, Integer>> countsByMessage = new HashMap<>();
+        if (messageIds.isEmpty()) {
+            return countsByMessage;
+        }
+        
+        for (Object[] row : reactionCountRepository.findCountsByMessageIds(messageIds)) {
+            countsByMessage.computeIfAbsent((Long) row[0], id -> new HashMap<>())
+                    .put((String) row[1], ((Number) row[2]).intValue());
+        }
+        
+        return countsByMessage;
+    }
+
+    /**
+     * Emojis the user reacted with, per message; messages the user did not react to are absent.
+     */
+    public Map<Long, List<String>> getUserReactions(Collection<Long> messageIds, Long userId) {
+        Map<Long, List<String>> emojisByMessage = new HashMap<>();
+        if (messageIds.isEmpty() || userId == null) {
+            return emojisByMessage;
+        }
+        
+        for (Object[] row : userReactionRepository.findEmojisByMessageIdsAndUserId(messageIds, userId)) {
+            emojisByMessage.computeIfAbsent((Long) row[0], id -> new ArrayList<>()).add((String) row[1]);
+        }
+        
+        return emojisByMessage;
+    }
+
+    @Transactional
+    public void deleteReactionsForMessage(Long messageId) {
+        userReactionRepository.deleteByMessageId(messageId);
+        reactionCountRepository.deleteByMessageId(messageId);
+    }
+
+    /**
+     * Delete the reactions of every message in the chat; call before the messages are deleted.
+     */
+    @Transactional
+    public void deleteReactionsForChat(Long chatId) {
+        userReactionRepository.deleteByChatId(chatId);
+        reactionCountRepository.deleteByChatId(chatId);
+    }
+
+    /**
+     * Broadcast the coalesced deltas gathered since the last flush together with the
+     * current counts of the affected messages, read in one query.
+     */
+    @Scheduled(fixedDelayString = "${chatapp.reactions.flush-interval-ms:250}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        
+        List<PendingDelta> batch = new ArrayList<>();
+        for (Long messageId : new ArrayList<>(pending.keySet())) {
+            PendingDelta delta = pending.remove(messageId);
+            if (delta != null) {
+                batch.add(delta);
+            }
+        }
+        
+        List<Long> messageIds = new ArrayList<>(batch.size());
+        batch.forEach(delta -> messageIds.add(delta.messageId));
+        Map<Long, Map<String, Integer>> counts = getCounts(messageIds);
+        
+        for (PendingDelta delta : batch) {
+            Map<String, Object> event = new HashMap<>();
+            event.put("messageId", delta.messageId);
+            event.put("deltas", delta.deltas);
+            event.put("reactions", counts.getOrDefault(delta.messageId, new HashMap<>()));
+            messagingTemplate.convertAndSend("/topic/chat/" + delta.chatId + "/reactions", event);
+        }
+    }
+
+    /**
+     * Build counters from legacy per-click reaction rows the first time the new tables are empty.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void migrateLegacyReactions() {
+        if (reactionCountRepository.count() > 0) {
+            return;
+        }
+        
+        Long legacy = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM message_reactions", Long.class);
+        if (legacy == null || legacy == 0) {
+            return;
+        }
+        
+        int users = jdbcTemplate.update(
+                "INSERT INTO user_reactions (message_id, user_id, emoji, created_at) " +
+                "SELECT mr.message_id, r.user_id, r.emoji, MIN(r.created_at) " +
+                "FROM message_reactions mr JOIN reactions r ON r.id = mr.reaction_id " +
+                "WHERE r.user_id IS NOT NULL AND r.emoji IS NOT NULL " +
+                "GROUP BY mr.message_id, r.user_id, r.emoji");
+        int counters = jdbcTemplate.update(
+                "INSERT INTO reaction_counts (message_id, emoji, reaction_count, updated_at) " +
+                "SELECT message_id, emoji, COUNT(*), CURRENT_TIMESTAMP FROM user_reactions GROUP BY message_id, emoji");
+        
+        logger.info("Migrated {} legacy reactions into {} reaction counters", users, counters);
+    }
+
+    private void recordAfterCommit(Long chatId, Long messageId, String emoji, int change) {
+        // compute() is atomic with the remove() in flush, so no delta lands in an already flushed entry
+        Runnable record = () -> pending.compute(messageId, (id, delta) -> {
+            PendingDelta updated = delta != null ? delta : new PendingDelta(chatId, messageId);
+            updated.deltas.merge(emoji, change, Integer::sum);
+            return updated;
+        });
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    record.run();
+                }
+            });
+        } else {
+            record.run();
+        }
+    }
+
+    private static class PendingDelta {
+        private final Long chatId;
+        private final Long messageId;
+        private final Map<String, Integer> deltas = new HashMap<>();
+
+        PendingDelta(Long chatId, Long messageId) {
+            this.chatId = chatId;
+            this.messageId = messageId;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.chatapp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * One-off migration that seeds {@code chat_read_cursors} from the legacy per-message
+ * {@code message_read_by} receipts. A member's cursor starts at the newest message they had
+ * a receipt for or sent themselves, so existing history does not show up as unread.
+ * Runs at startup and only fills in members that have no cursor yet, so it is a no-op
+ * once every legacy reader has one.
+ */
+@Component
+public class ReadCursorBackfill {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadCursorBackfill.class);
+
+    private static final String BACKFILL_SQL =
+            "INSERT INTO chat_read_cursors (chat_id, user_id, last_read_message_id, last_read_at) " +
+            "SELECT src.chat_id, src.user_id, MAX(src.message_id), CURRENT_TIMESTAMP FROM (" +
+            "  SELECT m.chat_id AS chat_id, rb.user_id AS user_id, m.id AS message_id " +
+            "  FROM message_read_by rb JOIN messages m ON m.id = rb.message_id " +
+            "  UNION ALL " +
+            "  SELECT m.chat_id, m.sender_id, m.id FROM messages m WHERE m.sender_id IS NOT NULL" +
+            ") src " +
+            "WHERE src.chat_id IS NOT NULL AND NOT EXISTS (" +
+            "  SELECT 1 FROM chat_read_cursors rc WHERE rc.chat_id = src.chat_id AND rc.user_id = src.user_id) " +
+            "GROUP BY src.chat_id, src.user_id";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        try {
+            int seeded = jdbcTemplate.update(BACKFILL_SQL);
+            if (seeded > 0) {
+                logger.info("Seeded {} read cursors from legacy read receipts", seeded);
+            }
+        } catch (DataIntegrityViolationException ex) {
+            // Another node or a live read created one of the cursors meanwhile; the next start fills in the rest
+            logger.warn("Read cursor backfill raced with a concurrent cursor insert: {}", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.chatapp.service;
+
+import com.chatapp.model.ChatReadCursor;
+import com.chatapp.model.User;
+import com.chatapp.model.dto.UserDto;
+import com.chatapp.repository.ChatReadCursorRepository;
+import com.chatapp.repository.ChatRepository;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks read state as one cursor per (chat, member) holding the highest message id read.
+ * Unread counts become a range count over messages, and per-message read receipts
+ * are derived from the cursors for chats small enough to make that worthwhile.
+ */
+@Service
+public class ReadCursorService {
+
+    @Autowired
+    private ChatReadCursorRepository readCursorRepository;
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Chats with more members than this do not expose per-message readBy lists
+    @Value("${chatapp.read-receipts.max-chat-size:50}")
+    private int readReceiptsMaxChatSize;
+
+    private TransactionTemplate requiresNew;
+
+    @PostConstruct
+    public void init() {
+        requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Move the member's cursor forward to the given message. No-op if it is already past it.
+     */
+    @Transactional
+    public void advance(Long chatId, Long userId, Long messageId) {
+        LocalDateTime now = LocalDateTime.now();
+        
+        if (readCursorRepository.advance(chatId, userId, messageId, now) > 0) {
+            return;
+        }
+        
+        if (readCursorRepository.existsByChatIdAndUserId(chatId, userId)) {
+            // Either already past the message, or created concurrently since the update
+            readCursorRepository.advance(chatId, userId, messageId, now);
+            return;
+        }
+        
+        try {
+            // A failed insert would poison the caller's transaction, so the first cursor
+            // for a member is created in its own
+            requiresNew.executeWithoutResult(status -> readCursorRepository.saveAndFlush(ChatReadCursor.builder()
+                    .chatId(chatId)
+                    .userId(userId)
+                    .lastReadMessageId(messageId)
+                    .lastReadAt(now)
+                    .build()));
+        } catch (DataIntegrityViolationException ex) {
+            // A concurrent first read created the cursor; it exists now
+            readCursorRepository.advance(chatId, userId, messageId, now);
+        }
+    }
+
+    public Long getLastReadMessageId(Long chatId, Long userId) {
+        return readCursorRepository.findByChatIdAndUserId(chatId, userId)
+                .map(ChatReadCursor::getLastReadMessageId)
+                .orElse(null);
+    }
+
+    public Long countUnread(Long chatId, Long userId) {
+        Long lastReadMessageId = getLastReadMessageId(chatId, userId);
+        return messageRepository.countByChatIdAndIdGreaterThan(chatId, lastReadMessageId != null ? lastReadMessageId : 0L);
+    }
+
+    /**
+     * Snapshot of the chat's cursors used to derive per-message readBy lists,
+     * or an empty view when the chat is too large for per-message receipts.
+     */
+    @Transactional(readOnly = true)
+    public ReadReceiptView getReadReceiptView(Long chatId) {
+        if (chatRepository.countMembers(chatId) > readReceiptsMaxChatSize) {
+            return ReadReceiptView.EMPTY;
+        }
+        
+        List<ChatReadCursor> cursors = readCursorRepository.findByChatId(chatId);
+        if (cursors.isEmpty()) {
+            return ReadReceiptView.EMPTY;
+        }
+        
+        Set<Long> userIds = cursors.stream()
+                .map(ChatReadCursor::getUserId)
+                .collect(Collectors.toSet());
+        
+        Map<Long, UserDto> usersById = new HashMap<>();
+        for (User user : userRepository.findAllWithRolesByIdIn(userIds)) {
+            usersById.put(user.getId(), userService.convertToDto(user));
+        }
+        
+        List<ReadReceiptView.Entry> entries = new ArrayList<>(cursors.size());
+        for (ChatReadCursor cursor : cursors) {
+            UserDto user = usersById.get(cursor.getUserId());
+            if (user != null && cursor.getLastReadMessageId() != null) {
+                entries.add(new ReadReceiptView.Entry(user, cursor.getLastReadMessageId()));
+            }
+        }
+        
+        return new ReadReceiptView(entries);
+    }
+
+    @Transactional
+    public void deleteCursorsForChat(Long chatId) {
+        readCursorRepository.deleteByChatId(chatId);
+    }
+
+    public static class ReadReceiptView {
+        static final ReadReceiptView EMPTY = new ReadReceiptView(Collections.emptyList());
+
+        private final List<Entry> entries;
+
+        ReadReceiptView(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        public boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        /**
+         * Members whose cursor is at or past the given message.
+         */
+        public List<UserDto> readBy(Long messageId) {
+            return entries.stream()
+                    .filter(entry -> entry.lastReadMessageId >= messageId)
+                    .map(entry -> entry.user)
+                    .collect(Collectors.toList());
+        }
+
+        static class Entry {
+            private final UserDto user;
+            private final long lastReadMessageId;
+
+            Entry(UserDto user, long lastReadMessageId) {
+                this.user = user;
+                this.lastReadMessageId = lastReadMessageId;
+            }
+        }
+    }
+}
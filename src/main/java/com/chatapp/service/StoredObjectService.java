@@ -0,0 +1,253 @@
+package com.chatapp.service;
+
+import com.chatapp.model.StoredObject;
+import com.chatapp.repository.AttachmentRepository;
+import com.chatapp.repository.AttachmentThumbnailRepository;
+import com.chatapp.repository.StoredObjectRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Reference-counted deduplication on top of the {@link ContentStore}. Identical uploads
+ * share one stored object; each attachment holds a reference, and objects whose count
+ * drops to zero are garbage collected by a periodic sweep.
+ * <p>
+ * Committing new content and incrementing its count happen in their own transaction
+ * holding the object's row lock, and the sweep deletes the row and its content under the
+ * same lock, so an upload can never attach to an object that is being removed, whichever
+ * node either runs on. The first upload of some content has no row to lock yet; a
+ * concurrent first upload elsewhere makes its insert fail, and it retries as a reference.
+ */
+@Service
+public class StoredObjectService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoredObjectService.class);
+
+    private static final int GC_BATCH_SIZE = 100;
+    private static final int STORE_ATTEMPTS = 3;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private StoredObjectRepository storedObjectRepository;
+
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+
+    @Autowired
+    private AttachmentThumbnailRepository attachmentThumbnailRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Counts left too high by rolled-back uploads are corrected once an object has been idle this long
+    @Value("${chatapp.storage.reconcile-after-hours:24}")
+    private long reconcileAfterHours;
+
+    private TransactionTemplate requiresNew;
+
+    @PostConstruct
+    public void init() {
+        requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Store an upload and take a reference on it. The hash is computed while streaming,
+     * so duplicates are detected without buffering the file.
+     * <p>
+     * The reference is committed right away; when called inside a transaction it is dropped
+     * again if that transaction rolls back, so a failed attachment insert does not leak it.
+     */
+    public ContentStore.StoredContent store(InputStream input) throws IOException {
+        ContentStore.StagedContent staged = contentStore.stage(input);
+        
+        ContentStore.StoredContent content = null;
+        for (int attempt = 1; content == null; attempt++) {
+            try {
+                content = requiresNew.execute(status -> reference(staged));
+            } catch (DataIntegrityViolationException ex) {
+                // A first upload of the same content on another thread or node inserted the row
+                if (attempt >= STORE_ATTEMPTS) {
+                    throw ex;
+                }
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+        }
+        
+        releaseOnRollback(content.getHash());
+        return content;
+    }
+
+    /**
+     * Commits the staged content and takes a reference on it while holding the row lock.
+     */
+    private ContentStore.StoredContent reference(ContentStore.StagedContent staged) {
+        Optional<StoredObject> object = storedObjectRepository.findByIdForUpdate(staged.getHash());
+        
+        ContentStore.StoredContent content;
+        try {
+            // Also on a retry, which finds the content committed by the first attempt
+            content = contentStore.commit(staged);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        
+        if (object.isPresent()) {
+            storedObjectRepository.incrementRefCount(content.getHash(), LocalDateTime.now());
+        } else {
+            storedObjectRepository.insertReferenced(content.getHash(), content.getSize(), LocalDateTime.now());
+        }
+        return content;
+    }
+
+    /**
+     * Drop one reference. The object itself is removed by the next GC sweep.
+     */
+    @Transactional
+    public void release(String hash) {
+        if (hash != null) {
+            storedObjectRepository.decrementRefCount(hash, LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Delete objects no attachment refers to any more.
+     */
+    @Scheduled(fixedDelayString = "${chatapp.storage.gc-interval-ms:600000}")
+    public void collectGarbage() {
+        long deleted = 0;
+        long freed = 0;
+        List<String> hashes;
+        
+        do {
+            hashes = storedObjectRepository.findUnreferencedHashes(PageRequest.of(0, GC_BATCH_SIZE));
+            for (String hash : hashes) {
+                Long size = collect(hash);
+                if (size != null) {
+                    deleted++;
+                    freed += size;
+                }
+            }
+        } while (hashes.size() == GC_BATCH_SIZE);
+        
+        if (deleted > 0) {
+            logger.info("Garbage collected {} stored objects ({} bytes)", deleted, freed);
+        }
+    }
+
+    /**
+     * Recompute counts of idle objects from the attachment and thumbnail tables, repairing counts
+     * that drifted (e.g. an upload whose attachment insert rolled back).
+     */
+    @Scheduled(cron = "${chatapp.storage.reconcile-cron:0 30 3 * * *}")
+    public void reconcile() {
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(reconcileAfterHours);
+        int page = 0;
+        List<String> hashes;
+        
+        do {
+            hashes = storedObjectRepository.findHashesNotUpdatedSince(cutoff, PageRequest.of(page++, GC_BATCH_SIZE));
+            for (String hash : hashes) {
+                requiresNew.executeWithoutResult(status -> storedObjectRepository.findByIdForUpdate(hash).ifPresent(object -> {
+                    long actual = countReferences(hash);
+                    if (object.getRefCount() != actual) {
+                        object.setRefCount(actual);
+                        storedObjectRepository.save(object);
+                    }
+                }));
+            }
+        } while (hashes.size() == GC_BATCH_SIZE);
+        
+        collectGarbage();
+    }
+
+    /**
+     * Deduplication savings: bytes attachments would occupy as separate copies vs bytes stored.
+     */
+    public Map<String, Object> getDedupReport() {
+        Object[] objects = storedObjectRepository.summarize().get(0);
+        Object[] attachments = attachmentRepository.summarizeContent().get(0);
+        
+        long storedBytes = ((Number) objects[1]).longValue();
+        long logicalBytes = ((Number) attachments[1]).longValue();
+        
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("attachments", ((Number) attachments[0]).longValue());
+        report.put("storedObjects", ((Number) objects[0]).longValue());
+        report.put("logicalBytes", logicalBytes);
+        report.put("storedBytes", storedBytes);
+        report.put("bytesSaved", Math.max(0, logicalBytes - storedBytes));
+        return report;
+    }
+
+    private void releaseOnRollback(String hash) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    // The caller's transaction is finished, so the decrement needs one of its own
+                    requiresNew.executeWithoutResult(tx -> storedObjectRepository.decrementRefCount(hash, LocalDateTime.now()));
+                }
+            }
+        });
+    }
+
+    // Attachments and their generated thumbnails both hold references
+    private long countReferences(String hash) {
+        return attachmentRepository.countByContentHash(hash) + attachmentThumbnailRepository.countByContentHash(hash);
+    }
+
+    private Long collect(String hash) {
+        return requiresNew.execute(status -> storedObjectRepository.findByIdForUpdate(hash)
+                .filter(object -> object.getRefCount() <= 0)
+                .map(object -> {
+                    // Never trust a zero count over a row that still points here
+                    long actual = countReferences(hash);
+                    if (actual > 0) {
+                        object.setRefCount(actual);
+                        storedObjectRepository.save(object);
+                        return null;
+                    }
+                    
+                    // Still under the row lock: an upload waiting on it finds no row and
+                    // commits the content again
+                    storedObjectRepository.delete(object);
+                    try {
+                        contentStore.delete(hash);
+                    } catch (IOException ex) {
+                        logger.error("Could not delete stored object {}: {}", hash, ex.getMessage());
+                    }
+                    return object.getSize();
+                })
+                .orElse(null));
+    }
+}
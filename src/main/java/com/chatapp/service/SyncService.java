@@ -0,0 +1,173 @@
+package com.chatapp.service;
+
+import com.chatapp.model.MessageChange;
+import com.chatapp.model.dto.MessageDto;
+import com.chatapp.model.dto.SyncRequest;
+import com.chatapp.model.dto.SyncResponseDto;
+import com.chatapp.repository.MessageChangeRepository;
+import com.chatapp.repository.MessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * Delta sync for reconnecting clients. For each chat the client sends the last sequence
+ * it has seen and gets back the new messages and the edit/delete change records after it,
+ * merged in sequence order, for all requested chats in one round trip.
+ * <p>
+ * Sequence numbers are assigned before the writing transaction commits, so a higher
+ * sequence can become visible before a lower one. Each chat is therefore only read up to
+ * the {@link MessageSequencer#committedThrough committed watermark}, and {@code syncedTo}
+ * never moves past a sequence that might still be in flight. Live clients receive those
+ * records over the websocket anyway.
+ */
+@Service
+public class SyncService {
+
+    private static final int MAX_LIMIT = 500;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MessageChangeRepository messageChangeRepository;
+
+    @Autowired
+    private MessageReadModel messageReadModel;
+
+    @Autowired
+    private ChatMembershipCache membershipCache;
+
+    @Autowired
+    private MessageSequencer messageSequencer;
+
+    @Value("${chatapp.sync.default-limit:200}")
+    private int defaultLimit;
+
+    /**
+     * Sync the chats in the request. Chats the user is not a member of are left out of the response.
+     */
+    @Transactional(readOnly = true)
+    public SyncResponseDto sync(SyncRequest request, Long userId) {
+        int limit = request.getLimit() != null
+                ? Math.max(1, Math.min(request.getLimit(), MAX_LIMIT))
+                : defaultLimit;
+        
+        Map<Long, Long> positions = request.getChats() != null ? request.getChats() : Collections.emptyMap();
+        List<ChatDelta> deltas = new ArrayList<>();
+        Set<Long> messageIds = new HashSet<>();
+        
+        for (Map.Entry<Long, Long> position : positions.entrySet()) {
+            Long chatId = position.getKey();
+            if (!membershipCache.contains(chatId, userId)) {
+                continue;
+            }
+            
+            ChatDelta delta = collect(chatId, position.getValue() != null ? position.getValue() : 0L, limit);
+            delta.entries.forEach(entry -> messageIds.add(entry.messageId));
+            deltas.add(delta);
+        }
+        
+        // One batched read for every message referenced by any chat in the response
+        Map<Long, MessageDto> messagesById = messageReadModel.findByIds(messageIds, userId);
+        
+        List<SyncResponseDto.ChatSync> chats = new ArrayList<>(deltas.size());
+        for (ChatDelta delta : deltas) {
+            List<MessageDto> messages = new ArrayList<>();
+            List<SyncResponseDto.Change> changes = new ArrayList<>();
+            
+            for (Entry entry : delta.entries) {
+                if (entry.changeType == null) {
+                    MessageDto message = messagesById.get(entry.messageId);
+                    // Deleted since; its DELETED record follows later in the sequence
+                    if (message != null) {
+                        messages.add(message);
+                    }
+                } else {
+                    changes.add(SyncResponseDto.Change.builder()
+                            .sequence(entry.sequence)
+                            .type(entry.changeType.name())
+                            .messageId(entry.messageId)
+                            .message(entry.changeType == MessageChange.ChangeType.EDITED
+                                    ? messagesById.get(entry.messageId)
+                                    : null)
+                            .build());
+                }
+            }
+            
+            chats.add(SyncResponseDto.ChatSync.builder()
+                    .chatId(delta.chatId)
+                    .messages(messages)
+                    .changes(changes)
+                    .syncedTo(delta.syncedTo)
+                    .hasMore(delta.hasMore)
+                    .build());
+        }
+        
+        return new SyncResponseDto(chats);
+    }
+
+    private ChatDelta collect(Long chatId, long after, int limit) {
+        // Read the watermark first: everything at or below it has committed or will never exist
+        long upTo = messageSequencer.committedThrough(chatId);
+        
+        // Fetching limit + 1 from each source is enough to know the first limit + 1 of the merge
+        PageRequest page = PageRequest.of(0, limit + 1);
+        
+        List<Entry> merged = new ArrayList<>();
+        for (Object[] row : messageRepository.findSequenceRowsBetween(chatId, after, upTo, page)) {
+            merged.add(new Entry((Long) row[1], (Long) row[0], null));
+        }
+        for (MessageChange change : messageChangeRepository.findBetween(chatId, after, upTo, page)) {
+            merged.add(new Entry(change.getSequence(), change.getMessageId(), change.getType()));
+        }
+        merged.sort(Comparator.comparingLong(entry -> entry.sequence));
+        
+        ChatDelta delta = new ChatDelta(chatId, after);
+        for (Entry entry : merged) {
+            if (delta.entries.size() == limit) {
+                delta.hasMore = true;
+                break;
+            }
+            
+            delta.entries.add(entry);
+            delta.syncedTo = entry.sequence;
+        }
+        
+        // Nothing else exists up to the watermark, so the client can skip gaps left by rejected writes
+        if (!delta.hasMore) {
+            delta.syncedTo = Math.max(delta.syncedTo, upTo);
+        }
+        
+        return delta;
+    }
+
+    private static class ChatDelta {
+        private final Long chatId;
+        private final List<Entry> entries = new ArrayList<>();
+        private long syncedTo;
+        private boolean hasMore;
+
+        ChatDelta(Long chatId, long after) {
+            this.chatId = chatId;
+            this.syncedTo = after;
+        }
+    }
+
+    private static class Entry {
+        private final long sequence;
+        private final Long messageId;
+        // Null for a new message
+        private final MessageChange.ChangeType changeType;
+
+        Entry(long sequence, Long messageId, MessageChange.ChangeType changeType) {
+            this.sequence = sequence;
+            this.messageId = messageId;
+            this.changeType = changeType;
+        }
+    }
+}
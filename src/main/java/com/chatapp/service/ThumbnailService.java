@@ -0,0 +1,356 @@
+package com.chatapp.service;
+
+import com.chatapp.model.Attachment;
+import com.chatapp.model.AttachmentThumbnail;
+import com.chatapp.model.ThumbnailJob;
+import com.chatapp.repository.AttachmentRepository;
+import com.chatapp.repository.AttachmentThumbnailRepository;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.repository.ThumbnailJobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Background generation of image thumbnails with plain JDK ImageIO.
+ * <p>
+ * Uploads of {@link Attachment.AttachmentType#IMAGE} enqueue a persisted {@link ThumbnailJob};
+ * a small bounded worker pool renders one thumbnail per configured size into the content
+ * store, fills in {@code Attachment.thumbnailUrl} and pushes the outcome to the chats the
+ * attachment was posted in on {@code /topic/chat/{chatId}/attachments}. Jobs the pool cannot
+ * take right away, or that were interrupted by a restart, are picked up by a periodic poll.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    private static final int POLL_BATCH_SIZE = 50;
+
+    @Autowired
+    private ThumbnailJobRepository thumbnailJobRepository;
+
+    @Autowired
+    private AttachmentThumbnailRepository attachmentThumbnailRepository;
+
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private StoredObjectService storedObjectService;
+
+    @Autowired
+    private SimpMessageSendingOperations messagingTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${chatapp.thumbnails.workers:2}")
+    private int workers;
+
+    @Value("${chatapp.thumbnails.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${chatapp.thumbnails.sizes:160,480}")
+    private int[] sizes;
+
+    @Value("${chatapp.thumbnails.max-attempts:3}")
+    private int maxAttempts;
+
+    // Refuse to decode images larger than this many pixels
+    @Value("${chatapp.thumbnails.max-source-pixels:40000000}")
+    private long maxSourcePixels;
+
+    private ThreadPoolExecutor executor;
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void start() {
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        Arrays.sort(sizes);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queue thumbnail generation for an image attachment once the current transaction commits.
+     */
+    public void enqueue(Attachment attachment) {
+        if (attachment.getType() != Attachment.AttachmentType.IMAGE) {
+            return;
+        }
+        
+        ThumbnailJob job = thumbnailJobRepository.save(ThumbnailJob.builder()
+                .attachmentId(attachment.getId())
+                .status(ThumbnailJob.JobStatus.PENDING)
+                .build());
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dispatch(job.getId());
+                }
+            });
+        } else {
+            dispatch(job.getId());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        int reset = transactionTemplate.execute(status -> thumbnailJobRepository.resetRunning());
+        if (reset > 0) {
+            logger.info("Re-queued {} interrupted thumbnail jobs", reset);
+        }
+        pollPending();
+    }
+
+    /**
+     * Hand pending jobs to the pool while it has room. Jobs stay PENDING in the
+     * database until a worker claims them, so nothing is lost when the queue is full.
+     */
+    @Scheduled(fixedDelayString = "${chatapp.thumbnails.poll-interval-ms:30000}")
+    public void pollPending() {
+        int room = executor.getQueue().remainingCapacity();
+        if (room == 0) {
+            return;
+        }
+        
+        thumbnailJobRepository.findByStatusOrderByIdAsc(ThumbnailJob.JobStatus.PENDING,
+                        PageRequest.of(0, Math.min(room, POLL_BATCH_SIZE)))
+                .forEach(job -> dispatch(job.getId()));
+    }
+
+    public List<AttachmentThumbnail> getThumbnails(Long attachmentId) {
+        return attachmentThumbnailRepository.findByAttachmentIdOrderByMaxDimensionAsc(attachmentId);
+    }
+
+    /**
+     * Remove the thumbnails of an attachment and release their stored content.
+     */
+    public void deleteThumbnails(Long attachmentId) {
+        List<AttachmentThumbnail> thumbnails = getThumbnails(attachmentId);
+        if (thumbnails.isEmpty()) {
+            return;
+        }
+        
+        attachmentThumbnailRepository.deleteAll(thumbnails);
+        // Flush so regenerated rows do not collide with the unique (attachment, size) key
+        attachmentThumbnailRepository.flush();
+        thumbnails.forEach(thumbnail -> storedObjectService.release(thumbnail.getContentHash()));
+    }
+
+    private void dispatch(Long jobId) {
+        try {
+            executor.execute(() -> run(jobId));
+        } catch (RejectedExecutionException ex) {
+            logger.debug("Thumbnail pool busy, job {} left pending", jobId);
+        }
+    }
+
+    private void run(Long jobId) {
+        Integer claimed = transactionTemplate.execute(status -> thumbnailJobRepository.claim(jobId));
+        if (claimed == null || claimed == 0) {
+            return;
+        }
+        
+        ThumbnailJob job = thumbnailJobRepository.findById(jobId).orElse(null);
+        if (job == null) {
+            return;
+        }
+        
+        try {
+            Attachment attachment = attachmentRepository.findById(job.getAttachmentId())
+                    .orElseThrow(() -> new IllegalStateException("Attachment " + job.getAttachmentId() + " no longer exists"));
+            
+            List<RenderedThumbnail> rendered = render(attachment);
+            
+            // Storing the thumbnails takes references that are given back if the rows below are not saved
+            transactionTemplate.executeWithoutResult(status -> {
+                List<AttachmentThumbnail> thumbnails = store(rendered);
+                deleteThumbnails(attachment.getId());
+                attachmentThumbnailRepository.saveAll(thumbnails);
+                
+                attachment.setThumbnailUrl("/api/attachments/" + attachment.getId() + "/thumbnail");
+                attachmentRepository.save(attachment);
+                
+                job.setStatus(ThumbnailJob.JobStatus.DONE);
+                job.setError(null);
+                thumbnailJobRepository.save(job);
+            });
+            
+            publish(attachment, ThumbnailJob.JobStatus.DONE, attachment.getThumbnailUrl());
+        } catch (Exception ex) {
+            logger.warn("Thumbnail job {} failed (attempt {}): {}", jobId, job.getAttempts(), ex.getMessage());
+            
+            boolean exhausted = job.getAttempts() >= maxAttempts;
+            job.setStatus(exhausted ? ThumbnailJob.JobStatus.FAILED : ThumbnailJob.JobStatus.PENDING);
+            job.setError(ex.getMessage());
+            transactionTemplate.executeWithoutResult(status -> thumbnailJobRepository.save(job));
+            
+            if (exhausted) {
+                attachmentRepository.findById(job.getAttachmentId())
+                        .ifPresent(attachment -> publish(attachment, ThumbnailJob.JobStatus.FAILED, null));
+            }
+        }
+    }
+
+    private List<RenderedThumbnail> render(Attachment attachment) throws IOException {
+        BufferedImage source = read(attachment);
+        boolean alpha = source.getColorModel().hasAlpha();
+        String format = alpha ? "png" : "jpg";
+        
+        List<RenderedThumbnail> rendered = new ArrayList<>();
+        for (int size : sizes) {
+            BufferedImage scaled = scale(source, size, alpha);
+            
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (!ImageIO.write(scaled, format, out)) {
+                throw new IOException("No ImageIO writer for " + format);
+            }
+            
+            rendered.add(new RenderedThumbnail(AttachmentThumbnail.builder()
+                    .attachmentId(attachment.getId())
+                    .maxDimension(size)
+                    .width(scaled.getWidth())
+                    .height(scaled.getHeight())
+                    .fileType(alpha ? "image/png" : "image/jpeg")
+                    .build(), out.toByteArray()));
+        }
+        
+        return rendered;
+    }
+
+    /**
+     * Put rendered thumbnails into the content store. Runs inside the transaction that saves
+     * their rows, so a failed save releases the references taken here.
+     */
+    private List<AttachmentThumbnail> store(List<RenderedThumbnail> rendered) {
+        List<AttachmentThumbnail> thumbnails = new ArrayList<>(rendered.size());
+        for (RenderedThumbnail thumbnail : rendered) {
+            try {
+                ContentStore.StoredContent content = storedObjectService.store(new ByteArrayInputStream(thumbnail.bytes));
+                thumbnail.thumbnail.setContentHash(content.getHash());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            thumbnails.add(thumbnail.thumbnail);
+        }
+        
+        return thumbnails;
+    }
+
+    private BufferedImage read(Attachment attachment) throws IOException {
+        try (InputStream input = contentStore.load(attachment.getContentHash()).getInputStream();
+             ImageInputStream imageInput = ImageIO.createImageInputStream(input)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + attachment.getFileType());
+            }
+            
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInput, true, true);
+                
+                // Check dimensions from the header before decoding any pixels
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxSourcePixels) {
+                    throw new IOException("Image too large to thumbnail: " + pixels + " pixels");
+                }
+                
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage source, int maxDimension, boolean alpha) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        double ratio = Math.min(1.0, (double) maxDimension / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(height * ratio));
+        
+        BufferedImage target = new BufferedImage(targetWidth, targetHeight,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.drawImage(source, 0, 0, targetWidth, targetHeight, null);
+        } finally {
+            graphics.dispose();
+        }
+        
+        return target;
+    }
+
+    private void publish(Attachment attachment, ThumbnailJob.JobStatus status, String thumbnailUrl) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("attachmentId", attachment.getId());
+        event.put("status", status.name());
+        event.put("thumbnailUrl", thumbnailUrl);
+        
+        for (Object[] row : messageRepository.findMessageAndChatIdsByAttachmentId(attachment.getId())) {
+            Map<String, Object> chatEvent = new HashMap<>(event);
+            chatEvent.put("messageId", row[0]);
+            messagingTemplate.convertAndSend("/topic/chat/" + row[1] + "/attachments", chatEvent);
+        }
+    }
+
+    private static class RenderedThumbnail {
+        private final AttachmentThumbnail thumbnail;
+        private final byte[] bytes;
+
+        RenderedThumbnail(AttachmentThumbnail thumbnail, byte[] bytes) {
+            this.thumbnail = thumbnail;
+            this.bytes = bytes;
+        }
+    }
+}
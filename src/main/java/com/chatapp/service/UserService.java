@@ -26,6 +26,9 @@ public class UserService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private PresenceInterestGraph interestGraph;
+
     private final Path fileStorageLocation = Paths.get("uploads/profile-pictures").toAbsolutePath().normalize();
     private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
@@ -87,6 +90,18 @@ public class UserService {
         userRepository.save(user);
     }
 
+    /**
+     * Bulk status update for a batch of users, optionally stamping lastActive as well.
+     */
+    @Transactional
+    public void updateStatuses(Collection<Long> ids, String status, boolean touchLastActive) {
+        if (touchLastActive) {
+            userRepository.updateStatusAndLastActiveByIdIn(ids, status, LocalDateTime.now());
+        } else {
+            userRepository.updateStatusByIdIn(ids, status);
+        }
+    }
+
     @Transactional
     public String uploadProfilePicture(Long id, MultipartFile file) {
         User user = findById(id);
@@ -121,6 +136,8 @@ public class UserService {
         
         user.getContacts().add(contact);
         userRepository.save(user);
+        // The user starts or stops watching the contact's presence
+        interestGraph.invalidate(contactId);
     }
 
     @Transactional
@@ -130,6 +147,7 @@ public class UserService {
         
         user.getContacts().remove(contact);
         userRepository.save(user);
+        interestGraph.invalidate(contactId);
     }
 
     @Transactional
@@ -0,0 +1,339 @@
+package com.chatapp.websocket;
+
+import com.chatapp.security.UserDetailsImpl;
+import com.chatapp.service.ChatMembershipCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.security.Principal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Authorizes SUBSCRIBE and SEND frames on chat destinations and revokes subscriptions
+ * when a user leaves a chat.
+ * <p>
+ * {@code /topic/chat/{chatId}/**} subscriptions and {@code /app/chat/{chatId}/**} sends are
+ * only let through for members of the chat, checked against {@link ChatMembershipCache}.
+ * Frames that fail the check are dropped rather than answered with an ERROR frame, which
+ * would take down the client's whole connection. Client subscriptions to the cluster's
+ * internal topics are dropped as well, and so are subscriptions to broker destinations
+ * containing pattern characters: the simple broker matches Ant patterns and Artemis its
+ * own wildcards, either of which would reach chats without passing the membership check.
+ * <p>
+ * Accepted chat subscriptions are tracked per chat, so that removing a member or deleting
+ * a chat unsubscribes the affected sessions at the broker once the change commits.
+ * <p>
+ * In cluster mode, revocation is limited to sessions connected to the node that made the
+ * change. Sessions of the same user on other nodes keep their subscriptions until they
+ * disconnect; their next SUBSCRIBE or SEND is checked against the shared database again.
+ */
+@Component
+public class ChatDestinationGuard implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatDestinationGuard.class);
+
+    private static final String CHAT_TOPIC_PREFIX = "/topic/chat/";
+    private static final String CHAT_APP_PREFIX = "/app/chat/";
+    private static final String CLUSTER_TOPIC_PREFIX = "/topic/cluster.";
+
+    // User destinations are resolved to /queue destinations, patterns included
+    private static final String[] BROKER_PREFIXES = {"/topic", "/queue", "/user"};
+    private static final String PATTERN_CHARS = "*?{#";
+
+    @Autowired
+    private ChatMembershipCache membershipCache;
+
+    // Lazy: the broker channel is defined by the configuration this guard is registered with
+    @Autowired
+    @Lazy
+    @Qualifier("brokerChannel")
+    private MessageChannel brokerChannel;
+
+    // chatId -> sessionId -> subscriptions of that session to the chat's destinations
+    private final Map<Long, Map<String, ChatSubscriptions>> subscriptions = new ConcurrentHashMap<>();
+
+    // sessionId -> (subscriptionId -> chatId), to clean up on UNSUBSCRIBE and DISCONNECT
+    private final Map<String, Map<String, Long>> sessionSubscriptions = new ConcurrentHashMap<>();
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder deniedSubscribes = new LongAdder();
+    private final LongAdder deniedSends = new LongAdder();
+    private final LongAdder revoked = new LongAdder();
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message;
+        }
+
+        switch (accessor.getCommand()) {
+            case SUBSCRIBE:
+                return authorizeSubscribe(message, accessor);
+            case SEND:
+                return authorizeSend(message, accessor);
+            case UNSUBSCRIBE:
+                forgetSubscription(accessor.getSessionId(), accessor.getSubscriptionId());
+                return message;
+            case DISCONNECT:
+                forgetSession(accessor.getSessionId());
+                return message;
+            default:
+                return message;
+        }
+    }
+
+    /**
+     * Unsubscribe the user's sessions from the chat once the current transaction commits.
+     */
+    public void revokeMember(Long chatId, Long userId) {
+        afterCommit(() -> revoke(chatId, userId));
+    }
+
+    /**
+     * Unsubscribe every session from a deleted chat once the current transaction commits.
+     */
+    public void revokeChat(Long chatId) {
+        afterCommit(() -> revoke(chatId, null));
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("trackedChats", subscriptions.size());
+        metrics.put("trackedSessions", sessionSubscriptions.size());
+        metrics.put("checked", checked.sum());
+        metrics.put("deniedSubscribes", deniedSubscribes.sum());
+        metrics.put("deniedSends", deniedSends.sum());
+        metrics.put("revokedSubscriptions", revoked.sum());
+        return metrics;
+    }
+
+    private Message<?> authorizeSubscribe(Message<?> message, StompHeaderAccessor accessor) {
+        String destination = accessor.getDestination();
+        if (destination == null) {
+            return message;
+        }
+        return admitSubscription(accessor.getSessionId(), accessor.getSubscriptionId(), destination,
+                accessor.getUser()) ? message : null;
+    }
+
+    /**
+     * Checks a subscription as if the client had sent SUBSCRIBE, and tracks it if accepted.
+     * Used for subscriptions restored on behalf of a resumed session.
+     */
+    public boolean admitSubscription(String sessionId, String subscriptionId, String destination, Principal user) {
+        if (destination.startsWith(CLUSTER_TOPIC_PREFIX) || isBrokerPattern(destination)) {
+            deniedSubscribes.increment();
+            logger.debug("Dropped subscription to {}", destination);
+            return false;
+        }
+
+        if (!destination.startsWith(CHAT_TOPIC_PREFIX)) {
+            return true;
+        }
+        long chatId = chatIdOf(destination, CHAT_TOPIC_PREFIX);
+        if (chatId < 0) {
+            deniedSubscribes.increment();
+            logger.debug("Dropped subscription to {}", destination);
+            return false;
+        }
+
+        Long userId = userIdOf(user);
+        if (!isMember(chatId, userId)) {
+            deniedSubscribes.increment();
+            logger.debug("Dropped subscription of user {} to {}", userId, destination);
+            return false;
+        }
+
+        if (sessionId != null && subscriptionId != null) {
+            subscriptions.computeIfAbsent(chatId, id -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(sessionId, id -> new ChatSubscriptions(userId, user))
+                    .ids.add(subscriptionId);
+            sessionSubscriptions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                    .put(subscriptionId, chatId);
+        }
+        return true;
+    }
+
+    private Message<?> authorizeSend(Message<?> message, StompHeaderAccessor accessor) {
+        String destination = accessor.getDestination();
+        long chatId = destination != null ? chatIdOf(destination, CHAT_APP_PREFIX) : -1;
+        if (chatId < 0) {
+            return message;
+        }
+
+        Long userId = userIdOf(accessor.getUser());
+        if (!isMember(chatId, userId)) {
+            deniedSends.increment();
+            logger.debug("Dropped send of user {} to {}", userId, destination);
+            return null;
+        }
+        return message;
+    }
+
+    private boolean isMember(long chatId, Long userId) {
+        checked.increment();
+        return userId != null && membershipCache.contains(chatId, userId);
+    }
+
+    private void revoke(Long chatId, Long userId) {
+        Map<String, ChatSubscriptions> sessions = subscriptions.get(chatId);
+        if (sessions == null) {
+            return;
+        }
+
+        for (Map.Entry<String, ChatSubscriptions> entry : new ArrayList<>(sessions.entrySet())) {
+            ChatSubscriptions chatSubscriptions = entry.getValue();
+            if (userId != null && !userId.equals(chatSubscriptions.userId)) {
+                continue;
+            }
+
+            String sessionId = entry.getKey();
+            sessions.remove(sessionId);
+            Map<String, Long> bySession = sessionSubscriptions.get(sessionId);
+            for (String subscriptionId : chatSubscriptions.ids) {
+                if (bySession != null) {
+                    bySession.remove(subscriptionId);
+                }
+                unsubscribe(sessionId, subscriptionId, chatSubscriptions.user);
+                revoked.increment();
+            }
+        }
+        if (sessions.isEmpty()) {
+            subscriptions.remove(chatId, sessions);
+        }
+    }
+
+    /**
+     * Removes the subscription from the broker, as if the client had sent UNSUBSCRIBE.
+     */
+    private void unsubscribe(String sessionId, String subscriptionId, Principal user) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setUser(user);
+        brokerChannel.send(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private void forgetSubscription(String sessionId, String subscriptionId) {
+        Map<String, Long> bySession = sessionId != null ? sessionSubscriptions.get(sessionId) : null;
+        Long chatId = bySession != null && subscriptionId != null ? bySession.remove(subscriptionId) : null;
+        if (chatId == null) {
+            return;
+        }
+
+        Map<String, ChatSubscriptions> sessions = subscriptions.get(chatId);
+        ChatSubscriptions chatSubscriptions = sessions != null ? sessions.get(sessionId) : null;
+        if (chatSubscriptions != null) {
+            chatSubscriptions.ids.remove(subscriptionId);
+            if (chatSubscriptions.ids.isEmpty()) {
+                sessions.remove(sessionId);
+            }
+        }
+    }
+
+    private void forgetSession(String sessionId) {
+        Map<String, Long> bySession = sessionId != null ? sessionSubscriptions.remove(sessionId) : null;
+        if (bySession == null) {
+            return;
+        }
+        for (Long chatId : new HashSet<>(bySession.values())) {
+            Map<String, ChatSubscriptions> sessions = subscriptions.get(chatId);
+            if (sessions != null) {
+                sessions.remove(sessionId);
+                if (sessions.isEmpty()) {
+                    subscriptions.remove(chatId, sessions);
+                }
+            }
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Whether the destination is one the broker would treat as a pattern rather than a
+     * single destination.
+     */
+    static boolean isBrokerPattern(String destination) {
+        boolean brokerDestination = false;
+        for (String prefix : BROKER_PREFIXES) {
+            brokerDestination |= destination.startsWith(prefix);
+        }
+        if (!brokerDestination) {
+            return false;
+        }
+        for (int i = 0; i < destination.length(); i++) {
+            if (PATTERN_CHARS.indexOf(destination.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the chat id following the prefix, e.g. 42 in {@code /topic/chat/42/typing},
+     * or returns -1 if the destination is not a chat destination.
+     */
+    static long chatIdOf(String destination, String prefix) {
+        if (!destination.startsWith(prefix)) {
+            return -1;
+        }
+        long chatId = 0;
+        int i = prefix.length();
+        int digits = 0;
+        for (; i < destination.length() && destination.charAt(i) != '/'; i++, digits++) {
+            char c = destination.charAt(i);
+            if (c < '0' || c > '9' || digits >= 18) {
+                return -1;
+            }
+            chatId = chatId * 10 + (c - '0');
+        }
+        return digits > 0 ? chatId : -1;
+    }
+
+    private static Long userIdOf(Principal user) {
+        if (user instanceof Authentication && ((Authentication) user).getPrincipal() instanceof UserDetailsImpl) {
+            return ((UserDetailsImpl) ((Authentication) user).getPrincipal()).getId();
+        }
+        return null;
+    }
+
+    private static class ChatSubscriptions {
+        private final Long userId;
+        private final Principal user;
+        private final Set<String> ids = ConcurrentHashMap.newKeySet();
+
+        ChatSubscriptions(Long userId, Principal user) {
+            this.userId = userId;
+            this.user = user;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.chatapp.websocket;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.StompSubProtocolErrorHandler;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Paces CONNECT frames so a reconnect storm is admitted at a steady rate instead of all at once.
+ * <p>
+ * CONNECTs take a token from a bucket refilled at {@code rate-per-second} and holding at most
+ * {@code burst}. A CONNECT finding the bucket empty is answered with an ERROR frame carrying a
+ * {@code retry-after-ms} header. The retry delays are spread at random over the time it takes
+ * to admit everyone turned away so far, so the rejected clients come back at about the rate
+ * they can be admitted rather than together.
+ * <p>
+ * Sessions resumed with a resume token skip the bucket, as they cost neither a token check
+ * nor a resync (see {@link SessionResumption}).
+ */
+@Component
+public class ConnectAdmission {
+
+    public static final String RETRY_AFTER_HEADER = "retry-after-ms";
+
+    @Value("${chatapp.websocket.connect.rate-per-second:200}")
+    private double ratePerSecond;
+
+    @Value("${chatapp.websocket.connect.burst:400}")
+    private int burst;
+
+    @Value("${chatapp.websocket.reconnect.min-delay-ms:1000}")
+    private long minDelayMs;
+
+    @Value("${chatapp.websocket.reconnect.max-delay-ms:30000}")
+    private long maxDelayMs;
+
+    // Guarded by this
+    private double tokens;
+    private double waiting;
+    private long refilledAt;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        tokens = burst;
+        refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Takes a token for a CONNECT.
+     *
+     * @throws ConnectThrottledException if the bucket is empty
+     */
+    public void admit() {
+        long retryAfterMs = acquire();
+        if (retryAfterMs > 0) {
+            throttled.increment();
+            throw new ConnectThrottledException(retryAfterMs);
+        }
+        admitted.increment();
+    }
+
+    /**
+     * Delays for clients to pick a reconnect delay from at random after losing their
+     * connection, wide enough to reconnect this node's sessions at the admission rate.
+     */
+    public Map<String, Object> reconnectHint(int sessions) {
+        long spread = (long) (sessions * 1000 / ratePerSecond);
+
+        Map<String, Object> hint = new LinkedHashMap<>();
+        hint.put("minDelayMs", minDelayMs);
+        hint.put("maxDelayMs", Math.min(maxDelayMs, minDelayMs + Math.max(spread, 1000)));
+        return hint;
+    }
+
+    /**
+     * Adds the retry hint to the ERROR frame sent for a throttled CONNECT.
+     */
+    public StompSubProtocolErrorHandler errorHandler() {
+        return new StompSubProtocolErrorHandler() {
+            @Override
+            protected Message<byte[]> handleInternal(StompHeaderAccessor errorHeaderAccessor, byte[] errorPayload,
+                                                     Throwable cause, StompHeaderAccessor clientHeaderAccessor) {
+                for (Throwable ex = cause; ex != null; ex = ex.getCause()) {
+                    if (ex instanceof ConnectThrottledException) {
+                        errorHeaderAccessor.setNativeHeader(RETRY_AFTER_HEADER,
+                                String.valueOf(((ConnectThrottledException) ex).getRetryAfterMs()));
+                        break;
+                    }
+                }
+                return super.handleInternal(errorHeaderAccessor, errorPayload, cause, clientHeaderAccessor);
+            }
+        };
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("ratePerSecond", ratePerSecond);
+        metrics.put("burst", burst);
+        synchronized (this) {
+            metrics.put("availableTokens", (long) tokens);
+            metrics.put("waitingClients", (long) waiting);
+        }
+        metrics.put("admitted", admitted.sum());
+        metrics.put("throttled", throttled.sum());
+        return metrics;
+    }
+
+    /**
+     * Returns 0 if a token was taken, or how long the client should wait before retrying.
+     */
+    private synchronized long acquire() {
+        long now = System.nanoTime();
+        double refill = (now - refilledAt) / 1e9 * ratePerSecond;
+        refilledAt = now;
+        tokens = Math.min(burst, tokens + refill);
+        // Turned-away clients are assumed to take up the refilled tokens when they retry
+        waiting = Math.max(0, waiting - refill);
+
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+
+        waiting++;
+        long window = Math.min(maxDelayMs - minDelayMs, (long) (waiting * 1000 / ratePerSecond));
+        return minDelayMs + ThreadLocalRandom.current().nextLong(Math.max(window, 1) + 1);
+    }
+
+    /**
+     * Thrown from the inbound channel for a CONNECT that was not admitted.
+     */
+    public static class ConnectThrottledException extends MessagingException {
+        private final long retryAfterMs;
+
+        public ConnectThrottledException(long retryAfterMs) {
+            super("Server busy, retry in " + retryAfterMs + " ms");
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        public long getRetryAfterMs() {
+            return retryAfterMs;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.chatapp.websocket;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Hides the client's permessage-deflate offer on the native {@code /ws-raw} endpoint.
+ * <p>
+ * Browsers offer permessage-deflate on every websocket handshake and Tomcat accepts it on its
+ * own: it negotiates extensions from the request headers rather than from Spring's selection.
+ * Dropping the offer before the request reaches the upgrade strategy is the only way to turn
+ * it off for one endpoint.
+ */
+public class DeflateOfferFilter extends OncePerRequestFilter {
+
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        filterChain.doFilter(new WithoutDeflateOffer(request), response);
+    }
+
+    private static class WithoutDeflateOffer extends HttpServletRequestWrapper {
+
+        WithoutDeflateOffer(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if (!EXTENSIONS_HEADER.equalsIgnoreCase(name)) {
+                return super.getHeader(name);
+            }
+            List<String> values = Collections.list(getHeaders(name));
+            return values.isEmpty() ? null : String.join(",", values);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            if (!EXTENSIONS_HEADER.equalsIgnoreCase(name)) {
+                return super.getHeaders(name);
+            }
+            // Keep any other extension offers, drop permessage-deflate with its parameters
+            List<String> kept = new ArrayList<>();
+            for (String value : Collections.list(super.getHeaders(name))) {
+                for (String offer : value.split(",")) {
+                    String extension = offer.split(";")[0].trim();
+                    if (!extension.isEmpty() && !PERMESSAGE_DEFLATE.equalsIgnoreCase(extension)) {
+                        kept.add(offer.trim());
+                    }
+                }
+            }
+            return Collections.enumeration(kept);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.chatapp.websocket;
+
+import org.apache.activemq.artemis.core.config.Configuration;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * In-JVM Artemis broker with a STOMP acceptor that nodes in cluster mode can relay to.
+ * <p>
+ * Meant for development and for running several nodes on one machine: start one node
+ * with the embedded broker enabled and point every node's relay at it. Production
+ * deployments point the relay at a standalone STOMP broker instead. Messages are not
+ * persisted; {@code /topic/} destinations are multicast and {@code /queue/} destinations
+ * anycast, matching the simple broker's semantics.
+ */
+@Component
+public class EmbeddedStompBroker {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedStompBroker.class);
+
+    @Value("${chatapp.cluster.embedded-broker.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chatapp.cluster.embedded-broker.host:127.0.0.1}")
+    private String host;
+
+    @Value("${chatapp.cluster.embedded-broker.port:61613}")
+    private int port;
+
+    private EmbeddedActiveMQ broker;
+
+    @PostConstruct
+    public void start() throws Exception {
+        if (!enabled) {
+            return;
+        }
+        
+        Configuration configuration = new ConfigurationImpl()
+                .setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .addAcceptorConfiguration("stomp", "tcp://" + host + ":" + port
+                        + "?protocols=STOMP;multicastPrefix=/topic/;anycastPrefix=/queue/");
+        
+        broker = new EmbeddedActiveMQ();
+        broker.setConfiguration(configuration);
+        broker.start();
+        
+        logger.info("Embedded STOMP broker listening on {}:{}", host, port);
+    }
+
+    @PreDestroy
+    public void stop() throws Exception {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.chatapp.websocket;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Broadcasts a payload to many destinations while serializing it only once.
+ * <p>
+ * {@code convertAndSend} runs the JSON converter on every call, so sending the same
+ * message to a topic and to each of N users cost N + 1 serializations. Here the payload
+ * is encoded to a JSON byte array once into an immutable {@link EncodedPayload}; every
+ * send wraps that same array in a message with fresh headers and bypasses conversion.
+ * The broker then hands the same bytes to every subscribed session.
+ */
+@Component
+public class FanoutPublisher {
+
+    @Autowired
+    private SimpMessageSendingOperations messagingTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final LongAdder serializations = new LongAdder();
+    private final LongAdder sends = new LongAdder();
+    private final LongAdder serializedBytes = new LongAdder();
+
+    /**
+     * Serialize a payload for reuse across any number of sends.
+     */
+    public EncodedPayload encode(Object payload) {
+        try {
+            byte[] bytes = objectMapper.writeValueAsBytes(payload);
+            serializations.increment();
+            serializedBytes.add(bytes.length);
+            
+            // Plain immutable headers: the template copies them per send instead of mutating them
+            return new EncodedPayload(MessageBuilder.withPayload(bytes)
+                    .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON)
+                    .build());
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Could not serialize websocket payload", ex);
+        }
+    }
+
+    public void send(String destination, EncodedPayload payload) {
+        sends.increment();
+        messagingTemplate.send(destination, payload.message);
+    }
+
+    public void sendToUser(String username, String destination, EncodedPayload payload) {
+        sends.increment();
+        // Same encoding of the user name as convertAndSendToUser
+        messagingTemplate.send("/user/" + username.replace("/", "%2F") + destination, payload.message);
+    }
+
+    /**
+     * Serialization work per send: a ratio of 1 means nothing was shared,
+     * a fan-out to N destinations brings it down to 1/N.
+     */
+    public Map<String, Object> getMetrics() {
+        long encoded = serializations.sum();
+        long sent = sends.sum();
+        
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("serializations", encoded);
+        metrics.put("sends", sent);
+        // Sends served from an already encoded payload
+        metrics.put("reusedSends", Math.max(0, sent - encoded));
+        metrics.put("serializationsPerSend", sent > 0 ? (double) encoded / sent : 0.0);
+        metrics.put("serializedBytes", serializedBytes.sum());
+        return metrics;
+    }
+
+    /**
+     * Immutable pre-encoded message. The template copies the headers per destination,
+     * so one instance can be sent any number of times, from any thread.
+     */
+    public static final class EncodedPayload {
+        private final Message<byte[]> message;
+
+        private EncodedPayload(Message<byte[]> message) {
+            this.message = message;
+        }
+
+        public int size() {
+            return message.getPayload().length;
+        }
+    }
+}
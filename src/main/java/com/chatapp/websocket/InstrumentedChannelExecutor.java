@@ -0,0 +1,50 @@
+package com.chatapp.websocket;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread pool for a STOMP channel that records how long messages wait in its queue and
+ * how long handling them takes.
+ */
+public class InstrumentedChannelExecutor extends ThreadPoolTaskExecutor {
+
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+
+    public InstrumentedChannelExecutor() {
+        setTaskDecorator(task -> {
+            long queuedAt = System.nanoTime();
+            return () -> {
+                long startedAt = System.nanoTime();
+                queueWait.record(startedAt - queuedAt);
+                try {
+                    task.run();
+                } finally {
+                    runNanos.add(System.nanoTime() - startedAt);
+                    tasks.increment();
+                }
+            };
+        });
+    }
+
+    public Map<String, Object> getMetrics() {
+        long count = tasks.sum();
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        ThreadPoolExecutor executor = getThreadPoolExecutor();
+        metrics.put("poolSize", executor.getPoolSize());
+        metrics.put("activeThreads", executor.getActiveCount());
+        metrics.put("queueDepth", executor.getQueue().size());
+        metrics.put("queueRemainingCapacity", executor.getQueue().remainingCapacity());
+        metrics.put("tasks", count);
+        metrics.putAll(queueWait.toMetrics("QueueWait"));
+        metrics.put("avgRunMicros", count > 0 ? runNanos.sum() / 1000.0 / count : 0.0);
+        return metrics;
+    }
+}
@@ -0,0 +1,79 @@
+package com.chatapp.websocket;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency recorder with power-of-two microsecond buckets, so percentiles are
+ * reported with at most a factor of two error at constant memory.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+
+        long micros = nanos / 1000;
+        int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[bucket].increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Count, average, p50, p99 and max in microseconds, with keys prefixed by {@code name}.
+     */
+    public Map<String, Object> toMetrics(String name) {
+        long n = count.sum();
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("avg" + name + "Micros", n > 0 ? totalNanos.sum() / 1000.0 / n : 0.0);
+        metrics.put("p50" + name + "Micros", percentileMicros(0.50));
+        metrics.put("p99" + name + "Micros", percentileMicros(0.99));
+        metrics.put("max" + name + "Micros", maxNanos.get() / 1000);
+        return metrics;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile.
+     */
+    private long percentileMicros(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == 0 ? 1 : 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+}
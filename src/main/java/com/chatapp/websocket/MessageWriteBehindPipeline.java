@@ -0,0 +1,369 @@
+package com.chatapp.websocket;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.dto.MessageDto;
+import com.chatapp.model.dto.UserDto;
+import com.chatapp.repository.ChatRepository;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.repository.UserRepository;
+import com.chatapp.security.UserDetailsImpl;
+import com.chatapp.service.ChatMembershipCache;
+import com.chatapp.service.MailboxService;
+import com.chatapp.service.MessageSearchIndex;
+import com.chatapp.service.MessageSequencer;
+import com.chatapp.service.ReadCursorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind path for chat messages sent over the websocket.
+ * <p>
+ * A message is checked for content and against the membership cache, given the chat's
+ * next sequence number and broadcast straight away. The sequence stays open for delta sync until the
+ * message is stored, fails or is rejected. Persistence happens on a background writer that
+ * drains the bounded queue and stores each batch in one transaction. Message ids are
+ * database identity columns, so Hibernate still issues one INSERT per row; the gain is
+ * one commit per batch instead of per message. If a batch fails to commit, its messages
+ * are retried one transaction each so a single bad row only fails itself.
+ * <p>
+ * Delivery semantics: the broadcast on {@code /topic/chat/{chatId}} only means the message
+ * was accepted and carries no id yet. It is durable once its batch has committed, at which
+ * point the sender receives a {@code PERSISTED} ack on {@code /user/queue/acks} and the chat
+ * receives the sequence → id mapping on {@code /topic/chat/{chatId}/persisted}. If the queue
+ * stays full for longer than the offer timeout, or the message cannot be stored on its own
+ * either, a {@code FAILED} status is published to both instead. Read cursors and mailboxes are updated after the commit and never fail a message.
+ */
+@Component
+public class MessageWriteBehindPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageWriteBehindPipeline.class);
+
+    @Autowired
+    private SimpMessageSendingOperations messagingTemplate;
+
+    @Autowired
+    private FanoutPublisher fanoutPublisher;
+
+    @Autowired
+    private ChatMembershipCache membershipCache;
+
+    @Autowired
+    private MailboxService mailboxService;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Autowired
+    private MessageSequencer messageSequencer;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private ReadCursorService readCursorService;
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${chatapp.messaging.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chatapp.messaging.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${chatapp.messaging.write-behind.batch-size:200}")
+    private int batchSize;
+
+    @Value("${chatapp.messaging.write-behind.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    @Value("${chatapp.messaging.write-behind.offer-timeout-ms:100}")
+    private long offerTimeoutMs;
+
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private BlockingQueue<PendingMessage> queue;
+    private TransactionTemplate transactionTemplate;
+    private Thread writer;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        running = true;
+        
+        writer = new Thread(this::drainLoop, "message-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        
+        // Let the writer flush whatever is still queued before shutting down
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Accept, broadcast and enqueue a message for persistence.
+     *
+     * @return false if the message is blank, the sender is not a member or the queue applied backpressure
+     */
+    public boolean submit(Long chatId, MessageDto messageDto, UserDetailsImpl sender) {
+        // Checked before taking a sequence, as the row would fail validation after the broadcast
+        if (messageDto.getContent() == null || messageDto.getContent().isBlank()) {
+            logger.warn("Dropping blank message from user {} in chat {}", sender.getId(), chatId);
+            return false;
+        }
+        
+        if (!membershipCache.contains(chatId, sender.getId())) {
+            logger.error("User {} is not part of chat {}", sender.getId(), chatId);
+            return false;
+        }
+        
+        LocalDateTime createdAt = LocalDateTime.now();
+        
+        MessageDto accepted = new MessageDto();
+        accepted.setContent(messageDto.getContent());
+        accepted.setChatId(chatId);
+        accepted.setReplyToId(messageDto.getReplyToId());
+        accepted.setSender(toUserDto(sender));
+        accepted.setCreatedAt(createdAt.format(formatter));
+        
+        accepted.setSequence(messageSequencer.next(chatId));
+        
+        PendingMessage pending = new PendingMessage(chatId, sender, accepted, createdAt);
+        
+        // Broadcast before enqueueing, so the PERSISTED ack and mapping cannot overtake it
+        fanoutPublisher.send("/topic/chat/" + chatId, fanoutPublisher.encode(accepted));
+        
+        // Bounded wait when the writer falls behind; rejected messages leave a gap in the sequence
+        try {
+            if (!queue.offer(pending, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("Write-behind queue full, rejecting message from user {} in chat {}", sender.getId(), chatId);
+                reject(pending);
+                return false;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            reject(pending);
+            return false;
+        }
+        
+        return true;
+    }
+
+    public int getQueueDepth() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    private void drainLoop() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                persist(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException ex) {
+                // Storage failures are acked per message in persist; this is post-commit delivery
+                logger.error("Could not complete batch of {} messages: {}", batch.size(), ex.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void persist(List<PendingMessage> batch) {
+        List<Message> saved;
+        try {
+            saved = transactionTemplate.execute(status -> store(batch));
+        } catch (RuntimeException ex) {
+            logger.warn("Batch of {} messages failed to commit, retrying one by one: {}", batch.size(), ex.getMessage());
+            saved = new ArrayList<>(batch.size());
+            for (PendingMessage pending : batch) {
+                saved.add(storeAlone(pending));
+            }
+        }
+        
+        // Stored or failed for good, so delta sync may move past these sequences
+        batch.forEach(pending -> messageSequencer.settle(pending.chatId, pending.dto.getSequence()));
+        
+        // Committed: every stored message in the batch is now durable
+        Map<Long, List<Map<String, Object>>> persistedByChat = new HashMap<>();
+        Map<List<Long>, Long> newestBySender = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            PendingMessage pending = batch.get(i);
+            Message message = saved.get(i);
+            if (message == null) {
+                continue;
+            }
+            
+            Long messageId = message.getId();
+            sendAck(pending, "PERSISTED", messageId);
+            mailboxService.deliver(pending.chatId, messageId, presenceRegistry.offlineUsers(
+                    membershipCache.getMembers(pending.chatId).toArray(), pending.sender.getId()));
+            newestBySender.merge(Arrays.asList(pending.chatId, pending.sender.getId()), messageId, Math::max);
+            
+            Map<String, Object> mapping = new HashMap<>();
+            mapping.put("sequence", pending.dto.getSequence());
+            mapping.put("messageId", messageId);
+            persistedByChat.computeIfAbsent(pending.chatId, id -> new ArrayList<>()).add(mapping);
+        }
+        
+        // Senders have read their own messages; one cursor move per sender and chat
+        newestBySender.forEach((chatAndSender, messageId) -> {
+            try {
+                readCursorService.advance(chatAndSender.get(0), chatAndSender.get(1), messageId);
+            } catch (RuntimeException ex) {
+                logger.warn("Could not advance read cursor of user {} in chat {}: {}",
+                        chatAndSender.get(1), chatAndSender.get(0), ex.getMessage());
+            }
+        });
+        
+        persistedByChat.forEach((chatId, mappings) ->
+                messagingTemplate.convertAndSend("/topic/chat/" + chatId + "/persisted", mappings));
+    }
+
+    /**
+     * Store a single message in its own transaction after its batch failed.
+     *
+     * @return the stored message, or null once the sender has been told it FAILED
+     */
+    private Message storeAlone(PendingMessage pending) {
+        try {
+            return transactionTemplate.execute(status -> store(Collections.singletonList(pending)).get(0));
+        } catch (RuntimeException ex) {
+            logger.error("Could not persist message {} in chat {}: {}", pending.dto.getSequence(), pending.chatId, ex.getMessage());
+            sendAck(pending, "FAILED", null);
+            return null;
+        }
+    }
+
+    private List<Message> store(List<PendingMessage> pendingMessages) {
+        Set<Long> replyToIds = pendingMessages.stream()
+                .map(pending -> pending.dto.getReplyToId())
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Long, Message> repliesById = messageRepository.findAllById(replyToIds).stream()
+                .collect(Collectors.toMap(Message::getId, message -> message));
+        
+        List<Message> messages = new ArrayList<>(pendingMessages.size());
+        for (PendingMessage pending : pendingMessages) {
+            Message message = new Message();
+            message.setContent(pending.dto.getContent());
+            message.setSender(userRepository.getReferenceById(pending.sender.getId()));
+            message.setChat(chatRepository.getReferenceById(pending.chatId));
+            message.setSequence(pending.dto.getSequence());
+            message.setCreatedAt(pending.createdAt);
+            
+            if (pending.dto.getReplyToId() != null) {
+                message.setReplyTo(repliesById.get(pending.dto.getReplyToId()));
+            }
+            
+            messages.add(message);
+        }
+        
+        List<Message> result = messageRepository.saveAll(messages);
+        // Flush inside the transaction so constraint violations surface here, not at commit
+        messageRepository.flush();
+        
+        // Applied to the index only once the transaction commits
+        result.forEach(messageSearchIndex::index);
+        return result;
+    }
+
+    private void reject(PendingMessage pending) {
+        messageSequencer.settle(pending.chatId, pending.dto.getSequence());
+        // Already broadcast, so the chat is told as for a message that could not be stored
+        sendAck(pending, "FAILED", null);
+    }
+
+    private void sendAck(PendingMessage pending, String status, Long messageId) {
+        Map<String, Object> ack = new HashMap<>();
+        ack.put("chatId", pending.chatId);
+        ack.put("sequence", pending.dto.getSequence());
+        ack.put("messageId", messageId);
+        ack.put("status", status);
+        
+        messagingTemplate.convertAndSendToUser(pending.sender.getUsername(), "/queue/acks", ack);
+        
+        if ("FAILED".equals(status)) {
+            messagingTemplate.convertAndSend("/topic/chat/" + pending.chatId + "/persisted",
+                    Collections.singletonList(ack));
+        }
+    }
+
+    private UserDto toUserDto(UserDetailsImpl userDetails) {
+        UserDto dto = new UserDto();
+        dto.setId(userDetails.getId());
+        dto.setUsername(userDetails.getUsername());
+        dto.setEmail(userDetails.getEmail());
+        dto.setStatus("online");
+        dto.setRoles(userDetails.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .collect(Collectors.toSet()));
+        return dto;
+    }
+
+    private static class PendingMessage {
+        private final Long chatId;
+        private final UserDetailsImpl sender;
+        private final MessageDto dto;
+        private final LocalDateTime createdAt;
+
+        PendingMessage(Long chatId, UserDetailsImpl sender, MessageDto dto, LocalDateTime createdAt) {
+            this.chatId = chatId;
+            this.sender = sender;
+            this.dto = dto;
+            this.createdAt = createdAt;
+        }
+    }
+}
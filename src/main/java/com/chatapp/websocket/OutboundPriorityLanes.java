@@ -0,0 +1,258 @@
+package com.chatapp.websocket;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-session priority lanes on the outbound channel: chat messages before receipts,
+ * receipts before presence, presence before typing.
+ * <p>
+ * Each outbound MESSAGE frame is queued in its session's lane when it is sent to the channel,
+ * and the executor task that was created for it sends whichever frame of that session has the
+ * highest priority when it runs. A backlog of typing or presence frames therefore no longer
+ * delays chat messages queued behind it.
+ * <p>
+ * Lower lanes give way under pressure. A typing frame replaces a pending one for the same chat,
+ * since each carries the chat's full typing state. Once a session has more than
+ * {@code shed-typing-depth} frames pending, new typing frames are shed, and past
+ * {@code shed-presence-depth} presence digests are shed too. Messages and receipts are never
+ * shed here.
+ */
+@Component
+public class OutboundPriorityLanes implements ExecutorChannelInterceptor {
+
+    public enum Lane { MESSAGES, RECEIPTS, PRESENCE, TYPING }
+
+    @Value("${chatapp.websocket.lanes.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chatapp.websocket.lanes.shed-typing-depth:50}")
+    private int shedTypingDepth;
+
+    @Value("${chatapp.websocket.lanes.shed-presence-depth:200}")
+    private int shedPresenceDepth;
+
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    private final Map<Lane, LaneStats> stats = new EnumMap<>(Lane.class);
+
+    public OutboundPriorityLanes() {
+        for (Lane lane : Lane.values()) {
+            stats.put(lane, new LaneStats());
+        }
+    }
+
+    public static Lane laneOf(String destination) {
+        if (destination == null) {
+            return Lane.MESSAGES;
+        }
+        if (destination.endsWith("/typing")) {
+            return Lane.TYPING;
+        }
+        // User destinations arrive resolved, e.g. /queue/presence-user{sessionId}
+        if (destination.startsWith(PresenceDigestPublisher.PRESENCE_DESTINATION)) {
+            return Lane.PRESENCE;
+        }
+        if (destination.endsWith("/read") || destination.endsWith("/reactions")) {
+            return Lane.RECEIPTS;
+        }
+        return Lane.MESSAGES;
+    }
+
+    /**
+     * Queues the frame in its session's lane. Returns the frame as the placeholder for one
+     * executor task, or null when it was merged into a pending frame or shed.
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!enabled || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null) {
+            return message;
+        }
+
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        Lane lane = laneOf(destination);
+        LaneStats laneStats = stats.get(lane);
+
+        while (true) {
+            Outbox outbox = outboxes.computeIfAbsent(sessionId, id -> new Outbox());
+            synchronized (outbox) {
+                if (outbox.closed) {
+                    // Emptied and removed concurrently; start a new one
+                    continue;
+                }
+
+                if (lane == Lane.TYPING && outbox.replace(lane, destination, message)) {
+                    laneStats.coalesced.increment();
+                    return null;
+                }
+                if ((lane == Lane.TYPING && outbox.size >= shedTypingDepth)
+                        || (lane == Lane.PRESENCE && outbox.size >= shedPresenceDepth)) {
+                    laneStats.shed.increment();
+                    return null;
+                }
+
+                outbox.add(lane, new Pending(destination, message, System.nanoTime()));
+                laneStats.queued.increment();
+                return message;
+            }
+        }
+    }
+
+    /**
+     * Swaps the task's placeholder for the session's highest-priority pending frame.
+     */
+    @Override
+    public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+        if (!enabled || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        Outbox outbox = sessionId != null ? outboxes.get(sessionId) : null;
+        if (outbox == null) {
+            return null;
+        }
+
+        Pending next;
+        Lane lane;
+        synchronized (outbox) {
+            lane = outbox.highestPending();
+            if (lane == null) {
+                return null;
+            }
+            next = outbox.lanes.get(lane).pollFirst();
+            outbox.size--;
+            if (outbox.size == 0) {
+                outbox.closed = true;
+                outboxes.remove(sessionId, outbox);
+            }
+        }
+
+        LaneStats laneStats = stats.get(lane);
+        laneStats.sent.increment();
+        laneStats.wait.record(System.nanoTime() - next.queuedAt);
+        return next.message;
+    }
+
+    /**
+     * A frame whose task was rejected by the executor has no task left to send it; drop the
+     * session's lowest-priority pending frame so tasks and frames stay one to one.
+     */
+    @Override
+    public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+        if (!enabled || ex == null) {
+            return;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        Outbox outbox = sessionId != null ? outboxes.get(sessionId) : null;
+        if (outbox == null) {
+            return;
+        }
+
+        synchronized (outbox) {
+            for (int i = Lane.values().length - 1; i >= 0; i--) {
+                Lane lane = Lane.values()[i];
+                if (outbox.lanes.get(lane).pollLast() != null) {
+                    outbox.size--;
+                    stats.get(lane).shed.increment();
+                    break;
+                }
+            }
+            if (outbox.size == 0) {
+                outbox.closed = true;
+                outboxes.remove(sessionId, outbox);
+            }
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("sessionsWithBacklog", outboxes.size());
+        stats.forEach((lane, laneStats) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("queued", laneStats.queued.sum());
+            values.put("sent", laneStats.sent.sum());
+            values.put("coalesced", laneStats.coalesced.sum());
+            values.put("shed", laneStats.shed.sum());
+            values.putAll(laneStats.wait.toMetrics("Wait"));
+            metrics.put(lane.name().toLowerCase(), values);
+        });
+        return metrics;
+    }
+
+    private static class Pending {
+        private final String destination;
+        private Message<?> message;
+        private final long queuedAt;
+
+        Pending(String destination, Message<?> message, long queuedAt) {
+            this.destination = destination;
+            this.message = message;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    /**
+     * Pending frames of one session, one FIFO per lane. Guarded by its own monitor.
+     */
+    private static class Outbox {
+        private final EnumMap<Lane, ArrayDeque<Pending>> lanes = new EnumMap<>(Lane.class);
+        private int size;
+        private boolean closed;
+
+        Outbox() {
+            for (Lane lane : Lane.values()) {
+                lanes.put(lane, new ArrayDeque<>());
+            }
+        }
+
+        void add(Lane lane, Pending pending) {
+            lanes.get(lane).addLast(pending);
+            size++;
+        }
+
+        /**
+         * Replaces the payload of a pending frame for the same destination, keeping its place.
+         */
+        boolean replace(Lane lane, String destination, Message<?> message) {
+            for (Pending pending : lanes.get(lane)) {
+                if (Objects.equals(pending.destination, destination)) {
+                    pending.message = message;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Lane highestPending() {
+            for (Lane lane : Lane.values()) {
+                if (!lanes.get(lane).isEmpty()) {
+                    return lane;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class LaneStats {
+        final LongAdder queued = new LongAdder();
+        final LongAdder sent = new LongAdder();
+        final LongAdder coalesced = new LongAdder();
+        final LongAdder shed = new LongAdder();
+        final LatencyHistogram wait = new LatencyHistogram();
+    }
+}
@@ -0,0 +1,55 @@
+package com.chatapp.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Encodings a STOMP session can negotiate for message bodies. JSON is the default;
+ * the binary formats keep the same document structure and are produced by Jackson.
+ */
+public enum PayloadFormat {
+    JSON(MimeTypeUtils.APPLICATION_JSON),
+    CBOR(new MimeType("application", "cbor")),
+    SMILE(new MimeType("application", "x-jackson-smile"));
+
+    private final MimeType mimeType;
+
+    PayloadFormat(MimeType mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public MimeType getMimeType() {
+        return mimeType;
+    }
+
+    public boolean isBinary() {
+        return this != JSON;
+    }
+
+    JsonFactory newFactory() {
+        switch (this) {
+            case CBOR:
+                return new CBORFactory();
+            case SMILE:
+                return new SmileFactory();
+            default:
+                return new JsonFactory();
+        }
+    }
+
+    /**
+     * Parses a name such as {@code cbor} or {@code application/cbor}, or returns null.
+     */
+    public static PayloadFormat fromName(String name) {
+        String value = name.trim();
+        for (PayloadFormat format : values()) {
+            if (format.name().equalsIgnoreCase(value) || format.mimeType.toString().equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
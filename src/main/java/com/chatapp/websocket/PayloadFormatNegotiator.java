@@ -0,0 +1,265 @@
+package com.chatapp.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.web.socket.*;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-session payload encoding negotiated at CONNECT.
+ * <p>
+ * A client lists the formats it accepts in a {@code payload-format} CONNECT header, e.g.
+ * {@code payload-format:cbor,json}, and gets the first one the server supports. Binary
+ * formats need binary websocket frames, so they are only granted on native websocket
+ * sessions; SockJS sessions always stay on JSON.
+ * <p>
+ * Outbound, broadcasts are still serialized once as JSON. For a session on CBOR or Smile the
+ * JSON body is transcoded with a streaming copy, which needs no reflection over the DTOs,
+ * and the result is memoized per payload array, so a broadcast is transcoded once per format
+ * however many sessions receive it. The session's frames are then written as binary
+ * websocket frames. Inbound, SEND frames with an {@code application/cbor} or
+ * {@code application/x-jackson-smile} content-type are read into {@code @Payload}
+ * arguments like JSON ones.
+ */
+@Component
+public class PayloadFormatNegotiator implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PayloadFormatNegotiator.class);
+
+    public static final String FORMAT_HEADER = "payload-format";
+
+    private static final String BINARY_FRAMES_ATTR = PayloadFormatNegotiator.class.getName() + ".binaryFrames";
+
+    @Autowired
+    private Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Map<PayloadFormat, JsonFactory> factories = new EnumMap<>(PayloadFormat.class);
+
+    // Transcoded bodies keyed by the identity of the JSON payload array shared by a broadcast
+    private final Map<PayloadFormat, Map<byte[], byte[]>> transcoded = new EnumMap<>(PayloadFormat.class);
+
+    private final Map<String, PayloadFormat> sessionFormats = new ConcurrentHashMap<>();
+
+    private final Map<PayloadFormat, FormatStats> stats = new EnumMap<>(PayloadFormat.class);
+
+    public PayloadFormatNegotiator() {
+        for (PayloadFormat format : PayloadFormat.values()) {
+            stats.put(format, new FormatStats());
+            if (format.isBinary()) {
+                factories.put(format, format.newFactory());
+                transcoded.put(format, Collections.synchronizedMap(new WeakHashMap<>()));
+            }
+        }
+    }
+
+    /**
+     * Picks the session's format from the CONNECT header and returns it. Sessions that
+     * ask for nothing supported, or cannot carry binary frames, get JSON.
+     */
+    public PayloadFormat negotiate(String sessionId, Map<String, Object> sessionAttributes, String header) {
+        PayloadFormat selected = PayloadFormat.JSON;
+        if (header != null) {
+            boolean binaryFrames = sessionAttributes != null && Boolean.TRUE.equals(sessionAttributes.get(BINARY_FRAMES_ATTR));
+            for (String name : header.split(",")) {
+                PayloadFormat format = PayloadFormat.fromName(name);
+                if (format != null && (binaryFrames || !format.isBinary())) {
+                    selected = format;
+                    break;
+                }
+            }
+        }
+
+        if (selected.isBinary()) {
+            sessionFormats.put(sessionId, selected);
+        } else {
+            sessionFormats.remove(sessionId);
+        }
+        stats.get(selected).sessions.increment();
+        logger.debug("Session {} negotiated {} payloads", sessionId, selected);
+        return selected;
+    }
+
+    public PayloadFormat getFormat(String sessionId) {
+        return sessionFormats.getOrDefault(sessionId, PayloadFormat.JSON);
+    }
+
+    /**
+     * Converters that read binary-encoded SEND frames, with the application's Jackson settings.
+     */
+    public List<MessageConverter> inboundConverters() {
+        List<MessageConverter> converters = new ArrayList<>();
+        for (Map.Entry<PayloadFormat, JsonFactory> entry : factories.entrySet()) {
+            MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter(entry.getKey().getMimeType());
+            converter.setObjectMapper(objectMapperBuilder.factory(entry.getValue()).build());
+            // Only for frames that declare the format; the broker template sends without a
+            // content type and has to fall through to JSON, which is transcoded per session
+            converter.setStrictContentTypeMatch(true);
+            converters.add(converter);
+        }
+        return converters;
+    }
+
+    /**
+     * Transcodes JSON MESSAGE frames for sessions on a binary format.
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE
+                || !(message.getPayload() instanceof byte[])) {
+            return message;
+        }
+        byte[] payload = (byte[]) message.getPayload();
+        PayloadFormat format = getFormat(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+
+        if (!format.isBinary()) {
+            stats.get(PayloadFormat.JSON).record(payload.length, payload.length);
+            return message;
+        }
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        MimeType contentType = accessor.getContentType();
+        if (contentType == null || !PayloadFormat.JSON.getMimeType().isCompatibleWith(contentType)) {
+            return message;
+        }
+
+        byte[] encoded = transcode(payload, format);
+        stats.get(format).record(payload.length, encoded.length);
+
+        accessor.setContentType(format.getMimeType());
+        accessor.setNativeHeader(StompHeaderAccessor.STOMP_CONTENT_TYPE_HEADER, format.getMimeType().toString());
+        return MessageBuilder.createMessage(encoded, accessor.getMessageHeaders());
+    }
+
+    /**
+     * Wraps the websocket handler so native sessions are marked binary-capable and
+     * sessions on a binary format send binary frames.
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                if (!(session instanceof SockJsSession)) {
+                    session.getAttributes().put(BINARY_FRAMES_ATTR, Boolean.TRUE);
+                }
+                super.afterConnectionEstablished(new BinaryFrameSession(session));
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessionFormats.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * Frames and bytes per format. For binary formats, {@code jsonBytes} is what the same
+     * frames would have cost as JSON and {@code transcodeNanosPerFrame} the added encode time.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("binarySessions", sessionFormats.size());
+        for (Map.Entry<PayloadFormat, FormatStats> entry : stats.entrySet()) {
+            FormatStats formatStats = entry.getValue();
+            long frames = formatStats.frames.sum();
+            long transcodes = formatStats.transcodes.sum();
+
+            Map<String, Object> format = new LinkedHashMap<>();
+            format.put("sessions", formatStats.sessions.sum());
+            format.put("frames", frames);
+            format.put("bytes", formatStats.bytes.sum());
+            format.put("jsonBytes", formatStats.jsonBytes.sum());
+            format.put("bytesPerFrame", frames > 0 ? (double) formatStats.bytes.sum() / frames : 0.0);
+            if (entry.getKey().isBinary()) {
+                format.put("transcodes", transcodes);
+                format.put("transcodeNanosPerFrame", transcodes > 0 ? (double) formatStats.transcodeNanos.sum() / transcodes : 0.0);
+            }
+            metrics.put(entry.getKey().name().toLowerCase(), format);
+        }
+        return metrics;
+    }
+
+    private byte[] transcode(byte[] json, PayloadFormat format) {
+        Map<byte[], byte[]> cache = transcoded.get(format);
+        byte[] encoded = cache.get(json);
+        if (encoded != null) {
+            return encoded;
+        }
+
+        long start = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = jsonFactory.createParser(json);
+             JsonGenerator generator = factories.get(format).createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Could not transcode websocket payload to " + format, ex);
+        }
+        encoded = out.toByteArray();
+
+        FormatStats formatStats = stats.get(format);
+        formatStats.transcodes.increment();
+        formatStats.transcodeNanos.add(System.nanoTime() - start);
+        cache.put(json, encoded);
+        return encoded;
+    }
+
+    /**
+     * Sends the STOMP text frames of a binary-format session as binary websocket frames,
+     * since the encoded bodies are not valid UTF-8.
+     */
+    private class BinaryFrameSession extends WebSocketSessionDecorator {
+
+        BinaryFrameSession(WebSocketSession session) {
+            super(session);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            if (message instanceof TextMessage && sessionFormats.containsKey(getId())) {
+                message = new BinaryMessage(((TextMessage) message).asBytes());
+            }
+            super.sendMessage(message);
+        }
+    }
+
+    private static class FormatStats {
+        final LongAdder sessions = new LongAdder();
+        final LongAdder frames = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder jsonBytes = new LongAdder();
+        final LongAdder transcodes = new LongAdder();
+        final LongAdder transcodeNanos = new LongAdder();
+
+        void record(int jsonLength, int encodedLength) {
+            frames.increment();
+            jsonBytes.add(jsonLength);
+            bytes.add(encodedLength);
+        }
+    }
+}
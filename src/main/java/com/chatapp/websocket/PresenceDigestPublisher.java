@@ -0,0 +1,103 @@
+package com.chatapp.websocket;
+
+import com.chatapp.service.PresenceInterestGraph;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routes presence changes to the users watching them, in periodic per-recipient digests.
+ * <p>
+ * A status change is queued only for the user's watchers (see {@link PresenceInterestGraph})
+ * that are connected, rather than broadcast to every session. Each flush sends a recipient
+ * one {@code {statuses: [{userId, status}, ...]}} frame on {@code /user/queue/presence}
+ * holding the latest status of everyone that changed since the last flush, so a user
+ * flapping between online and offline costs each watcher at most one entry per interval.
+ */
+@Component
+public class PresenceDigestPublisher {
+
+    public static final String PRESENCE_DESTINATION = "/queue/presence";
+
+    @Autowired
+    private PresenceInterestGraph interestGraph;
+
+    @Autowired
+    private SimpUserRegistry userRegistry;
+
+    @Autowired
+    private SimpMessageSendingOperations messagingTemplate;
+
+    // recipient username -> (userId -> latest status)
+    private final Map<String, Map<Long, String>> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder skippedOffline = new LongAdder();
+    private final LongAdder digests = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+
+    public void publish(Long userId, String status) {
+        changes.increment();
+        PresenceInterestGraph.Watchers watchers = interestGraph.getWatchers(userId);
+
+        for (int i = 0; i < watchers.size(); i++) {
+            String username = watchers.getUsername(i);
+            // The registry covers all nodes in cluster mode
+            if (userRegistry.getUser(username) == null) {
+                skippedOffline.increment();
+                continue;
+            }
+
+            pending.compute(username, (recipient, statuses) -> {
+                if (statuses == null) {
+                    statuses = new HashMap<>();
+                }
+                statuses.put(userId, status);
+                return statuses;
+            });
+            queued.increment();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chatapp.presence.digest-interval-ms:1000}")
+    public void flush() {
+        for (String recipient : new ArrayList<>(pending.keySet())) {
+            // Removing hands the map over; later changes start a new digest
+            Map<Long, String> statuses = pending.remove(recipient);
+            if (statuses == null || statuses.isEmpty()) {
+                continue;
+            }
+
+            List<Map<String, Object>> digest = new ArrayList<>(statuses.size());
+            statuses.forEach((userId, status) -> {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("userId", userId);
+                entry.put("status", status);
+                digest.add(entry);
+            });
+
+            messagingTemplate.convertAndSendToUser(recipient, PRESENCE_DESTINATION, Map.of("statuses", digest));
+            digests.increment();
+            entries.add(digest.size());
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("changes", changes.sum());
+        metrics.put("queued", queued.sum());
+        metrics.put("skippedOffline", skippedOffline.sum());
+        metrics.put("digests", digests.sum());
+        metrics.put("digestEntries", entries.sum());
+        metrics.put("pendingRecipients", pending.size());
+        metrics.put("graph", interestGraph.getMetrics());
+        return metrics;
+    }
+}
@@ -0,0 +1,175 @@
+package com.chatapp.websocket;
+
+import com.chatapp.service.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks websocket sessions per user so a user stays online while any of their
+ * sessions (tabs, devices) is connected.
+ * <p>
+ * Connect/disconnect only report a transition when the user's session count moves
+ * between 0 and 1. Status changes are not written through to the database; they are
+ * collected and flushed in batches, keeping only the latest status per user.
+ */
+@Component
+public class PresenceRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceRegistry.class);
+
+    public static final String ONLINE = "online";
+    public static final String OFFLINE = "offline";
+
+    @Autowired
+    private UserService userService;
+
+    // userId -> live session ids; CHM bins serialise updates per key, no global lock
+    private final Map<Long, Set<String>> sessionsByUser = new ConcurrentHashMap<>();
+
+    // userId -> latest status not yet written to the database
+    private final Map<Long, String> pendingStatus = new ConcurrentHashMap<>();
+
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder onlineTransitions = new LongAdder();
+    private final LongAdder offlineTransitions = new LongAdder();
+    private final LongAdder statusWrites = new LongAdder();
+
+    /**
+     * Register a session.
+     *
+     * @return true if this is the user's first session, i.e. they just came online
+     */
+    public boolean connect(Long userId, String sessionId) {
+        connects.increment();
+        AtomicBoolean cameOnline = new AtomicBoolean();
+        
+        sessionsByUser.compute(userId, (id, sessions) -> {
+            if (sessions == null) {
+                sessions = ConcurrentHashMap.newKeySet();
+            }
+            if (sessions.add(sessionId) && sessions.size() == 1) {
+                cameOnline.set(true);
+            }
+            return sessions;
+        });
+        
+        if (cameOnline.get()) {
+            onlineTransitions.increment();
+            pendingStatus.put(userId, ONLINE);
+        }
+        
+        return cameOnline.get();
+    }
+
+    /**
+     * Remove a session.
+     *
+     * @return true if this was the user's last session, i.e. they just went offline
+     */
+    public boolean disconnect(Long userId, String sessionId) {
+        disconnects.increment();
+        AtomicBoolean wentOffline = new AtomicBoolean();
+        
+        sessionsByUser.computeIfPresent(userId, (id, sessions) -> {
+            if (sessions.remove(sessionId) && sessions.isEmpty()) {
+                wentOffline.set(true);
+                return null;
+            }
+            return sessions.isEmpty() ? null : sessions;
+        });
+        
+        if (wentOffline.get()) {
+            offlineTransitions.increment();
+            pendingStatus.put(userId, OFFLINE);
+        }
+        
+        return wentOffline.get();
+    }
+
+    public boolean isOnline(Long userId) {
+        return sessionsByUser.containsKey(userId);
+    }
+
+    /**
+     * The given users that have no live session, leaving out {@code excludeUserId}.
+     */
+    public List<Long> offlineUsers(long[] userIds, Long excludeUserId) {
+        List<Long> offline = new ArrayList<>();
+        for (long userId : userIds) {
+            if (!sessionsByUser.containsKey(userId) && (excludeUserId == null || userId != excludeUserId)) {
+                offline.add(userId);
+            }
+        }
+        return offline;
+    }
+
+    public Set<String> getSessions(Long userId) {
+        Set<String> sessions = sessionsByUser.get(userId);
+        return sessions != null ? Collections.unmodifiableSet(sessions) : Collections.emptySet();
+    }
+
+    /**
+     * Write coalesced status changes to the database.
+     */
+    @Scheduled(fixedDelayString = "${chatapp.presence.flush-interval-ms:2000}")
+    public void flushStatusUpdates() {
+        if (pendingStatus.isEmpty()) {
+            return;
+        }
+        
+        List<Long> online = new ArrayList<>();
+        List<Long> offline = new ArrayList<>();
+        
+        for (Long userId : new ArrayList<>(pendingStatus.keySet())) {
+            String status = pendingStatus.remove(userId);
+            if (ONLINE.equals(status)) {
+                online.add(userId);
+            } else if (OFFLINE.equals(status)) {
+                offline.add(userId);
+            }
+        }
+        
+        try {
+            if (!online.isEmpty()) {
+                userService.updateStatuses(online, ONLINE, false);
+            }
+            if (!offline.isEmpty()) {
+                userService.updateStatuses(offline, OFFLINE, true);
+            }
+            statusWrites.add(online.size() + offline.size());
+        } catch (RuntimeException ex) {
+            logger.error("Could not flush {} presence updates: {}", online.size() + offline.size(), ex.getMessage());
+            // Put them back unless a newer status arrived in the meantime
+            online.forEach(userId -> pendingStatus.putIfAbsent(userId, ONLINE));
+            offline.forEach(userId -> pendingStatus.putIfAbsent(userId, OFFLINE));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushStatusUpdates();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("onlineUsers", sessionsByUser.size());
+        metrics.put("sessions", sessionsByUser.values().stream().mapToInt(Set::size).sum());
+        metrics.put("pendingStatusWrites", pendingStatus.size());
+        metrics.put("connects", connects.sum());
+        metrics.put("disconnects", disconnects.sum());
+        metrics.put("onlineTransitions", onlineTransitions.sum());
+        metrics.put("offlineTransitions", offlineTransitions.sum());
+        metrics.put("statusWrites", statusWrites.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,437 @@
+package com.chatapp.websocket;
+
+import com.chatapp.security.TokenAuthenticator;
+import com.chatapp.security.UserDetailsImpl;
+import com.chatapp.service.MailboxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+
+import java.security.Principal;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lets a client that lost its connection pick up where it left off within a grace window,
+ * without re-authenticating, resubscribing or showing its user going offline.
+ * <p>
+ * Every authenticated session gets a single-use resume token, sent with reconnect hints on
+ * {@code /user/queue/session} once the client subscribes there. When a session closes other
+ * than with a normal close, its subscriptions are parked under that token for
+ * {@code grace-ms}, and the user's offline presence is held back for as long. A CONNECT
+ * carrying the token in a {@code resume-token} header within the window is authenticated as
+ * the parked user, skips {@link ConnectAdmission}, and has its subscriptions restored: chat
+ * subscriptions are re-checked against the user's current memberships and a restored mailbox
+ * subscription is drained. If the user is back before the window ends, watchers never hear
+ * they were gone.
+ * <p>
+ * A resumed session still runs on the JWT it first connected with: a resume is refused once
+ * that token has expired or was revoked through {@link TokenAuthenticator#invalidateUser(Long)},
+ * and the client has to connect with a fresh token instead.
+ * <p>
+ * Clients keep their subscription ids across connections and resubscribe whatever the session
+ * message does not list as restored. Parked sessions live in memory, so a token only resumes
+ * on the node that issued it and not after that node restarts; clients then connect afresh.
+ */
+@Component
+public class SessionResumption implements ExecutorChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionResumption.class);
+
+    public static final String RESUME_HEADER = "resume-token";
+    public static final String SESSION_DESTINATION = "/queue/session";
+
+    private static final String USER_SESSION_DESTINATION = "/user" + SESSION_DESTINATION;
+    private static final String RESUMED_ATTRIBUTE = SessionResumption.class.getName() + ".resumed";
+
+    private final SecureRandom random = new SecureRandom();
+
+    @Value("${chatapp.websocket.resume.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chatapp.websocket.resume.grace-ms:30000}")
+    private long graceMs;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Autowired
+    private ChatDestinationGuard chatDestinationGuard;
+
+    @Autowired
+    private ConnectAdmission connectAdmission;
+
+    @Autowired
+    private TokenAuthenticator tokenAuthenticator;
+
+    // Lazy: these depend on the broker configuration this interceptor is registered with
+    @Autowired
+    @Lazy
+    private PresenceDigestPublisher presenceDigests;
+
+    @Autowired
+    @Lazy
+    private MailboxService mailboxService;
+
+    @Autowired
+    @Lazy
+    private SimpMessageSendingOperations messagingTemplate;
+
+    @Autowired
+    @Lazy
+    @Qualifier("brokerChannel")
+    private MessageChannel brokerChannel;
+
+    // sessionId -> resume token and subscriptions of a connected session
+    private final Map<String, LiveSession> live = new ConcurrentHashMap<>();
+
+    // resume token -> session waiting to be resumed
+    private final Map<String, ParkedSession> parked = new ConcurrentHashMap<>();
+
+    // userId -> time (epoch ms) after which watchers are told the user went offline
+    private final Map<Long, Long> pendingOffline = new ConcurrentHashMap<>();
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder parkedSessions = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder restoredSubscriptions = new LongAdder();
+    private final LongAdder deniedSubscriptions = new LongAdder();
+    private final LongAdder deferredOffline = new LongAdder();
+    private final LongAdder cancelledOffline = new LongAdder();
+
+    /**
+     * Authenticates a CONNECT carrying a valid resume token as the parked session's user.
+     *
+     * @return false if there was no token, it is unknown or expired, or the JWT the session
+     *         was opened with has expired or been revoked since
+     */
+    public boolean resume(StompHeaderAccessor accessor) {
+        String token = accessor.getFirstNativeHeader(RESUME_HEADER);
+        if (!enabled || token == null) {
+            return false;
+        }
+
+        // Single use: a second CONNECT with the same token gets a fresh session
+        ParkedSession session = parked.remove(token);
+        long now = System.currentTimeMillis();
+        if (session == null || session.expiresAt <= now || session.tokenExpiresAt <= now
+                || tokenAuthenticator.isRevoked(session.userId, session.issuedAt)) {
+            rejected.increment();
+            return false;
+        }
+
+        accessor.setUser(session.user);
+        if (accessor.getSessionAttributes() != null) {
+            accessor.getSessionAttributes().put(RESUMED_ATTRIBUTE, session);
+        }
+        resumed.increment();
+        return true;
+    }
+
+    /**
+     * Issues tokens to authenticated sessions and tracks their subscriptions. Sessions are tracked
+     * even with resumption disabled, as clients wait for their session message to subscribe.
+     * Registered after {@link ChatDestinationGuard}, so only accepted subscriptions are seen.
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null || accessor.getSessionId() == null) {
+            return message;
+        }
+
+        if (accessor.getCommand() == StompCommand.CONNECT) {
+            Long userId = userIdOf(accessor.getUser());
+            if (userId != null) {
+                Map<String, Object> attributes = accessor.getSessionAttributes();
+                ParkedSession resumedFrom = attributes != null ? (ParkedSession) attributes.remove(RESUMED_ATTRIBUTE) : null;
+                // A resumed session keeps the JWT lifetime it was parked with
+                TokenAuthenticator.VerifiedToken verified = verifiedTokenOf(accessor.getUser());
+                long issuedAt = resumedFrom != null ? resumedFrom.issuedAt : verified != null ? verified.getIssuedAt() : 0L;
+                long tokenExpiresAt = resumedFrom != null ? resumedFrom.tokenExpiresAt : verified != null ? verified.getExpiresAt() : 0L;
+                live.put(accessor.getSessionId(), new LiveSession(newToken(), accessor.getUser(), userId,
+                        issuedAt, tokenExpiresAt, resumedFrom));
+                issued.increment();
+            }
+            return message;
+        }
+
+        LiveSession session = live.get(accessor.getSessionId());
+        if (session == null) {
+            return message;
+        }
+        if (accessor.getCommand() == StompCommand.SUBSCRIBE && accessor.getSubscriptionId() != null
+                && accessor.getDestination() != null && !USER_SESSION_DESTINATION.equals(accessor.getDestination())) {
+            session.subscriptions.put(accessor.getSubscriptionId(), accessor.getDestination());
+        } else if (accessor.getCommand() == StompCommand.UNSUBSCRIBE && accessor.getSubscriptionId() != null) {
+            session.subscriptions.remove(accessor.getSubscriptionId());
+        }
+        return message;
+    }
+
+    /**
+     * Answers the client's subscription to its session queue once the user destination handler
+     * has registered it, so the reply cannot overtake the subscription.
+     */
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        if (ex != null || !(handler instanceof UserDestinationMessageHandler)) {
+            return;
+        }
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor != null && accessor.getCommand() == StompCommand.SUBSCRIBE
+                && USER_SESSION_DESTINATION.equals(accessor.getDestination())) {
+            LiveSession session = live.get(accessor.getSessionId());
+            if (session != null) {
+                start(accessor.getSessionId(), session);
+            }
+        }
+    }
+
+    /**
+     * Parks a closed session for resumption unless the client closed it normally, its user was
+     * revoked, or its JWT has expired. Sessions not opened with a JWT are never parked.
+     *
+     * @return true if the session was parked; the user's offline presence should then be deferred
+     */
+    public boolean park(String sessionId, CloseStatus closeStatus) {
+        LiveSession session = live.remove(sessionId);
+        long now = System.currentTimeMillis();
+        if (session == null || !enabled || CloseStatus.NORMAL.equalsCode(closeStatus)
+                || session.revoked || session.tokenExpiresAt <= now
+                || tokenAuthenticator.isRevoked(session.userId, session.issuedAt)) {
+            return false;
+        }
+
+        parked.put(session.token, new ParkedSession(session.user, session.userId, session.issuedAt,
+                session.tokenExpiresAt, new LinkedHashMap<>(session.subscriptions), now + graceMs));
+        parkedSessions.increment();
+        return true;
+    }
+
+    /**
+     * Holds back the user's offline presence until the grace window ends.
+     */
+    public void deferOffline(Long userId) {
+        pendingOffline.put(userId, System.currentTimeMillis() + graceMs);
+        deferredOffline.increment();
+    }
+
+    /**
+     * Called when a user comes back online.
+     *
+     * @return true if their offline presence was still held back, so watchers never saw it
+     */
+    public boolean cancelOffline(Long userId) {
+        if (pendingOffline.remove(userId) == null) {
+            return false;
+        }
+        cancelledOffline.increment();
+        return true;
+    }
+
+    /**
+     * Drops the user's parked sessions and keeps their live sessions from being parked,
+     * e.g. after their tokens were revoked.
+     */
+    public void revokeUser(Long userId) {
+        live.values().stream()
+                .filter(session -> userId.equals(session.userId))
+                .forEach(session -> session.revoked = true);
+        parked.values().removeIf(session -> userId.equals(session.userId));
+    }
+
+    /**
+     * Publishes offline presence for users whose grace window ended and drops expired tokens.
+     */
+    @Scheduled(fixedDelayString = "${chatapp.websocket.resume.sweep-interval-ms:1000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+
+        for (Long userId : new ArrayList<>(pendingOffline.keySet())) {
+            // Inside compute so a concurrent cancelOffline either wins or sees the entry gone
+            pendingOffline.computeIfPresent(userId, (id, deadline) -> {
+                if (deadline > now) {
+                    return deadline;
+                }
+                if (!presenceRegistry.isOnline(id)) {
+                    presenceDigests.publish(id, PresenceRegistry.OFFLINE);
+                }
+                return null;
+            });
+        }
+
+        for (Iterator<ParkedSession> it = parked.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresAt <= now) {
+                it.remove();
+                expired.increment();
+            }
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("graceMs", graceMs);
+        metrics.put("liveSessions", live.size());
+        metrics.put("parkedSessions", parked.size());
+        metrics.put("pendingOffline", pendingOffline.size());
+        metrics.put("tokensIssued", issued.sum());
+        metrics.put("parked", parkedSessions.sum());
+        metrics.put("resumed", resumed.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("expired", expired.sum());
+        metrics.put("restoredSubscriptions", restoredSubscriptions.sum());
+        metrics.put("deniedSubscriptions", deniedSubscriptions.sum());
+        metrics.put("deferredOffline", deferredOffline.sum());
+        metrics.put("cancelledOffline", cancelledOffline.sum());
+        metrics.put("admission", connectAdmission.getMetrics());
+        return metrics;
+    }
+
+    /**
+     * Restores a resumed session's subscriptions and sends the client its session message.
+     */
+    private void start(String sessionId, LiveSession session) {
+        List<String> restored = new ArrayList<>();
+        boolean drainMailbox = false;
+
+        ParkedSession resumedFrom = session.resumedFrom;
+        session.resumedFrom = null;
+        if (resumedFrom != null) {
+            for (Map.Entry<String, String> entry : resumedFrom.subscriptions.entrySet()) {
+                String subscriptionId = entry.getKey();
+                String destination = entry.getValue();
+                if (!chatDestinationGuard.admitSubscription(sessionId, subscriptionId, destination, session.user)) {
+                    deniedSubscriptions.increment();
+                    continue;
+                }
+
+                subscribe(sessionId, subscriptionId, destination, session.user);
+                session.subscriptions.put(subscriptionId, destination);
+                restored.add(subscriptionId);
+                drainMailbox |= destination.endsWith(MailboxService.MAILBOX_DESTINATION);
+            }
+            restoredSubscriptions.add(restored.size());
+        }
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("resumeToken", enabled ? session.token : null);
+        payload.put("graceMs", graceMs);
+        payload.put("resumed", resumedFrom != null);
+        payload.put("restored", restored);
+        payload.put("reconnect", connectAdmission.reconnectHint(live.size()));
+
+        // Addressed to this session only; the user's other sessions have tokens of their own
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(session.user.getName(), SESSION_DESTINATION, payload,
+                headers.getMessageHeaders());
+
+        // Events that arrived while the user was offline went to the mailbox
+        if (drainMailbox) {
+            mailboxService.drain(session.userId, session.user.getName());
+        }
+        if (resumedFrom != null) {
+            logger.debug("Resumed session {} of user {} with {} subscriptions", sessionId, session.userId, restored.size());
+        }
+    }
+
+    /**
+     * Registers the subscription with the broker, as if the client had sent SUBSCRIBE.
+     */
+    private void subscribe(String sessionId, String subscriptionId, String destination, Principal user) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setUser(user);
+        brokerChannel.send(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static TokenAuthenticator.VerifiedToken verifiedTokenOf(Principal user) {
+        if (user instanceof Authentication && ((Authentication) user).getDetails() instanceof TokenAuthenticator.VerifiedToken) {
+            return (TokenAuthenticator.VerifiedToken) ((Authentication) user).getDetails();
+        }
+        return null;
+    }
+
+    private static Long userIdOf(Principal user) {
+        if (user instanceof Authentication && ((Authentication) user).getPrincipal() instanceof UserDetailsImpl) {
+            return ((UserDetailsImpl) ((Authentication) user).getPrincipal()).getId();
+        }
+        return null;
+    }
+
+    private static class LiveSession {
+        private final String token;
+        private final Principal user;
+        private final Long userId;
+        // iat and exp (epoch ms) of the JWT the session was opened with; exp is 0 without one
+        private final long issuedAt;
+        private final long tokenExpiresAt;
+        // subscriptionId -> destination
+        private final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+        private volatile ParkedSession resumedFrom;
+        private volatile boolean revoked;
+
+        LiveSession(String token, Principal user, Long userId, long issuedAt, long tokenExpiresAt,
+                    ParkedSession resumedFrom) {
+            this.token = token;
+            this.user = user;
+            this.userId = userId;
+            this.issuedAt = issuedAt;
+            this.tokenExpiresAt = tokenExpiresAt;
+            this.resumedFrom = resumedFrom;
+        }
+    }
+
+    private static class ParkedSession {
+        private final Principal user;
+        private final Long userId;
+        private final long issuedAt;
+        private final long tokenExpiresAt;
+        private final Map<String, String> subscriptions;
+        private final long expiresAt;
+
+        ParkedSession(Principal user, Long userId, long issuedAt, long tokenExpiresAt,
+                      Map<String, String> subscriptions, long expiresAt) {
+            this.user = user;
+            this.userId = userId;
+            this.issuedAt = issuedAt;
+            this.tokenExpiresAt = tokenExpiresAt;
+            this.subscriptions = subscriptions;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
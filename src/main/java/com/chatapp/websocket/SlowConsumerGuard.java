@@ -0,0 +1,156 @@
+package com.chatapp.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps one slow connection from holding outbound threads or growing without bound.
+ * <p>
+ * Spring already buffers frames for a session while another thread is writing to it, so
+ * outbound threads do not wait on a slow socket. The buffer and the duration of a single write
+ * are limited by {@code send-buffer-size-limit} and {@code send-time-limit-ms}; a session
+ * exceeding either is closed and its client reconnects and catches up through the sync API.
+ * <p>
+ * With the {@code DROP} policy, a session whose current write has been stuck for longer than
+ * {@code drop-after-ms} has further MESSAGE frames discarded before they reach that buffer,
+ * so a briefly stalled client loses events instead of its connection. The time limit still
+ * closes sessions that never recover.
+ */
+@Component
+public class SlowConsumerGuard implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowConsumerGuard.class);
+
+    public enum Policy { TERMINATE, DROP }
+
+    @Value("${chatapp.websocket.send-time-limit-ms:5000}")
+    private int sendTimeLimitMs;
+
+    @Value("${chatapp.websocket.send-buffer-size-limit:262144}")
+    private int sendBufferSizeLimit;
+
+    @Value("${chatapp.websocket.slow-consumer-policy:TERMINATE}")
+    private Policy policy;
+
+    @Value("${chatapp.websocket.drop-after-ms:1000}")
+    private long dropAfterMs;
+
+    // sessionId -> start of the write in progress (System.nanoTime), 0 when idle
+    private final Map<String, WriteState> writes = new ConcurrentHashMap<>();
+
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder terminatedSessions = new LongAdder();
+
+    public int getSendTimeLimitMs() {
+        return sendTimeLimitMs;
+    }
+
+    public int getSendBufferSizeLimit() {
+        return sendBufferSizeLimit;
+    }
+
+    /**
+     * Tracks writes in progress per session and counts sessions closed for exceeding the limits.
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                WriteState state = new WriteState();
+                writes.put(session.getId(), state);
+                super.afterConnectionEstablished(new TimedSession(session, state));
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                writes.remove(session.getId());
+                // Spring closes sessions that exceed their send limits with this status
+                if (CloseStatus.SESSION_NOT_RELIABLE.equalsCode(closeStatus)) {
+                    terminatedSessions.increment();
+                    logger.info("Closed slow websocket session {}: {}", session.getId(), closeStatus.getReason());
+                }
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * Drops MESSAGE frames for stalled sessions under the DROP policy.
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (policy != Policy.DROP
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+
+        WriteState state = writes.get(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+        if (state != null && state.isStalled(TimeUnit.MILLISECONDS.toNanos(dropAfterMs))) {
+            droppedFrames.increment();
+            return null;
+        }
+        return message;
+    }
+
+    public Map<String, Object> getMetrics() {
+        long stallNanos = TimeUnit.MILLISECONDS.toNanos(dropAfterMs);
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("policy", policy.name());
+        metrics.put("sendTimeLimitMs", sendTimeLimitMs);
+        metrics.put("sendBufferSizeLimit", sendBufferSizeLimit);
+        metrics.put("stalledSessions", writes.values().stream().filter(state -> state.isStalled(stallNanos)).count());
+        metrics.put("droppedFrames", droppedFrames.sum());
+        metrics.put("terminatedSessions", terminatedSessions.sum());
+        return metrics;
+    }
+
+    private static class WriteState {
+        private volatile long writingSince;
+
+        boolean isStalled(long thresholdNanos) {
+            long since = writingSince;
+            return since != 0 && System.nanoTime() - since > thresholdNanos;
+        }
+    }
+
+    private static class TimedSession extends WebSocketSessionDecorator {
+        private final WriteState state;
+
+        TimedSession(WebSocketSession session, WriteState state) {
+            super(session);
+            this.state = state;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            // Writes to one session are serialized by Spring's session decorator
+            state.writingSince = System.nanoTime();
+            try {
+                super.sendMessage(message);
+            } finally {
+                state.writingSince = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.chatapp.websocket;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.*;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bandwidth and send cost per websocket transport: SockJS on {@code /ws} and native
+ * websockets on {@code /ws-raw}.
+ * <p>
+ * Byte counts are STOMP frame sizes before any permessage-deflate compression, which happens
+ * inside the container. Compression runs on the sending thread though, so {@code sendNanos}
+ * includes it; comparing deflate and plain sessions shows its CPU cost.
+ */
+@Component
+public class TransportMetrics {
+
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+
+    public TransportMetrics() {
+        stats.put("sockjs", new Stats());
+        stats.put("raw", new Stats());
+        stats.put("raw-deflate", new Stats());
+    }
+
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                Stats transport = statsFor(session);
+                transport.sessions.increment();
+                transport.open.increment();
+                super.afterConnectionEstablished(new MeteredSession(session, transport));
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                Stats transport = statsFor(session);
+                transport.framesIn.increment();
+                transport.bytesIn.add(message.getPayloadLength());
+                super.handleMessage(session, message);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                statsFor(session).open.decrement();
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        stats.forEach((name, transport) -> {
+            long framesOut = transport.framesOut.sum();
+
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("openSessions", transport.open.sum());
+            values.put("sessions", transport.sessions.sum());
+            values.put("framesIn", transport.framesIn.sum());
+            values.put("bytesIn", transport.bytesIn.sum());
+            values.put("framesOut", framesOut);
+            values.put("bytesOut", transport.bytesOut.sum());
+            values.put("sendNanosPerFrame", framesOut > 0 ? (double) transport.sendNanos.sum() / framesOut : 0.0);
+            metrics.put(name, values);
+        });
+        return metrics;
+    }
+
+    private Stats statsFor(WebSocketSession session) {
+        if (session instanceof SockJsSession) {
+            return stats.get("sockjs");
+        }
+        boolean deflate = session.getExtensions().stream()
+                .anyMatch(extension -> DeflateOfferFilter.PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName()));
+        return stats.get(deflate ? "raw-deflate" : "raw");
+    }
+
+    private static class MeteredSession extends WebSocketSessionDecorator {
+        private final Stats transport;
+
+        MeteredSession(WebSocketSession session, Stats transport) {
+            super(session);
+            this.transport = transport;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            long start = System.nanoTime();
+            super.sendMessage(message);
+            transport.sendNanos.add(System.nanoTime() - start);
+            transport.framesOut.increment();
+            transport.bytesOut.add(message.getPayloadLength());
+        }
+    }
+
+    private static class Stats {
+        final LongAdder sessions = new LongAdder();
+        final LongAdder open = new LongAdder();
+        final LongAdder framesIn = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder framesOut = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder sendNanos = new LongAdder();
+    }
+}
@@ -0,0 +1,143 @@
+package com.chatapp.websocket;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-chat typing state, published as one compact frame per chat and interval.
+ * <p>
+ * Keystroke frames only refresh the sender's expiry; the chat is marked changed when a
+ * user starts or stops typing or their entry expires. Every flush publishes, for each
+ * changed chat, the full list of users currently typing on {@code /topic/chat/{chatId}/typing};
+ * an empty list means everyone stopped. Typing is the first traffic to give way: while the
+ * outbound channel is backed up, flushes are skipped and pending changes wait.
+ */
+@Component
+public class TypingAggregator {
+
+    @Autowired
+    private SimpMessageSendingOperations messagingTemplate;
+
+    @Autowired
+    @Qualifier("clientOutboundChannelExecutor")
+    private ThreadPoolTaskExecutor clientOutboundExecutor;
+
+    @Value("${chatapp.typing.ttl-ms:5000}")
+    private long ttlMs;
+
+    // Skip typing flushes while more outbound frames than this are waiting
+    @Value("${chatapp.typing.max-outbound-backlog:1000}")
+    private int maxOutboundBacklog;
+
+    private final Map<Long, ChatTyping> chats = new ConcurrentHashMap<>();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder skippedFlushes = new LongAdder();
+
+    /**
+     * Record a typing frame from a user; {@code typing == false} is an explicit stop.
+     */
+    public void update(Long chatId, Long userId, String username, boolean typing) {
+        received.increment();
+        long now = System.currentTimeMillis();
+        
+        chats.compute(chatId, (id, chat) -> {
+            if (chat == null) {
+                if (!typing) {
+                    return null;
+                }
+                chat = new ChatTyping();
+            }
+            
+            if (typing) {
+                Typist previous = chat.typists.put(userId, new Typist(username, now + ttlMs));
+                chat.changed |= previous == null;
+            } else {
+                chat.changed |= chat.typists.remove(userId) != null;
+            }
+            return chat;
+        });
+    }
+
+    /**
+     * Expire stale entries and publish the chats whose typing set changed.
+     */
+    @Scheduled(fixedDelayString = "${chatapp.typing.flush-interval-ms:500}")
+    public void flush() {
+        if (chats.isEmpty()) {
+            return;
+        }
+        
+        if (clientOutboundExecutor.getThreadPoolExecutor().getQueue().size() > maxOutboundBacklog) {
+            skippedFlushes.increment();
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        for (Long chatId : new ArrayList<>(chats.keySet())) {
+            AtomicReference<List<Map<String, Object>>> snapshot = new AtomicReference<>();
+            
+            chats.computeIfPresent(chatId, (id, chat) -> {
+                chat.changed |= chat.typists.values().removeIf(typist -> typist.expiresAt <= now);
+                if (!chat.changed) {
+                    return chat;
+                }
+                
+                chat.changed = false;
+                List<Map<String, Object>> users = new ArrayList<>(chat.typists.size());
+                chat.typists.forEach((userId, typist) -> {
+                    Map<String, Object> user = new HashMap<>();
+                    user.put("userId", userId);
+                    user.put("username", typist.username);
+                    users.add(user);
+                });
+                snapshot.set(users);
+                return chat.typists.isEmpty() ? null : chat;
+            });
+            
+            // An empty list is published too; it is the "stopped typing" signal
+            if (snapshot.get() != null) {
+                Map<String, Object> event = new HashMap<>();
+                event.put("chatId", chatId);
+                event.put("users", snapshot.get());
+                messagingTemplate.convertAndSend("/topic/chat/" + chatId + "/typing", event);
+                published.increment();
+            }
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("activeChats", chats.size());
+        metrics.put("framesReceived", received.sum());
+        metrics.put("framesPublished", published.sum());
+        metrics.put("skippedFlushes", skippedFlushes.sum());
+        return metrics;
+    }
+
+    private static class ChatTyping {
+        private final Map<Long, Typist> typists = new HashMap<>();
+        private boolean changed;
+    }
+
+    private static class Typist {
+        private final String username;
+        private final long expiresAt;
+
+        Typist(String username, long expiresAt) {
+            this.username = username;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
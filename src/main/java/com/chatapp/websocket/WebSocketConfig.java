@@ -1,15 +1,18 @@
 package com.chatapp.websocket;
 
-import com.chatapp.security.JwtUtils;
-import com.chatapp.security.UserDetailsServiceImpl;
+import com.chatapp.security.TokenAuthenticator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.messaging.simp.stomp.StompCommand;
@@ -21,8 +24,11 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import java.util.List;
+
 @Configuration
 @EnableWebSocketMessageBroker
 @Order(Ordered.HIGHEST_PRECEDENCE + 99)
@@ -31,14 +37,86 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     private static final Logger logger = LoggerFactory.getLogger(WebSocketConfig.class);
 
     @Autowired
-    private JwtUtils jwtUtils;
+    private TokenAuthenticator tokenAuthenticator;
+
+    @Autowired
+    private PayloadFormatNegotiator payloadFormats;
+
+    @Autowired
+    private TransportMetrics transportMetrics;
+
+    @Autowired
+    private ChatDestinationGuard chatDestinationGuard;
+
+    @Autowired
+    private SlowConsumerGuard slowConsumerGuard;
+
+    @Autowired
+    private OutboundPriorityLanes priorityLanes;
+
+    @Autowired
+    private SessionResumption sessionResumption;
 
     @Autowired
-    private UserDetailsServiceImpl userDetailsService;
+    private ConnectAdmission connectAdmission;
+
+    @Value("${chatapp.websocket.inbound.core-pool-size:8}")
+    private int inboundCorePoolSize;
+
+    @Value("${chatapp.websocket.inbound.max-pool-size:16}")
+    private int inboundMaxPoolSize;
+
+    @Value("${chatapp.websocket.inbound.queue-capacity:5000}")
+    private int inboundQueueCapacity;
+
+    @Value("${chatapp.websocket.outbound.core-pool-size:8}")
+    private int outboundCorePoolSize;
+
+    @Value("${chatapp.websocket.outbound.max-pool-size:16}")
+    private int outboundMaxPoolSize;
+
+    @Value("${chatapp.websocket.outbound.queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    @Value("${chatapp.websocket.raw.permessage-deflate:true}")
+    private boolean permessageDeflate;
+
+    @Value("${chatapp.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${chatapp.cluster.relay.host:127.0.0.1}")
+    private String relayHost;
+
+    @Value("${chatapp.cluster.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${chatapp.cluster.relay.login:guest}")
+    private String relayLogin;
+
+    @Value("${chatapp.cluster.relay.passcode:guest}")
+    private String relayPasscode;
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        registry.enableSimpleBroker("/topic", "/queue");
+        if (clusterEnabled) {
+            // Every node relays /topic and /queue traffic through the shared STOMP broker, so a
+            // message published on one node reaches subscribers on all of them. The registry
+            // broadcast shares each node's sessions so /user destinations resolve cluster-wide,
+            // and sends to users not known locally are rebroadcast to the other nodes.
+            // ChatDestinationGuard only revokes subscriptions of sessions on the node where a
+            // member was removed or a chat deleted.
+            registry.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    .setUserDestinationBroadcast("/topic/cluster.unresolved-user-destination")
+                    .setUserRegistryBroadcast("/topic/cluster.user-registry");
+        } else {
+            registry.enableSimpleBroker("/topic", "/queue");
+        }
         registry.setApplicationDestinationPrefixes("/app");
         registry.setUserDestinationPrefix("/user");
     }
@@ -48,37 +126,94 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
+        // Native websocket endpoint without SockJS framing; sessions here can negotiate
+        // binary payload formats and permessage-deflate
+        registry.addEndpoint("/ws-raw")
+                .setAllowedOriginPatterns("*");
+        // Throttled CONNECTs get an ERROR frame telling the client when to retry
+        registry.setErrorHandler(connectAdmission.errorHandler());
+    }
+
+    @Bean
+    public FilterRegistrationBean<DeflateOfferFilter> deflateOfferFilter() {
+        FilterRegistrationBean<DeflateOfferFilter> registration = new FilterRegistrationBean<>(new DeflateOfferFilter());
+        registration.addUrlPatterns("/ws-raw");
+        registration.setEnabled(!permessageDeflate);
+        return registration;
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Applied in order, so the metrics see frames as they go out after format conversion
+        registration.addDecoratorFactory(payloadFormats::decorate);
+        registration.addDecoratorFactory(transportMetrics::decorate);
+        registration.addDecoratorFactory(slowConsumerGuard::decorate);
+        registration.setSendTimeLimit(slowConsumerGuard.getSendTimeLimitMs())
+                .setSendBufferSizeLimit(slowConsumerGuard.getSendBufferSizeLimit());
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        messageConverters.addAll(payloadFormats.inboundConverters());
+        // Keep the default JSON, string and byte array converters
+        return true;
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Threads only grow past the core size once the queue is full; beyond that, sends are rejected
+        registration.taskExecutor(new InstrumentedChannelExecutor())
+                .corePoolSize(outboundCorePoolSize)
+                .maxPoolSize(outboundMaxPoolSize)
+                .queueCapacity(outboundQueueCapacity);
+        // Drop frames for stalled sessions before spending time transcoding them; lanes
+        // come last so they queue the frames as they will be sent
+        registration.interceptors(slowConsumerGuard, payloadFormats, priorityLanes);
     }
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(new InstrumentedChannelExecutor())
+                .corePoolSize(inboundCorePoolSize)
+                .maxPoolSize(inboundMaxPoolSize)
+                .queueCapacity(inboundQueueCapacity);
         registration.interceptors(new ChannelInterceptor() {
             @Override
             public Message<?> preSend(Message<?> message, MessageChannel channel) {
                 StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
                 
                 if (StompCommand.CONNECT.equals(accessor.getCommand())) {
+                    // A resumed session is already authenticated and skips admission pacing
+                    boolean resumed = sessionResumption.resume(accessor);
+                    if (!resumed) {
+                        connectAdmission.admit();
+                    }
+
                     String token = accessor.getFirstNativeHeader("Authorization");
                     logger.debug("WebSocket Authorization: {}", token);
 
-                    if (token != null && token.startsWith("Bearer ")) {
+                    if (!resumed && token != null && token.startsWith("Bearer ")) {
                         token = token.substring(7);
                         
-                        if (jwtUtils.validateJwtToken(token)) {
-                            String username = jwtUtils.getUserNameFromJwtToken(token);
-                            UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-                            
+                        TokenAuthenticator.VerifiedToken verified = tokenAuthenticator.verify(token);
+                        if (verified != null) {
+                            UserDetails userDetails = verified.getPrincipal();
                             UsernamePasswordAuthenticationToken authentication =
                                     new UsernamePasswordAuthenticationToken(
                                             userDetails, null, userDetails.getAuthorities());
+                            // Lets session resumption recheck the token's expiry and revocation
+                            authentication.setDetails(verified);
                             
                             SecurityContextHolder.getContext().setAuthentication(authentication);
                             accessor.setUser(authentication);
                         }
                     }
+
+                    payloadFormats.negotiate(accessor.getSessionId(), accessor.getSessionAttributes(),
+                            accessor.getFirstNativeHeader(PayloadFormatNegotiator.FORMAT_HEADER));
                 }
                 return message;
             }
-        });
+        }, chatDestinationGuard, sessionResumption);
     }
 }
\ No newline at end of file
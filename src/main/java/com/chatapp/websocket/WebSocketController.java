@@ -4,9 +4,13 @@ import com.chatapp.model.Chat;
 import com.chatapp.model.Message;
 import com.chatapp.model.User;
 import com.chatapp.model.dto.MessageDto;
+import com.chatapp.model.dto.SyncRequest;
 import com.chatapp.security.UserDetailsImpl;
+import com.chatapp.service.ChatMembershipCache;
 import com.chatapp.service.ChatService;
+import com.chatapp.service.MailboxService;
 import com.chatapp.service.MessageService;
+import com.chatapp.service.SyncService;
 import com.chatapp.service.UserService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,7 +26,9 @@ import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.socket.messaging.SessionConnectedEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
 
+import javax.persistence.EntityNotFoundException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -44,8 +50,32 @@ public class WebSocketController {
     @Autowired
     private ChatService chatService;
     
-    // Store online users and their sessions
-    private final Map<Long, String> userSessions = new HashMap<>();
+    @Autowired
+    private MessageWriteBehindPipeline writeBehindPipeline;
+    
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+    
+    @Autowired
+    private PresenceDigestPublisher presenceDigests;
+    
+    @Autowired
+    private SyncService syncService;
+    
+    @Autowired
+    private FanoutPublisher fanoutPublisher;
+    
+    @Autowired
+    private MailboxService mailboxService;
+    
+    @Autowired
+    private ChatMembershipCache membershipCache;
+    
+    @Autowired
+    private TypingAggregator typingAggregator;
+    
+    @Autowired
+    private SessionResumption sessionResumption;
 
     @MessageMapping("/chat/{chatId}/send")
     public void sendMessage(@DestinationVariable Long chatId,
@@ -55,6 +85,13 @@ public class WebSocketController {
         UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
         Long userId = userDetails.getId();
         
+        // Pipeline mode: broadcast now, persist in batches, ack once durable.
+        // Offline members get mailbox entries once the message has an id.
+        if (writeBehindPipeline.isEnabled()) {
+            writeBehindPipeline.submit(chatId, messageDto, userDetails);
+            return;
+        }
+        
         User user = userService.findById(userId);
         Chat chat = chatService.findById(chatId);
         
@@ -69,31 +106,26 @@ public class WebSocketController {
         MessageDto savedMessageDto = messageService.convertToDto(savedMessage);
         
         // Send to chat topic
-        messagingTemplate.convertAndSend("/topic/chat/" + chatId, savedMessageDto);
+        fanoutPublisher.send("/topic/chat/" + chatId, fanoutPublisher.encode(savedMessageDto));
         
-        // Send to offline users' queues for retrieval when they come online
-        chat.getMembers().forEach(member -> {
-            if (!userSessions.containsKey(member.getId()) && !member.getId().equals(userId)) {
-                messagingTemplate.convertAndSendToUser(
-                        member.getUsername(),
-                        "/queue/messages",
-                        savedMessageDto
-                );
-            }
-        });
+        // The broker drops user-queue sends for users without a session, so offline
+        // members get a durable mailbox entry drained when they reconnect
+        mailboxService.deliver(chatId, savedMessage.getId(),
+                presenceRegistry.offlineUsers(membershipCache.getMembers(chatId).toArray(), userId));
     }
 
     @MessageMapping("/chat/{chatId}/typing")
     public void sendTypingIndicator(@DestinationVariable Long chatId,
+                                    @Payload(required = false) Map<String, Object> payload,
                                     Authentication authentication) {
         UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
+        if (!membershipCache.contains(chatId, userDetails.getId())) {
+            return;
+        }
         
-        Map<String, Object> typingEvent = new HashMap<>();
-        typingEvent.put("userId", userDetails.getId());
-        typingEvent.put("username", userDetails.getUsername());
-        typingEvent.put("typing", true);
-        
-        messagingTemplate.convertAndSend("/topic/chat/" + chatId + "/typing", typingEvent);
+        // Keystrokes are aggregated and published per chat on the aggregator's interval
+        boolean typing = payload == null || !Boolean.FALSE.equals(payload.get("typing"));
+        typingAggregator.update(chatId, userDetails.getId(), userDetails.getUsername(), typing);
     }
 
     @MessageMapping("/chat/{chatId}/read")
@@ -103,9 +135,17 @@ public class WebSocketController {
         UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
         Long userId = userDetails.getId();
         Long messageId = Long.valueOf(payload.get("messageId").toString());
+        if (!membershipCache.contains(chatId, userId)) {
+            return;
+        }
         
-        // Mark message as read by user
-        messageService.markAsRead(messageId, userId);
+        // Advance the user's read cursor for this chat; the message has to be one of its own
+        try {
+            messageService.markAsRead(chatId, messageId, userId);
+        } catch (EntityNotFoundException ex) {
+            logger.warn("User {} sent a read receipt for message {} outside chat {}", userId, messageId, chatId);
+            return;
+        }
         
         // Notify others in chat about read status
         Map<String, Object> readEvent = new HashMap<>();
@@ -116,6 +156,21 @@ public class WebSocketController {
         messagingTemplate.convertAndSend("/topic/chat/" + chatId + "/read", readEvent);
     }
 
+    /**
+     * Delta sync over the socket; the response goes to the caller's /user/queue/sync.
+     */
+    @MessageMapping("/sync")
+    public void sync(@Payload SyncRequest syncRequest,
+                     Authentication authentication) {
+        UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
+        
+        messagingTemplate.convertAndSendToUser(
+                userDetails.getUsername(),
+                "/queue/sync",
+                syncService.sync(syncRequest, userDetails.getId())
+        );
+    }
+
     @EventListener
     public void handleWebSocketConnectListener(SessionConnectedEvent event) {
         StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
@@ -127,22 +182,34 @@ public class WebSocketController {
             Long userId = userDetails.getId();
             String sessionId = headerAccessor.getSessionId();
             
-            // Store user's session
-            userSessions.put(userId, sessionId);
-            
-            // Update user's online status
-            userService.updateStatus(userId, "online");
-            
-            // Broadcast user's online status
-            Map<String, Object> statusUpdate = new HashMap<>();
-            statusUpdate.put("userId", userId);
-            statusUpdate.put("status", "online");
-            messagingTemplate.convertAndSend("/topic/users/status", statusUpdate);
+            // Only the first session brings the user online; the status write is batched by the registry
+            // and watchers hear about it in their next presence digest. Watchers were never told
+            // about a user back within the resume grace window.
+            if (presenceRegistry.connect(userId, sessionId) && !sessionResumption.cancelOffline(userId)) {
+                presenceDigests.publish(userId, PresenceRegistry.ONLINE);
+            }
             
             logger.info("User connected: {} ({})", userDetails.getUsername(), sessionId);
         }
     }
 
+    /**
+     * Drain the user's offline mailbox once they subscribe to it. Doing this on connect
+     * would lose events, as the client has no subscription yet at that point.
+     */
+    @EventListener
+    public void handleMailboxSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
+        String destination = headerAccessor.getDestination();
+        
+        Authentication authentication = (Authentication) headerAccessor.getUser();
+        if (destination != null && destination.endsWith(MailboxService.MAILBOX_DESTINATION)
+                && authentication != null && authentication.getPrincipal() instanceof UserDetailsImpl) {
+            UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
+            mailboxService.drain(userDetails.getId(), userDetails.getUsername());
+        }
+    }
+
     @EventListener
     public void handleWebSocketDisconnectListener(SessionDisconnectEvent event) {
         StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
@@ -152,21 +219,20 @@ public class WebSocketController {
         if (authentication != null && authentication.getPrincipal() instanceof UserDetailsImpl) {
             UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
             Long userId = userDetails.getId();
+            String sessionId = event.getSessionId();
             
-            // Remove user's session
-            userSessions.remove(userId);
-            
-            // Update user's online status
-            userService.updateLastActive(userId);
-            userService.updateStatus(userId, "offline");
-            
-            // Broadcast user's offline status
-            Map<String, Object> statusUpdate = new HashMap<>();
-            statusUpdate.put("userId", userId);
-            statusUpdate.put("status", "offline");
-            messagingTemplate.convertAndSend("/topic/users/status", statusUpdate);
+            // Other tabs or devices may still be connected; only the last session takes the user offline.
+            // A session that may still be resumed only tells watchers once its grace window ends.
+            boolean parked = sessionResumption.park(sessionId, event.getCloseStatus());
+            if (presenceRegistry.disconnect(userId, sessionId)) {
+                if (parked) {
+                    sessionResumption.deferOffline(userId);
+                } else {
+                    presenceDigests.publish(userId, PresenceRegistry.OFFLINE);
+                }
+            }
             
-            logger.info("User disconnected: {}", userDetails.getUsername());
+            logger.info("User disconnected: {} ({})", userDetails.getUsername(), sessionId);
         }
     }
 }
\ No newline at end of file
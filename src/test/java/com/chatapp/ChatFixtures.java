@@ -0,0 +1,79 @@
+package com.chatapp;
+
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.model.dto.MessageDto;
+import com.chatapp.model.dto.MessageRequest;
+import com.chatapp.repository.ChatRepository;
+import com.chatapp.repository.UserRepository;
+import com.chatapp.service.MessageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates users, chats and messages for integration tests. Membership rows are written
+ * directly: the entities' generated hashCode walks both sides of the association.
+ */
+@Component
+public class ChatFixtures {
+
+    private static final AtomicInteger names = new AtomicInteger();
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Transactional
+    public User user() {
+        int n = names.incrementAndGet();
+        User user = new User();
+        user.setUsername("user" + n);
+        user.setEmail("user" + n + "@example.com");
+        user.setPassword("secret");
+        return userRepository.save(user);
+    }
+
+    public List<User> users(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(user());
+        }
+        return users;
+    }
+
+    @Transactional
+    public Chat chat(User creator, List<User> members) {
+        Chat chat = new Chat();
+        chat.setName("chat" + names.incrementAndGet());
+        chat.setType(Chat.ChatType.GROUP);
+        chat.setCreator(userRepository.getById(creator.getId()));
+        Chat saved = chatRepository.save(chat);
+        
+        jdbcTemplate.update("INSERT INTO chat_members (user_id, chat_id) VALUES (?, ?)", creator.getId(), saved.getId());
+        for (User member : members) {
+            jdbcTemplate.update("INSERT INTO chat_members (user_id, chat_id) VALUES (?, ?)", member.getId(), saved.getId());
+        }
+        return saved;
+    }
+
+    public MessageDto message(Chat chat, User sender, String content) {
+        MessageRequest request = new MessageRequest();
+        request.setChatId(chat.getId());
+        request.setContent(content);
+        return messageService.createMessage(request, sender.getId());
+    }
+}
@@ -0,0 +1,26 @@
+package com.chatapp;
+
+import com.chatapp.service.LoginAttemptService;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Boots the application without a web server against a private in-memory database.
+ * <p>
+ * The servlet context does not start in this tree: UserController and FileController both map
+ * {@code POST /api/users/me/profile-picture}. LoginAttemptService is replaced because its
+ * encryptor salt is not hex.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@MockBean(LoginAttemptService.class)
+public @interface IntegrationTest {
+}
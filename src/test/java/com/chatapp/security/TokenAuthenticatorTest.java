@@ -0,0 +1,73 @@
+package com.chatapp.security;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.User;
+import com.chatapp.repository.TokenRevocationRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@IntegrationTest
+class TokenAuthenticatorTest {
+
+    @Autowired
+    private TokenAuthenticator tokenAuthenticator;
+
+    @Autowired
+    private TokenRevocationRepository revocationRepository;
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Test
+    void revocationIsLoadedFromTheDatabaseByANodeThatDidNotMakeIt() throws InterruptedException {
+        User user = fixtures.user();
+        String token = token(user);
+        assertThat(tokenAuthenticator.verify(token)).isNotNull();
+
+        // iat has second precision, so revoke in a later second than the token was issued
+        Thread.sleep(1100);
+        tokenAuthenticator.invalidateUser(user.getId());
+        assertThat(revocationRepository.findById(user.getId())).isPresent();
+
+        // A restarted node, or another one, starts with nothing in memory
+        revokedBefore().clear();
+        tokenAuthenticator.refreshRevocations();
+
+        assertThat(tokenAuthenticator.verify(token)).isNull();
+        assertThat(tokenAuthenticator.verify(token(user))).isNotNull();
+    }
+
+    @Test
+    void repeatedRevocationKeepsTheLatest() throws InterruptedException {
+        User user = fixtures.user();
+        tokenAuthenticator.invalidateUser(user.getId());
+        long first = revocationRepository.findById(user.getId()).orElseThrow().getRevokedBefore();
+
+        Thread.sleep(1100);
+        tokenAuthenticator.invalidateUser(user.getId());
+
+        assertThat(revocationRepository.findById(user.getId()).orElseThrow().getRevokedBefore()).isGreaterThan(first);
+    }
+
+    private String token(User user) {
+        UserDetailsImpl principal = new UserDetailsImpl(user.getId(), user.getUsername(), user.getEmail(),
+                user.getPassword(), Collections.emptyList());
+        return jwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken(principal, null, Collections.emptyList()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, Long> revokedBefore() {
+        return (Map<Long, Long>) ReflectionTestUtils.getField(tokenAuthenticator, "revokedBefore");
+    }
+}
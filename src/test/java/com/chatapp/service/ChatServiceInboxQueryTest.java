@@ -0,0 +1,68 @@
+package com.chatapp.service;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.model.dto.ChatDto;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The inbox is loaded with set-based queries, so the number of SQL statements behind
+ * {@code GET /api/chats} must not grow with the number of chats.
+ */
+@IntegrationTest
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class ChatServiceInboxQueryTest {
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void statementCountStaysFlatAsChatsGrow() {
+        long few = statementsForInbox(5);
+        long many = statementsForInbox(60);
+        
+        // chats, members, users with roles, last messages, unread counts
+        assertThat(few).isLessThanOrEqualTo(5);
+        assertThat(many).isEqualTo(few);
+    }
+
+    private long statementsForInbox(int chatCount) {
+        User owner = fixtures.user();
+        List<User> others = fixtures.users(3);
+        for (int i = 0; i < chatCount; i++) {
+            Chat chat = fixtures.chat(owner, others);
+            fixtures.message(chat, others.get(i % others.size()), "hello " + i);
+            fixtures.message(chat, owner, "reply " + i);
+        }
+        
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        List<ChatDto> inbox = chatService.findChatsByUserId(owner.getId());
+        long statements = statistics.getPrepareStatementCount();
+        
+        assertThat(inbox).hasSize(chatCount);
+        assertThat(inbox).allSatisfy(chat -> {
+            assertThat(chat.getMembers()).hasSize(4);
+            assertThat(chat.getLastMessage().getContent()).startsWith("reply");
+            assertThat(chat.getUnreadCount()).isZero();
+        });
+        return statements;
+    }
+}
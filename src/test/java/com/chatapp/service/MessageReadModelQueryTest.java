@@ -0,0 +1,111 @@
+package com.chatapp.service;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.model.dto.MessageDto;
+import com.chatapp.model.dto.MessageRequest;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.persistence.EntityManagerFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * History pages are assembled from batched side queries keyed by the page's message ids,
+ * so a page costs the same number of statements whatever its size.
+ */
+@IntegrationTest
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class MessageReadModelQueryTest {
+
+    @Autowired
+    private MessageReadModel messageReadModel;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private ReactionService reactionService;
+
+    @Autowired
+    private ReadCursorService readCursorService;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private User viewer;
+    private Chat chat;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        viewer = fixtures.user();
+        List<User> others = fixtures.users(4);
+        chat = fixtures.chat(viewer, others);
+        
+        // Several senders; every message has a reply, an attachment and reactions
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            User sender = i % 5 == 0 ? viewer : others.get(i % others.size());
+            MessageRequest request = new MessageRequest();
+            request.setChatId(chat.getId());
+            request.setContent("message " + i);
+            request.setReplyToId(ids.isEmpty() ? null : ids.get(ids.size() - 1));
+            Long id = messageService.createMessage(request, sender.getId()).getId();
+            ids.add(id);
+            
+            fileStorageService.storeMessageAttachment(new MockMultipartFile("file", "notes" + i + ".txt", "text/plain",
+                    ("attachment " + i).getBytes(StandardCharsets.UTF_8)), id);
+            reactionService.addReaction(id, viewer.getId(), "+1");
+            reactionService.addReaction(id, others.get(0).getId(), "heart");
+        }
+        reactionService.flush();
+        for (User other : others) {
+            readCursorService.advance(chat.getId(), other.getId(), ids.get(30));
+        }
+    }
+
+    @Test
+    void statementCountDoesNotDependOnPageSize() {
+        long small = statementsForPage(5);
+        long large = statementsForPage(50);
+        
+        // history rows, reply previews, users with roles, attachments, reaction counts, the
+        // viewer's reactions, then member count, read cursors and their users for receipts
+        assertThat(small).isLessThanOrEqualTo(9);
+        assertThat(large).isEqualTo(small);
+    }
+
+    private long statementsForPage(int size) {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        List<MessageDto> page = messageReadModel.findPage(chat.getId(), 0, size, viewer.getId()).getContent();
+        long statements = statistics.getPrepareStatementCount();
+        
+        assertThat(page).hasSize(size);
+        assertThat(page).allSatisfy(message -> {
+            assertThat(message.getSender()).isNotNull();
+            assertThat(message.getReplyTo().getSender()).isNotNull();
+            assertThat(message.getAttachments()).hasSize(1);
+            assertThat(message.getReactions()).containsKeys("+1", "heart");
+            assertThat(message.getMyReactions()).containsExactly("+1");
+        });
+        return statements;
+    }
+}
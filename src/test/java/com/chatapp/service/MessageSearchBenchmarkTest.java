@@ -0,0 +1,142 @@
+package com.chatapp.service;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the Lucene index with the {@code content LIKE %keyword%} scan it replaced, on the
+ * same data and the same membership filter. Both must find the same messages. The old
+ * endpoint scanned the table for every request, the new one serves a ranked page with
+ * snippets; the time each takes is logged for comparison.
+ */
+@IntegrationTest
+class MessageSearchBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearchBenchmarkTest.class);
+
+    private static final int CHATS = 20;
+    private static final int MESSAGES_PER_CHAT = 5000;
+    private static final int ROUNDS = 30;
+    private static final int PAGE_SIZE = 20;
+
+    // The query the old MessageRepository.searchMessagesForUser issued
+    private static final String LIKE_SQL =
+            "SELECT m.id FROM messages m WHERE m.content LIKE ? AND m.chat_id IN " +
+            "(SELECT cm.chat_id FROM chat_members cm WHERE cm.user_id = ?)";
+
+    private static final String[] WORDS = {
+            "lunch", "meeting", "deploy", "weekend", "release", "coffee", "review", "ticket",
+            "budget", "holiday", "server", "design", "invoice", "update", "schedule", "report"
+    };
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void indexMatchesLikeScan() {
+        User user = fixtures.user();
+        User other = fixtures.user();
+        List<Long> memberChatIds = new ArrayList<>();
+        for (int c = 0; c < CHATS; c++) {
+            // Half of the chats do not include the searching user
+            Chat chat = c % 2 == 0
+                    ? fixtures.chat(user, Collections.singletonList(other))
+                    : fixtures.chat(other, Collections.emptyList());
+            if (c % 2 == 0) {
+                memberChatIds.add(chat.getId());
+            }
+            seedMessages(chat.getId(), other.getId(), c);
+        }
+        messageSearchIndex.rebuild();
+        
+        String keyword = "zephyrine";
+        Set<Long> likeIds = new HashSet<>(likeSearch(keyword, user.getId()));
+        Set<Long> indexIds = new HashSet<>(indexSearch(keyword, memberChatIds));
+        assertThat(likeIds).isNotEmpty();
+        assertThat(indexIds).isEqualTo(likeIds);
+        
+        long likeNanos = medianNanos(() -> likeSearch(keyword, user.getId()));
+        long indexNanos = medianNanos(() -> messageSearchIndex.search(keyword, memberChatIds, null, PAGE_SIZE));
+        logger.info("Search over {} messages ({} matches): LIKE scan {} us, index page of {} {} us (median of {})",
+                CHATS * MESSAGES_PER_CHAT, likeIds.size(), likeNanos / 1000, PAGE_SIZE, indexNanos / 1000, ROUNDS);
+    }
+
+    private void seedMessages(Long chatId, Long senderId, int chatIndex) {
+        Random random = new Random(chatIndex);
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>(MESSAGES_PER_CHAT);
+        for (int i = 0; i < MESSAGES_PER_CHAT; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int w = 0; w < 12; w++) {
+                content.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            // A rare word in roughly one message in 1000
+            if (random.nextInt(1000) == 0) {
+                content.append("zephyrine");
+            }
+            rows.add(new Object[]{content.toString().trim(), chatId, senderId, (long) i + 1, now});
+        }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO messages (content, chat_id, sender_id, sequence, edited, deleted, created_at) " +
+                "VALUES (?, ?, ?, ?, FALSE, FALSE, ?)", rows);
+    }
+
+    private List<Long> likeSearch(String keyword, Long userId) {
+        return jdbcTemplate.queryForList(LIKE_SQL, Long.class, "%" + keyword + "%", userId);
+    }
+
+    private List<Long> indexSearch(String keyword, List<Long> chatIds) {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            MessageSearchIndex.Results results = messageSearchIndex.search(keyword, chatIds, cursor, PAGE_SIZE);
+            ids.addAll(results.getHits().stream()
+                    .map(MessageSearchIndex.Hit::getMessageId)
+                    .collect(Collectors.toList()));
+            cursor = results.getNextCursor();
+        } while (cursor != null);
+        return ids;
+    }
+
+    private long medianNanos(Supplier<?> search) {
+        // Let the JIT settle before sampling
+        for (int i = 0; i < 200; i++) {
+            search.get();
+        }
+        long[] samples = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            search.get();
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[ROUNDS / 2];
+    }
+}
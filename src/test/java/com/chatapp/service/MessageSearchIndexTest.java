@@ -0,0 +1,99 @@
+package com.chatapp.service;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.model.dto.MessageDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@IntegrationTest
+class MessageSearchIndexTest {
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void reconcileReplaysUpdatesLostSinceTheLastCommit() {
+        User user = fixtures.user();
+        Chat chat = fixtures.chat(user, Collections.emptyList());
+        MessageDto edited = fixtures.message(chat, user, "original wording");
+        MessageDto deleted = fixtures.message(chat, user, "soon removed");
+        messageSearchIndex.commit();
+        
+        // Written to the database after the last index commit, then the process died
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.update("INSERT INTO messages (content, chat_id, sender_id, sequence, edited, deleted, created_at) " +
+                "VALUES ('arrived during the crash', ?, ?, 10, FALSE, FALSE, ?)", chat.getId(), user.getId(), now);
+        jdbcTemplate.update("UPDATE messages SET content = 'revised wording' WHERE id = ?", edited.getId());
+        jdbcTemplate.update("INSERT INTO message_changes (chat_id, sequence, message_id, type, created_at) " +
+                "VALUES (?, 11, ?, 'EDITED', ?)", chat.getId(), edited.getId(), now);
+        jdbcTemplate.update("DELETE FROM messages WHERE id = ?", deleted.getId());
+        jdbcTemplate.update("INSERT INTO message_changes (chat_id, sequence, message_id, type, created_at) " +
+                "VALUES (?, 12, ?, 'DELETED', ?)", chat.getId(), deleted.getId(), now);
+        
+        messageSearchIndex.reconcile();
+        
+        List<Long> chatIds = Collections.singletonList(chat.getId());
+        assertThat(search("crash", chatIds)).hasSize(1);
+        assertThat(search("revised", chatIds)).containsExactly(edited.getId());
+        assertThat(search("original", chatIds)).isEmpty();
+        assertThat(search("removed", chatIds)).isEmpty();
+    }
+
+    @Test
+    void pagesFollowTheCursorWithoutRepeats() {
+        User user = fixtures.user();
+        Chat chat = fixtures.chat(user, Collections.emptyList());
+        for (int i = 0; i < 7; i++) {
+            fixtures.message(chat, user, "paging sample " + i);
+        }
+        
+        List<Long> chatIds = Collections.singletonList(chat.getId());
+        MessageSearchIndex.Results first = messageSearchIndex.search("paging", chatIds, null, 4);
+        MessageSearchIndex.Results second = messageSearchIndex.search("paging", chatIds, first.getNextCursor(), 4);
+        
+        assertThat(first.getHits()).hasSize(4);
+        assertThat(first.getNextCursor()).isNotNull();
+        assertThat(second.getHits()).hasSize(3);
+        assertThat(second.getNextCursor()).isNull();
+        assertThat(ids(second)).doesNotContainAnyElementsOf(ids(first));
+    }
+
+    @Test
+    void emptyPageIsRejectedAsABadArgument() {
+        User user = fixtures.user();
+        Chat chat = fixtures.chat(user, Collections.emptyList());
+        fixtures.message(chat, user, "sizing sample");
+        
+        assertThatThrownBy(() -> messageSearchIndex.search("sizing", Collections.singletonList(chat.getId()), null, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<Long> search(String query, List<Long> chatIds) {
+        return ids(messageSearchIndex.search(query, chatIds, null, 20));
+    }
+
+    private List<Long> ids(MessageSearchIndex.Results results) {
+        return results.getHits().stream()
+                .map(MessageSearchIndex.Hit::getMessageId)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,109 @@
+package com.chatapp.service;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.model.dto.MessageDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@IntegrationTest
+class ReactionServiceTest {
+
+    @Autowired
+    private ReactionService reactionService;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void concurrentDuplicateReactionsAreAddedOnce() throws Exception {
+        User sender = fixtures.user();
+        User reactor = fixtures.user();
+        Chat chat = fixtures.chat(sender, Collections.singletonList(reactor));
+        MessageDto message = fixtures.message(chat, sender, "hello");
+
+        // The same click arriving from several sessions at once
+        List<Boolean> added = runConcurrently(8, i -> reactionService.addReaction(message.getId(), reactor.getId(), "👍"));
+
+        assertThat(added.stream().filter(Boolean::booleanValue).count()).isEqualTo(1);
+        assertThat(reactionService.getCounts(message.getId())).containsEntry("👍", 1);
+    }
+
+    @Test
+    void concurrentFirstReactionsWithOneEmojiAreAllCounted() throws Exception {
+        User sender = fixtures.user();
+        List<User> reactors = fixtures.users(8);
+        Chat chat = fixtures.chat(sender, reactors);
+        MessageDto message = fixtures.message(chat, sender, "hello");
+
+        List<Boolean> added = runConcurrently(reactors.size(),
+                i -> reactionService.addReaction(message.getId(), reactors.get(i).getId(), "🎉"));
+
+        assertThat(added).containsOnly(true);
+        assertThat(reactionService.getCounts(message.getId())).containsEntry("🎉", reactors.size());
+    }
+
+    @Test
+    void deletingChatReactionsLeavesOtherChatsAlone() {
+        User sender = fixtures.user();
+        Chat chat = fixtures.chat(sender, Collections.emptyList());
+        Chat other = fixtures.chat(sender, Collections.emptyList());
+        MessageDto message = fixtures.message(chat, sender, "hello");
+        MessageDto kept = fixtures.message(other, sender, "hello");
+        reactionService.addReaction(message.getId(), sender.getId(), "👍");
+        reactionService.addReaction(kept.getId(), sender.getId(), "👍");
+
+        reactionService.deleteReactionsForChat(chat.getId());
+
+        assertThat(reactionService.getCounts(message.getId())).isEmpty();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_reactions WHERE message_id = ?",
+                Long.class, message.getId())).isZero();
+        assertThat(reactionService.getCounts(kept.getId())).containsEntry("👍", 1);
+    }
+
+    private static <T> List<T> runConcurrently(int tasks, IndexedTask<T> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                int index = i;
+                futures.add(executor.submit((Callable<T>) () -> {
+                    start.await();
+                    return task.run(index);
+                }));
+            }
+            start.countDown();
+
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get(10, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private interface IndexedTask<T> {
+        T run(int index);
+    }
+}
@@ -0,0 +1,111 @@
+package com.chatapp.service;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.model.dto.MessageDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.persistence.EntityNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@IntegrationTest
+class ReadCursorServiceTest {
+
+    @Autowired
+    private ReadCursorService readCursorService;
+
+    @Autowired
+    private ReadCursorBackfill readCursorBackfill;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void concurrentFirstReadsCreateOneCursor() throws Exception {
+        User sender = fixtures.user();
+        List<User> readers = fixtures.users(20);
+        Chat chat = fixtures.chat(sender, readers);
+        List<Long> messageIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            messageIds.add(fixtures.message(chat, sender, "m" + i).getId());
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (User reader : readers) {
+                // Every reader's first reads arrive at once from several sessions
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> reads = new ArrayList<>();
+                for (Long messageId : messageIds) {
+                    reads.add(executor.submit(() -> {
+                        start.await();
+                        readCursorService.advance(chat.getId(), reader.getId(), messageId);
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> read : reads) {
+                    read.get(10, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        for (User reader : readers) {
+            assertThat(readCursorService.getLastReadMessageId(chat.getId(), reader.getId()))
+                    .isEqualTo(messageIds.get(messageIds.size() - 1));
+            assertThat(readCursorService.countUnread(chat.getId(), reader.getId())).isZero();
+        }
+    }
+
+    @Test
+    void backfillSeedsCursorsFromLegacyReceipts() {
+        User sender = fixtures.user();
+        User reader = fixtures.user();
+        Chat chat = fixtures.chat(sender, Collections.singletonList(reader));
+        MessageDto first = fixtures.message(chat, sender, "first");
+        MessageDto second = fixtures.message(chat, sender, "second");
+        fixtures.message(chat, sender, "third");
+        
+        jdbcTemplate.update("INSERT INTO message_read_by (message_id, user_id) VALUES (?, ?)", first.getId(), reader.getId());
+        jdbcTemplate.update("INSERT INTO message_read_by (message_id, user_id) VALUES (?, ?)", second.getId(), reader.getId());
+        readCursorBackfill.backfill();
+        
+        assertThat(readCursorService.getLastReadMessageId(chat.getId(), reader.getId())).isEqualTo(second.getId());
+        assertThat(readCursorService.countUnread(chat.getId(), reader.getId())).isEqualTo(1L);
+    }
+
+    @Test
+    void readReceiptMustNameTheMessagesChat() {
+        User sender = fixtures.user();
+        User reader = fixtures.user();
+        Chat chat = fixtures.chat(sender, Collections.singletonList(reader));
+        Chat other = fixtures.chat(reader, Collections.emptyList());
+        MessageDto message = fixtures.message(chat, sender, "hello");
+        
+        assertThatThrownBy(() -> messageService.markAsRead(other.getId(), message.getId(), reader.getId()))
+                .isInstanceOf(EntityNotFoundException.class);
+        assertThat(readCursorService.getLastReadMessageId(other.getId(), reader.getId())).isNull();
+    }
+}
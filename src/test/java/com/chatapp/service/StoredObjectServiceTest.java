@@ -0,0 +1,155 @@
+package com.chatapp.service;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Attachment;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.repository.StoredObjectRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@IntegrationTest
+class StoredObjectServiceTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private StoredObjectService storedObjectService;
+
+    @Autowired
+    private StoredObjectRepository storedObjectRepository;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private User sender;
+    private Chat chat;
+
+    @BeforeEach
+    void setUp() {
+        sender = fixtures.user();
+        chat = fixtures.chat(sender, fixtures.users(1));
+    }
+
+    @Test
+    void rolledBackUploadReleasesItsReference() {
+        Long messageId = fixtures.message(chat, sender, "with file").getId();
+        MockMultipartFile file = file();
+        
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            store(file, messageId);
+            status.setRollbackOnly();
+        });
+        
+        assertThat(refCount(file)).isZero();
+    }
+
+    @Test
+    void deletingMessageReleasesAttachmentContent() {
+        Long messageId = fixtures.message(chat, sender, "with file").getId();
+        MockMultipartFile file = file();
+        store(file, messageId);
+        store(file, fixtures.message(chat, sender, "same file").getId());
+        assertThat(refCount(file)).isEqualTo(2);
+        
+        messageService.deleteMessage(messageId);
+        
+        assertThat(refCount(file)).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentFirstUploadsOfTheSameContentShareOneObject() throws Exception {
+        MockMultipartFile file = file();
+        List<Long> messageIds = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            messageIds.add(fixtures.message(chat, sender, "upload " + i).getId());
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(messageIds.size());
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> uploads = new ArrayList<>();
+            for (Long messageId : messageIds) {
+                uploads.add(executor.submit(() -> {
+                    start.await();
+                    return store(file, messageId);
+                }));
+            }
+            start.countDown();
+            for (Future<?> upload : uploads) {
+                upload.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        assertThat(refCount(file)).isEqualTo(messageIds.size());
+    }
+
+    @Test
+    void collectedContentIsCommittedAgainByTheNextUpload() throws Exception {
+        byte[] bytes = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+        String hash = storedObjectService.store(new ByteArrayInputStream(bytes)).getHash();
+        storedObjectService.release(hash);
+        
+        storedObjectService.collectGarbage();
+        assertThat(storedObjectRepository.findById(hash)).isEmpty();
+        assertThat(contentStore.exists(hash)).isFalse();
+        
+        storedObjectService.store(new ByteArrayInputStream(bytes));
+        assertThat(storedObjectRepository.findById(hash).orElseThrow().getRefCount()).isEqualTo(1);
+        assertThat(contentStore.exists(hash)).isTrue();
+    }
+
+    private Attachment store(MockMultipartFile file, Long messageId) {
+        try {
+            return fileStorageService.storeMessageAttachment(file, messageId);
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private long refCount(MockMultipartFile file) {
+        try {
+            String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(file.getBytes()));
+            return storedObjectRepository.findById(hash).orElseThrow().getRefCount();
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private MockMultipartFile file() {
+        return new MockMultipartFile("file", "notes.txt", "text/plain",
+                UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,103 @@
+package com.chatapp.service;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.model.dto.MessageDto;
+import com.chatapp.model.dto.SyncRequest;
+import com.chatapp.model.dto.SyncResponseDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@IntegrationTest
+class SyncServiceTest {
+
+    @Autowired
+    private SyncService syncService;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private MessageSequencer messageSequencer;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private User member;
+    private Chat chat;
+
+    @BeforeEach
+    void setUp() {
+        member = fixtures.user();
+        chat = fixtures.chat(member, Collections.emptyList());
+    }
+
+    @Test
+    void syncStopsBeforeAnOpenSequence() {
+        MessageDto first = fixtures.message(chat, member, "first");
+        // Taken by a writer that has not committed yet
+        long open = messageSequencer.next(chat.getId());
+        MessageDto third = fixtures.message(chat, member, "third");
+        
+        SyncResponseDto.ChatSync held = sync(0);
+        assertThat(held.getMessages()).extracting(MessageDto::getId).containsExactly(first.getId());
+        assertThat(held.getSyncedTo()).isEqualTo(first.getSequence());
+        
+        messageSequencer.settle(chat.getId(), open);
+        
+        SyncResponseDto.ChatSync caughtUp = sync(held.getSyncedTo());
+        assertThat(caughtUp.getMessages()).extracting(MessageDto::getId).containsExactly(third.getId());
+        assertThat(caughtUp.getSyncedTo()).isEqualTo(third.getSequence());
+    }
+
+    @Test
+    void rolledBackWriteLeavesAGapSyncMovesPast() {
+        fixtures.message(chat, member, "first");
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            messageSequencer.next(chat.getId());
+            status.setRollbackOnly();
+        });
+        MessageDto edited = fixtures.message(chat, member, "edit me");
+        messageService.updateMessage(edited.getId(), Collections.singletonMap("content", "edited"));
+        
+        SyncResponseDto.ChatSync sync = sync(0);
+        assertThat(sync.getMessages()).hasSize(2);
+        assertThat(sync.getChanges()).extracting(SyncResponseDto.Change::getType).containsExactly("EDITED");
+        assertThat(sync.getSyncedTo()).isEqualTo(messageSequencer.committedThrough(chat.getId()));
+        assertThat(sync.isHasMore()).isFalse();
+    }
+
+    @Test
+    void gapAtTheEndIsSkipped() {
+        MessageDto message = fixtures.message(chat, member, "only");
+        long rejected = messageSequencer.next(chat.getId());
+        messageSequencer.settle(chat.getId(), rejected);
+        
+        SyncResponseDto.ChatSync sync = sync(message.getSequence());
+        assertThat(sync.getMessages()).isEmpty();
+        assertThat(sync.getSyncedTo()).isEqualTo(rejected);
+    }
+
+    private SyncResponseDto.ChatSync sync(long after) {
+        Map<Long, Long> positions = Collections.singletonMap(chat.getId(), after);
+        SyncResponseDto response = syncService.sync(SyncRequest.builder().chats(positions).build(), member.getId());
+        
+        Map<Long, SyncResponseDto.ChatSync> byChat = response.getChats().stream()
+                .collect(Collectors.toMap(SyncResponseDto.ChatSync::getChatId, chatSync -> chatSync));
+        return byChat.get(chat.getId());
+    }
+}
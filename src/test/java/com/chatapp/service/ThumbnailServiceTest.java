@@ -0,0 +1,89 @@
+package com.chatapp.service;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Attachment;
+import com.chatapp.model.StoredObject;
+import com.chatapp.model.ThumbnailJob;
+import com.chatapp.model.User;
+import com.chatapp.repository.AttachmentThumbnailRepository;
+import com.chatapp.repository.StoredObjectRepository;
+import com.chatapp.repository.ThumbnailJobRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.doThrow;
+
+@IntegrationTest
+@TestPropertySource(properties = "chatapp.thumbnails.max-attempts=1")
+class ThumbnailServiceTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private ThumbnailJobRepository thumbnailJobRepository;
+
+    @Autowired
+    private StoredObjectRepository storedObjectRepository;
+
+    @SpyBean
+    private AttachmentThumbnailRepository attachmentThumbnailRepository;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Test
+    void failedThumbnailSaveReleasesStoredThumbnails() throws Exception {
+        doThrow(new DataIntegrityViolationException("simulated")).when(attachmentThumbnailRepository).saveAll(anyIterable());
+        
+        User sender = fixtures.user();
+        Long messageId = fixtures.message(fixtures.chat(sender, List.of()), sender, "picture").getId();
+        Attachment attachment = fileStorageService.storeMessageAttachment(
+                new MockMultipartFile("file", "picture.png", "image/png", png(800, 600)), messageId);
+        
+        ThumbnailJob job = awaitJob(attachment.getId(), ThumbnailJob.JobStatus.FAILED);
+        assertThat(job.getAttempts()).isEqualTo(1);
+        
+        List<StoredObject> thumbnails = storedObjectRepository.findAll().stream()
+                .filter(object -> !object.getHash().equals(attachment.getContentHash()))
+                .collect(Collectors.toList());
+        assertThat(thumbnails).isNotEmpty();
+        assertThat(thumbnails).allSatisfy(object -> assertThat(object.getRefCount()).isZero());
+    }
+
+    private ThumbnailJob awaitJob(Long attachmentId, ThumbnailJob.JobStatus status) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (ThumbnailJob job : thumbnailJobRepository.findAll()) {
+                if (job.getAttachmentId().equals(attachmentId) && job.getStatus() == status) {
+                    return job;
+                }
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Thumbnail job for attachment " + attachmentId + " never reached " + status);
+    }
+
+    private static byte[] png(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            image.setRGB(x, x % height, 0xff8800);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,73 @@
+package com.chatapp.websocket;
+
+import com.chatapp.security.UserDetailsImpl;
+import com.chatapp.service.ChatMembershipCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.Principal;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * SUBSCRIBE frames going through the guard for a user who is a member of chat 1 only.
+ */
+class ChatDestinationGuardTest {
+
+    private final ChatMembershipCache membershipCache = mock(ChatMembershipCache.class);
+    private final ChatDestinationGuard guard = new ChatDestinationGuard();
+
+    private final Principal user = new UsernamePasswordAuthenticationToken(
+            new UserDetailsImpl(7L, "member", "member@example.com", "", Collections.emptyList()),
+            null, Collections.emptyList());
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(guard, "membershipCache", membershipCache);
+        when(membershipCache.contains(1L, 7L)).thenReturn(true);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"/topic/chat/1", "/topic/chat/1/typing", "/topic/presence", "/queue/errors"})
+    void subscriptionToMemberChatOrOtherDestinationIsLetThrough(String destination) {
+        assertThat(subscribe(destination)).isNotNull();
+        assertThat(guard.getMetrics().get("deniedSubscribes")).isEqualTo(0L);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"/topic/chat/*", "/topic/chat/**", "/topic/**", "/topic/chat/{id}",
+            "/topic/chat/?", "/topic/chat.#", "/queue/*", "/user/queue/**", "/topic/chat/1/*"})
+    void subscriptionToPatternIsDropped(String destination) {
+        assertThat(subscribe(destination)).isNull();
+        assertThat(guard.getMetrics().get("deniedSubscribes")).isEqualTo(1L);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"/topic/chat/", "/topic/chat//1", "/topic/chat/abc", "/topic/chat/1x",
+            "/topic/chat/9999999999999999999", "/topic/chat/2"})
+    void subscriptionToUnparseableOrForeignChatIsDropped(String destination) {
+        assertThat(subscribe(destination)).isNull();
+        assertThat(guard.getMetrics().get("deniedSubscribes")).isEqualTo(1L);
+    }
+
+    private Message<?> subscribe(String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId("session-1");
+        accessor.setSubscriptionId("sub-1");
+        accessor.setDestination(destination);
+        accessor.setUser(user);
+        return guard.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()),
+                mock(MessageChannel.class));
+    }
+}
@@ -0,0 +1,165 @@
+package com.chatapp.websocket;
+
+import com.chatapp.ChatApplication;
+import com.chatapp.ChatFixtures;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.security.UserDetailsImpl;
+import com.chatapp.service.LoginAttemptService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Two nodes in cluster mode relaying through the embedded broker that the first one runs:
+ * a message published on node A reaches a session subscribed on node B.
+ */
+class ClusterRelayTest {
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    @AfterEach
+    void stopNodes() {
+        Collections.reverse(nodes);
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    void chatMessagePublishedOnOneNodeReachesSubscriberOnAnother() throws Exception {
+        int port = freePort();
+        ConfigurableApplicationContext nodeA = start(port, true);
+        ConfigurableApplicationContext nodeB = start(port, false);
+        awaitRelay(nodeA);
+        awaitRelay(nodeB);
+        
+        // Each node has its own database here; membership is checked where the session lives
+        ChatFixtures fixtures = nodeB.getBean(ChatFixtures.class);
+        User user = fixtures.user();
+        Chat chat = fixtures.chat(user, Collections.emptyList());
+        String destination = "/topic/chat/" + chat.getId();
+        
+        BlockingQueue<StompHeaderAccessor> frames = new LinkedBlockingQueue<>();
+        nodeB.getBean("clientOutboundChannel", AbstractSubscribableChannel.class).addInterceptor(new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+                if ("b-session".equals(accessor.getSessionId())) {
+                    frames.add(accessor);
+                }
+                return message;
+            }
+        });
+        
+        MessageChannel inbound = nodeB.getBean("clientInboundChannel", MessageChannel.class);
+        UsernamePasswordAuthenticationToken principal = principal(user);
+        inbound.send(frame(StompCommand.CONNECT, principal, accessor -> accessor.setAcceptVersion("1.2")));
+        assertThat(next(frames, StompCommand.CONNECTED)).isNotNull();
+        
+        inbound.send(frame(StompCommand.SUBSCRIBE, principal, accessor -> {
+            accessor.setDestination(destination);
+            accessor.setSubscriptionId("sub-1");
+            accessor.setReceipt("subscribed");
+        }));
+        assertThat(next(frames, StompCommand.RECEIPT).getReceiptId()).isEqualTo("subscribed");
+        
+        nodeA.getBean(SimpMessageSendingOperations.class).convertAndSend(destination, "hello from A");
+        
+        StompHeaderAccessor delivered = next(frames, StompCommand.MESSAGE);
+        assertThat(delivered.getDestination()).isEqualTo(destination);
+        assertThat(delivered.getSubscriptionId()).isEqualTo("sub-1");
+    }
+
+    private ConfigurableApplicationContext start(int brokerPort, boolean embeddedBroker) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(ChatApplication.class, MockedLoginAttempts.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                // Arguments rather than default properties, which application.properties would override
+                .run("--spring.main.allow-bean-definition-overriding=true",
+                        "--chatapp.cluster.enabled=true",
+                        "--chatapp.cluster.relay.port=" + brokerPort,
+                        "--chatapp.cluster.embedded-broker.enabled=" + embeddedBroker,
+                        "--chatapp.cluster.embedded-broker.port=" + brokerPort);
+        nodes.add(context);
+        return context;
+    }
+
+    private void awaitRelay(ConfigurableApplicationContext node) throws InterruptedException {
+        AbstractBrokerMessageHandler relay = node.getBean("stompBrokerRelayMessageHandler", AbstractBrokerMessageHandler.class);
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (!relay.isBrokerAvailable() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(relay.isBrokerAvailable()).as("relay connected to the broker").isTrue();
+    }
+
+    private static Message<byte[]> frame(StompCommand command, UsernamePasswordAuthenticationToken principal,
+                                         java.util.function.Consumer<StompHeaderAccessor> headers) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId("b-session");
+        accessor.setSessionAttributes(new HashMap<>());
+        accessor.setUser(principal);
+        headers.accept(accessor);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage("".getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    private static StompHeaderAccessor next(BlockingQueue<StompHeaderAccessor> frames, StompCommand command)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            StompHeaderAccessor frame = frames.poll(100, TimeUnit.MILLISECONDS);
+            if (frame != null && command.equals(frame.getCommand())) {
+                return frame;
+            }
+        }
+        throw new AssertionError("No " + command + " frame for the session on node B");
+    }
+
+    private static UsernamePasswordAuthenticationToken principal(User user) {
+        UserDetailsImpl details = new UserDetailsImpl(user.getId(), user.getUsername(), user.getEmail(),
+                user.getPassword(), Collections.emptyList());
+        return new UsernamePasswordAuthenticationToken(details, null, details.getAuthorities());
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Stands in for the real bean like @MockBean does for the single-node tests
+    @Configuration
+    static class MockedLoginAttempts {
+        @Bean
+        public LoginAttemptService loginAttemptService() {
+            return Mockito.mock(LoginAttemptService.class);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.chatapp.websocket;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.model.dto.MessageDto;
+import com.chatapp.security.UserDetailsImpl;
+import com.chatapp.service.ChatMembershipCache;
+import com.chatapp.service.MessageSequencer;
+import com.chatapp.service.ReadCursorService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@IntegrationTest
+@TestPropertySource(properties = {
+        "chatapp.messaging.write-behind.enabled=true",
+        "chatapp.messaging.write-behind.flush-interval-ms=200"
+})
+class MessageWriteBehindPipelineTest {
+
+    @Autowired
+    private MessageWriteBehindPipeline pipeline;
+
+    @Autowired
+    private ReadCursorService readCursorService;
+
+    @Autowired
+    private MessageSequencer messageSequencer;
+
+    @Autowired
+    private ChatMembershipCache membershipCache;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void badMessageFailsAloneWithoutRollingBackItsBatch() throws InterruptedException {
+        User sender = fixtures.user();
+        User ghost = fixtures.user();
+        Chat chat = fixtures.chat(sender, Collections.singletonList(ghost));
+        // A member whose user row is gone, so inserting their message violates the sender key;
+        // the membership cache still holds them from before the delete
+        assertThat(membershipCache.contains(chat.getId(), ghost.getId())).isTrue();
+        jdbcTemplate.execute("SET REFERENTIAL_INTEGRITY FALSE");
+        try {
+            jdbcTemplate.update("DELETE FROM users WHERE id = ?", ghost.getId());
+        } finally {
+            jdbcTemplate.execute("SET REFERENTIAL_INTEGRITY TRUE");
+        }
+        
+        for (int i = 0; i < 5; i++) {
+            assertThat(pipeline.submit(chat.getId(), message("message " + i), principal(i == 2 ? ghost : sender))).isTrue();
+        }
+        
+        List<String> stored = awaitStored(chat.getId(), 4);
+        assertThat(stored).containsExactly("message 0", "message 1", "message 3", "message 4");
+        assertThat(readCursorService.countUnread(chat.getId(), sender.getId())).isZero();
+        // The failed message's sequence is settled too, so delta sync is not held back by it
+        assertThat(messageSequencer.committedThrough(chat.getId())).isEqualTo(5);
+    }
+
+    @Test
+    void blankMessageIsDroppedWithoutTakingASequence() throws InterruptedException {
+        User sender = fixtures.user();
+        Chat chat = fixtures.chat(sender, Collections.emptyList());
+        
+        assertThat(pipeline.submit(chat.getId(), message(" "), principal(sender))).isFalse();
+        assertThat(pipeline.submit(chat.getId(), message(null), principal(sender))).isFalse();
+        assertThat(pipeline.submit(chat.getId(), message("hello"), principal(sender))).isTrue();
+        
+        assertThat(awaitStored(chat.getId(), 1)).containsExactly("hello");
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT sequence FROM messages WHERE chat_id = ?", Long.class, chat.getId())).isEqualTo(1L);
+        assertThat(messageSequencer.committedThrough(chat.getId())).isEqualTo(1);
+    }
+
+    private UserDetailsImpl principal(User user) {
+        return new UserDetailsImpl(user.getId(), user.getUsername(), user.getEmail(),
+                user.getPassword(), Collections.emptyList());
+    }
+
+    private MessageDto message(String content) {
+        MessageDto dto = new MessageDto();
+        dto.setContent(content);
+        return dto;
+    }
+
+    private List<String> awaitStored(Long chatId, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<String> stored;
+        do {
+            Thread.sleep(50);
+            stored = jdbcTemplate.queryForList(
+                    "SELECT content FROM messages WHERE chat_id = ? ORDER BY sequence", String.class, chatId);
+        } while (stored.size() < expected && System.currentTimeMillis() < deadline);
+        // Give a wrongly retried message the chance to show up too
+        Thread.sleep(300);
+        return jdbcTemplate.queryForList(
+                "SELECT content FROM messages WHERE chat_id = ? ORDER BY sequence", String.class, chatId);
+    }
+}
@@ -0,0 +1,157 @@
+package com.chatapp.websocket;
+
+import com.chatapp.model.dto.AttachmentDto;
+import com.chatapp.model.dto.MessageDto;
+import com.chatapp.model.dto.UserDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Bytes and encode time per broadcast frame for each payload format, on the outbound path
+ * the server actually takes: one JSON serialization per broadcast, then one memoized
+ * transcode per binary format however many sessions receive it. Sizes and transcode counts
+ * are asserted; times are only logged.
+ */
+class PayloadFormatBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PayloadFormatBenchmarkTest.class);
+
+    // Matches the attribute PayloadFormatNegotiator sets on native websocket sessions
+    private static final String BINARY_FRAMES_ATTR = PayloadFormatNegotiator.class.getName() + ".binaryFrames";
+
+    private static final int FRAMES = 2000;
+    private static final int SESSIONS_PER_FORMAT = 50;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void binaryFormatsAreSmallerAndTranscodedOncePerBroadcast() throws Exception {
+        Map<PayloadFormat, List<String>> sessions = new EnumMap<>(PayloadFormat.class);
+        for (PayloadFormat format : PayloadFormat.values()) {
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < SESSIONS_PER_FORMAT; i++) {
+                ids.add(format.name() + "-" + i);
+            }
+            sessions.put(format, ids);
+        }
+        
+        // Warm up, then measure on fresh broadcasts so every transcode is a cache miss
+        broadcast(negotiator(sessions), sessions, FRAMES);
+        PayloadFormatNegotiator measured = negotiator(sessions);
+        long serializeNanos = broadcast(measured, sessions, FRAMES);
+        
+        Map<String, Object> metrics = measured.getMetrics();
+        Map<?, ?> json = (Map<?, ?>) metrics.get("json");
+        double jsonBytesPerFrame = (double) json.get("bytesPerFrame");
+        logger.info("json: {} bytes/frame, serialize {} ns/frame", Math.round(jsonBytesPerFrame), serializeNanos / FRAMES);
+        
+        for (PayloadFormat format : EnumSet.of(PayloadFormat.CBOR, PayloadFormat.SMILE)) {
+            Map<?, ?> stats = (Map<?, ?>) metrics.get(format.name().toLowerCase());
+            double bytesPerFrame = (double) stats.get("bytesPerFrame");
+            double transcodeNanos = (double) stats.get("transcodeNanosPerFrame");
+            logger.info("{}: {} bytes/frame ({}% of json), transcode {} ns/frame", format.name().toLowerCase(),
+                    Math.round(bytesPerFrame), Math.round(100 * bytesPerFrame / jsonBytesPerFrame), Math.round(transcodeNanos));
+            
+            assertThat(bytesPerFrame).isLessThan(jsonBytesPerFrame);
+            // One transcode per broadcast, shared by all sessions on the format
+            assertThat(stats.get("transcodes")).isEqualTo((long) FRAMES);
+            assertThat(stats.get("frames")).isEqualTo((long) FRAMES * SESSIONS_PER_FORMAT);
+        }
+    }
+
+    private static PayloadFormatNegotiator negotiator(Map<PayloadFormat, List<String>> sessions) {
+        PayloadFormatNegotiator negotiator = new PayloadFormatNegotiator();
+        sessions.forEach((format, ids) -> ids.forEach(sessionId -> {
+            Map<String, Object> attributes = new HashMap<>();
+            attributes.put(BINARY_FRAMES_ATTR, Boolean.TRUE);
+            assertThat(negotiator.negotiate(sessionId, attributes, format.name().toLowerCase())).isEqualTo(format);
+        }));
+        return negotiator;
+    }
+
+    /**
+     * Sends each frame to every session the way the outbound channel does, and returns the
+     * time spent serializing the DTOs to JSON.
+     */
+    private long broadcast(PayloadFormatNegotiator negotiator, Map<PayloadFormat, List<String>> sessions, int frames)
+            throws Exception {
+        long serializeNanos = 0;
+        for (int i = 0; i < frames; i++) {
+            long start = System.nanoTime();
+            byte[] payload = objectMapper.writeValueAsBytes(message(i));
+            serializeNanos += System.nanoTime() - start;
+            
+            for (List<String> ids : sessions.values()) {
+                for (String sessionId : ids) {
+                    Message<?> out = negotiator.preSend(frame(sessionId, payload), null);
+                    assertThat(out).isNotNull();
+                }
+            }
+        }
+        return serializeNanos;
+    }
+
+    private static Message<byte[]> frame(String sessionId, byte[] payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/topic/chat/1");
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    // A typical chat broadcast: sender, reply preview, an attachment, reactions and receipts
+    private static MessageDto message(int i) {
+        UserDto sender = user(i % 7);
+        
+        MessageDto reply = new MessageDto();
+        reply.setId((long) i);
+        reply.setContent("Earlier message " + i);
+        reply.setSender(user((i + 1) % 7));
+        
+        AttachmentDto attachment = new AttachmentDto();
+        attachment.setId((long) i);
+        attachment.setFileName("photo-" + i + ".jpg");
+        attachment.setFileType("image/jpeg");
+        attachment.setFileUrl("/api/attachments/" + i);
+        attachment.setFileSize(184_320L + i);
+        attachment.setType("IMAGE");
+        attachment.setThumbnailUrl("/api/attachments/" + i + "/thumbnail");
+        attachment.setCreatedAt("2024-05-01 12:00:00");
+        
+        MessageDto dto = new MessageDto();
+        dto.setId(100_000L + i);
+        dto.setChatId(1L);
+        dto.setSequence((long) i + 1);
+        dto.setContent("Message number " + i + ": see the attached photo from the meeting");
+        dto.setSender(sender);
+        dto.setReplyToId(reply.getId());
+        dto.setReplyTo(reply);
+        dto.setAttachments(Collections.singletonList(attachment));
+        dto.setReactions(Map.of("+1", 3, "heart", 1));
+        dto.setMyReactions(Collections.emptyList());
+        dto.setReadBy(Arrays.asList(user(1), user(2), user(3)));
+        dto.setCreatedAt("2024-05-01 12:00:00");
+        return dto;
+    }
+
+    private static UserDto user(long id) {
+        UserDto user = new UserDto();
+        user.setId(id);
+        user.setUsername("user" + id);
+        user.setEmail("user" + id + "@example.com");
+        user.setStatus("online");
+        user.setRoles(Collections.singleton("ROLE_USER"));
+        return user;
+    }
+}
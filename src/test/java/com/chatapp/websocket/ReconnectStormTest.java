@@ -0,0 +1,415 @@
+package com.chatapp.websocket;
+
+import com.chatapp.ChatFixtures;
+import com.chatapp.IntegrationTest;
+import com.chatapp.model.Chat;
+import com.chatapp.model.User;
+import com.chatapp.security.JwtUtils;
+import com.chatapp.security.TokenAuthenticator;
+import com.chatapp.security.UserDetailsImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.Principal;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives STOMP frames through the inbound channel the way the websocket handler would, for
+ * a storm of clients losing their connection at once and coming straight back, and for
+ * resumes that have to be refused because the session's JWT expired or was revoked.
+ */
+@IntegrationTest
+@TestPropertySource(properties = {
+        // The first connects take the whole burst, so fresh CONNECTs in the storm are paced
+        "chatapp.websocket.connect.burst=10000",
+        "chatapp.websocket.connect.rate-per-second=50",
+        "chatapp.websocket.reconnect.min-delay-ms=10",
+        "chatapp.websocket.reconnect.max-delay-ms=500",
+        // Frames are sent here at memory speed, without each client's socket to pace them
+        "chatapp.websocket.inbound.queue-capacity=100000",
+        "logging.level.com.chatapp.websocket.WebSocketController=WARN"
+})
+class ReconnectStormTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReconnectStormTest.class);
+
+    private static final int SESSIONS = 10_000;
+    private static final int USERS = 100;
+    private static final int FRESH_CONNECTS = 2_000;
+
+    private static final String SESSION_SUBSCRIPTION = "session";
+    private static final String CHAT_SUBSCRIPTION = "chat";
+    private static final String USER_SESSION_DESTINATION = "/user" + SessionResumption.SESSION_DESTINATION;
+
+    @Autowired
+    @Qualifier("clientInboundChannel")
+    private MessageChannel inbound;
+
+    @Autowired
+    private ApplicationEventPublisher events;
+
+    @Autowired
+    private SessionResumption sessionResumption;
+
+    @Autowired
+    private ConnectAdmission connectAdmission;
+
+    @Autowired
+    private TokenAuthenticator tokenAuthenticator;
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private ChatFixtures fixtures;
+
+    @Autowired
+    private SessionMessageCapture sessionMessages;
+
+    @Value("${chatapp.app.jwtSecret}")
+    private String jwtSecret;
+
+    @Test
+    void tenThousandSimultaneousReconnectsResumeWithoutReauthenticating() throws Exception {
+        List<User> users = fixtures.users(USERS);
+        Chat chat = fixtures.chat(users.get(0), users.subList(1, USERS));
+        String chatDestination = "/topic/chat/" + chat.getId();
+
+        Map<Long, String> jwts = new HashMap<>();
+        users.forEach(user -> jwts.put(user.getId(), jwtUtils.generateJwtToken(authentication(user))));
+
+        List<String> sessionIds = new ArrayList<>();
+        Map<String, Principal> principals = new HashMap<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            User user = users.get(i % USERS);
+            String sessionId = "storm-" + i;
+            Principal principal = connect(sessionId, jwts.get(user.getId()));
+            subscribe(sessionId, principal, CHAT_SUBSCRIPTION, chatDestination);
+            subscribe(sessionId, principal, SESSION_SUBSCRIPTION, USER_SESSION_DESTINATION);
+            sessionIds.add(sessionId);
+            principals.put(sessionId, principal);
+        }
+        Map<String, Map<?, ?>> connected = awaitSessionMessages(sessionIds);
+
+        Map<String, Object> resumptionBefore = sessionResumption.getMetrics();
+        Map<String, Object> admissionBefore = connectAdmission.getMetrics();
+        Map<String, Object> tokensBefore = tokenAuthenticator.getMetrics();
+
+        // A network blip: every connection drops without a close frame
+        for (String sessionId : sessionIds) {
+            disconnect(sessionId, principals.get(sessionId), CloseStatus.NO_CLOSE_FRAME);
+        }
+        assertThat(delta(sessionResumption.getMetrics(), resumptionBefore, "parked")).isEqualTo(SESSIONS);
+
+        // ...and every client comes back at once with its resume token and no JWT
+        ExecutorService clients = Executors.newFixedThreadPool(32);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Boolean>> reconnects = new ArrayList<>();
+        List<String> resumedIds = new ArrayList<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            String resumeToken = (String) connected.get(sessionIds.get(i)).get("resumeToken");
+            String sessionId = "resumed-" + i;
+            resumedIds.add(sessionId);
+            reconnects.add(clients.submit(() -> {
+                go.await();
+                Principal principal = resume(sessionId, resumeToken);
+                if (principal == null) {
+                    return false;
+                }
+                subscribe(sessionId, principal, SESSION_SUBSCRIPTION, USER_SESSION_DESTINATION);
+                return true;
+            }));
+        }
+        long startedAt = System.nanoTime();
+        go.countDown();
+        for (Future<Boolean> reconnect : reconnects) {
+            assertThat(reconnect.get(60, TimeUnit.SECONDS)).isTrue();
+        }
+        Map<String, Map<?, ?>> resumed = awaitSessionMessages(resumedIds);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        clients.shutdown();
+
+        Map<String, Object> resumptionAfter = sessionResumption.getMetrics();
+        logger.info("{} sessions resumed in {} ms; resumption {}", SESSIONS, elapsedMs, resumptionAfter);
+
+        // Subscriptions came back without the client resubscribing, chat membership rechecked
+        assertThat(resumed.values()).allSatisfy(payload -> {
+            assertThat(payload.get("resumed")).isEqualTo(true);
+            assertThat(payload.get("restored")).isEqualTo(Collections.singletonList(CHAT_SUBSCRIPTION));
+            assertThat(payload.get("resumeToken")).isNotNull();
+        });
+        assertThat(delta(resumptionAfter, resumptionBefore, "resumed")).isEqualTo(SESSIONS);
+        assertThat(delta(resumptionAfter, resumptionBefore, "rejected")).isZero();
+        assertThat(delta(resumptionAfter, resumptionBefore, "deniedSubscriptions")).isZero();
+        // Every user was back within the grace window, so no one was reported offline
+        assertThat(delta(resumptionAfter, resumptionBefore, "cancelledOffline")).isEqualTo(USERS);
+        // No token verification and no admission tokens spent on resumes
+        Map<String, Object> tokensAfter = tokenAuthenticator.getMetrics();
+        assertThat(delta(tokensAfter, tokensBefore, "hits") + delta(tokensAfter, tokensBefore, "misses")).isZero();
+        assertThat(delta(connectAdmission.getMetrics(), admissionBefore, "admitted")).isZero();
+
+        // Clients without a resume token are paced and told to spread their retries
+        List<Long> retryAfterMs = new ArrayList<>();
+        for (int i = 0; i < FRESH_CONNECTS; i++) {
+            StompHeaderAccessor accessor = frame(StompCommand.CONNECT, "fresh-" + i, null);
+            accessor.setNativeHeader("Authorization", "Bearer " + jwts.get(users.get(i % USERS).getId()));
+            try {
+                inbound.send(message(accessor));
+            } catch (ConnectAdmission.ConnectThrottledException ex) {
+                retryAfterMs.add(ex.getRetryAfterMs());
+            }
+        }
+        assertThat(retryAfterMs).isNotEmpty();
+        assertThat(retryAfterMs).allSatisfy(delay -> assertThat(delay).isBetween(10L, 500L));
+        assertThat(new HashSet<>(retryAfterMs)).hasSizeGreaterThan(1);
+    }
+
+    @Test
+    void resumeIsRefusedOnceTheTokenHasExpired() throws Exception {
+        User user = fixtures.user();
+        long expiresAt = System.currentTimeMillis() + 2000;
+        String jwt = Jwts.builder()
+                .setSubject(user.getUsername())
+                .claim(JwtUtils.CLAIM_USER_ID, user.getId())
+                .claim(JwtUtils.CLAIM_EMAIL, user.getEmail())
+                .claim(JwtUtils.CLAIM_ROLES, Collections.emptyList())
+                .setIssuedAt(new Date())
+                .setExpiration(new Date(expiresAt))
+                .signWith(SignatureAlgorithm.HS512, jwtSecret)
+                .compact();
+
+        String resumeToken = connectAndDrop("expiring", jwt);
+        Map<String, Object> before = sessionResumption.getMetrics();
+
+        // Still inside the grace window, but past the token's exp
+        while (System.currentTimeMillis() <= expiresAt + 100) {
+            Thread.sleep(100);
+        }
+        assertThat(resume("expiring-resumed", resumeToken)).isNull();
+        assertThat(delta(sessionResumption.getMetrics(), before, "rejected")).isEqualTo(1);
+    }
+
+    @Test
+    void sessionLiveWhenTheUserIsRevokedIsNotParked() throws Exception {
+        User user = fixtures.user();
+        String jwt = jwtUtils.generateJwtToken(authentication(user));
+        Principal principal = connect("revoked-live", jwt);
+        subscribe("revoked-live", principal, SESSION_SUBSCRIPTION, USER_SESSION_DESTINATION);
+        String resumeToken = (String) awaitSessionMessages(Collections.singletonList("revoked-live"))
+                .get("revoked-live").get("resumeToken");
+
+        // What the admin revoke endpoint does; a token issued in the same second stays valid
+        // for the authenticator, so the live session itself has to remember
+        tokenAuthenticator.invalidateUser(user.getId());
+        sessionResumption.revokeUser(user.getId());
+
+        Map<String, Object> before = sessionResumption.getMetrics();
+        disconnect("revoked-live", principal, CloseStatus.NO_CLOSE_FRAME);
+        assertThat(delta(sessionResumption.getMetrics(), before, "parked")).isZero();
+        assertThat(resume("revoked-live-resumed", resumeToken)).isNull();
+    }
+
+    @Test
+    void resumeIsRefusedWhenTheTokenWasRevokedWhileParked() throws Exception {
+        User user = fixtures.user();
+        String jwt = jwtUtils.generateJwtToken(authentication(user));
+        String resumeToken = connectAndDrop("revoked-parked", jwt);
+        Map<String, Object> before = sessionResumption.getMetrics();
+
+        // Revocation has second precision; only the authenticator is told here
+        Thread.sleep(1100);
+        tokenAuthenticator.invalidateUser(user.getId());
+
+        assertThat(resume("revoked-parked-resumed", resumeToken)).isNull();
+        assertThat(delta(sessionResumption.getMetrics(), before, "rejected")).isEqualTo(1);
+    }
+
+    /**
+     * Connects with the JWT, waits for the resume token and drops the connection so it is parked.
+     */
+    private String connectAndDrop(String sessionId, String jwt) throws InterruptedException {
+        Principal principal = connect(sessionId, jwt);
+        subscribe(sessionId, principal, SESSION_SUBSCRIPTION, USER_SESSION_DESTINATION);
+        String resumeToken = (String) awaitSessionMessages(Collections.singletonList(sessionId))
+                .get(sessionId).get("resumeToken");
+
+        Map<String, Object> before = sessionResumption.getMetrics();
+        disconnect(sessionId, principal, CloseStatus.NO_CLOSE_FRAME);
+        assertThat(delta(sessionResumption.getMetrics(), before, "parked")).isEqualTo(1);
+        return resumeToken;
+    }
+
+    /**
+     * CONNECT with a JWT, retrying when admission turns it away, then what the websocket
+     * handler publishes once the broker has accepted it.
+     */
+    private Principal connect(String sessionId, String jwt) throws InterruptedException {
+        while (true) {
+            StompHeaderAccessor accessor = frame(StompCommand.CONNECT, sessionId, null);
+            accessor.setNativeHeader("Authorization", "Bearer " + jwt);
+            Message<byte[]> message = message(accessor);
+            try {
+                inbound.send(message);
+            } catch (ConnectAdmission.ConnectThrottledException ex) {
+                Thread.sleep(ex.getRetryAfterMs());
+                continue;
+            }
+            assertThat(accessor.getUser()).as("authenticated CONNECT").isNotNull();
+            connected(sessionId, message, accessor.getUser());
+            return accessor.getUser();
+        }
+    }
+
+    /**
+     * CONNECT with a resume token only. Returns the resumed user, or null if the resume was
+     * refused; the CONNECT then goes through admission like a fresh one and may be throttled.
+     */
+    private Principal resume(String sessionId, String resumeToken) throws Exception {
+        StompHeaderAccessor accessor = frame(StompCommand.CONNECT, sessionId, null);
+        accessor.setNativeHeader(SessionResumption.RESUME_HEADER, resumeToken);
+        Message<byte[]> message = message(accessor);
+        try {
+            inbound.send(message);
+        } catch (ConnectAdmission.ConnectThrottledException ex) {
+            return null;
+        }
+        if (accessor.getUser() != null) {
+            connected(sessionId, message, accessor.getUser());
+        }
+        return accessor.getUser();
+    }
+
+    /**
+     * Waits for the broker to accept the CONNECT, as a client waits for CONNECTED before it
+     * subscribes, then publishes what the websocket handler would at that point.
+     */
+    private void connected(String sessionId, Message<byte[]> connect, Principal user) throws InterruptedException {
+        try {
+            sessionMessages.connectAck(sessionId).get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException ex) {
+            throw new AssertionError("No CONNECTED for " + sessionId, ex);
+        }
+        events.publishEvent(new SessionConnectedEvent(this, connect, user));
+    }
+
+    private void subscribe(String sessionId, Principal principal, String subscriptionId, String destination) {
+        StompHeaderAccessor accessor = frame(StompCommand.SUBSCRIBE, sessionId, principal);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        inbound.send(message(accessor));
+    }
+
+    /**
+     * What the websocket handler does when a connection ends: publish the event, then tell the broker.
+     */
+    private void disconnect(String sessionId, Principal principal, CloseStatus closeStatus) {
+        Message<byte[]> message = message(frame(StompCommand.DISCONNECT, sessionId, principal));
+        events.publishEvent(new SessionDisconnectEvent(this, message, sessionId, closeStatus, principal));
+        inbound.send(message);
+    }
+
+    private Map<String, Map<?, ?>> awaitSessionMessages(Collection<String> sessionIds) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (!sessionMessages.payloads.keySet().containsAll(sessionIds) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Map<String, Map<?, ?>> messages = new HashMap<>();
+        for (String sessionId : sessionIds) {
+            assertThat(sessionMessages.payloads).as("session message for %s", sessionId).containsKey(sessionId);
+            messages.put(sessionId, sessionMessages.payloads.get(sessionId));
+        }
+        return messages;
+    }
+
+    private static StompHeaderAccessor frame(StompCommand command, String sessionId, Principal principal) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId(sessionId);
+        accessor.setSessionAttributes(new HashMap<>());
+        accessor.setUser(principal);
+        if (command == StompCommand.CONNECT) {
+            accessor.setAcceptVersion("1.2");
+        }
+        accessor.setLeaveMutable(true);
+        return accessor;
+    }
+
+    private static Message<byte[]> message(StompHeaderAccessor accessor) {
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static UsernamePasswordAuthenticationToken authentication(User user) {
+        UserDetailsImpl details = new UserDetailsImpl(user.getId(), user.getUsername(), user.getEmail(),
+                user.getPassword(), Collections.emptyList());
+        return new UsernamePasswordAuthenticationToken(details, null, details.getAuthorities());
+    }
+
+    private static long delta(Map<String, Object> after, Map<String, Object> before, String key) {
+        return ((Number) after.get(key)).longValue() - ((Number) before.get(key)).longValue();
+    }
+
+    /**
+     * Records CONNECTED acknowledgements and the session messages sent to clients. Registered
+     * with the channel up front, as its interceptor list must not change while frames are in flight.
+     */
+    @TestConfiguration
+    static class SessionMessageCapture implements WebSocketMessageBrokerConfigurer {
+        private final ObjectMapper objectMapper = new ObjectMapper();
+
+        // sessionId -> payload of the session message sent to it
+        private final Map<String, Map<?, ?>> payloads = new ConcurrentHashMap<>();
+
+        private final Map<String, CompletableFuture<Void>> connectAcks = new ConcurrentHashMap<>();
+
+        CompletableFuture<Void> connectAck(String sessionId) {
+            return connectAcks.computeIfAbsent(sessionId, id -> new CompletableFuture<>());
+        }
+
+        @Override
+        public void configureClientOutboundChannel(ChannelRegistration registration) {
+            registration.interceptors(new ChannelInterceptor() {
+                @Override
+                public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                    StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+                    if (accessor.getMessageType() == SimpMessageType.CONNECT_ACK) {
+                        connectAck(accessor.getSessionId()).complete(null);
+                    } else if (SESSION_SUBSCRIPTION.equals(accessor.getSubscriptionId()) && message.getPayload() instanceof byte[]) {
+                        try {
+                            payloads.put(accessor.getSessionId(), objectMapper.readValue((byte[]) message.getPayload(), Map.class));
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+                    return message;
+                }
+            });
+        }
+    }
+}
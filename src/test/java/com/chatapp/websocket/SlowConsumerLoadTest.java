@@ -0,0 +1,258 @@
+package com.chatapp.websocket;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Broadcasts on the outbound channel as WebSocketConfig wires it: an instrumented executor,
+ * the slow-consumer guard and the priority lanes in front of Spring's concurrent session
+ * decorator. One subscriber's socket write never returns until the test releases it; every
+ * other subscriber still has to get every frame, with only the stalled write holding an
+ * outbound thread.
+ * <p>
+ * The assertions are on delivered frames and on executor, lane and guard state rather than
+ * latency: the stall is held by a latch, the send time limit is out of reach, the TERMINATE
+ * case closes the stalled session on its buffer size limit, and the DROP case broadcasts
+ * once the guard already sees the write as stalled.
+ */
+class SlowConsumerLoadTest {
+
+    private static final int SESSIONS = 50;
+    private static final int BROADCASTS = 200;
+
+    // Healthy sessions buffer at most one frame per outbound thread, well under the limit;
+    // the stalled session's backlog of BROADCASTS frames goes past it
+    private static final String PAYLOAD = "0123456789";
+    private static final int SEND_BUFFER_SIZE_LIMIT = 1024;
+    private static final int SEND_TIME_LIMIT_MS = (int) TimeUnit.HOURS.toMillis(1);
+
+    // Far beyond a healthy write to a mocked socket; the broadcast waits for the stalled
+    // write to pass it, so dropping starts with the first broadcast
+    private static final long DROP_AFTER_MS = 1000;
+
+    private static final String STALLED_SESSION = "session-0";
+
+    @ParameterizedTest
+    @EnumSource(SlowConsumerGuard.Policy.class)
+    void stalledSubscriberDoesNotHoldBackOthers(SlowConsumerGuard.Policy policy) throws Exception {
+        BroadcastRun run = new BroadcastRun(policy);
+        try {
+            run.start();
+
+            // Every healthy session got every frame, and all tasks but the stalled write finish
+            assertThat(run.healthyFrames.await(30, TimeUnit.SECONDS))
+                    .as("frames delivered to healthy sessions").isTrue();
+            run.sessions.keySet().stream().filter(id -> !STALLED_SESSION.equals(id))
+                    .forEach(id -> assertThat(run.delivered.get(id).get()).as(id).isEqualTo(BROADCASTS));
+            long frames = policy == SlowConsumerGuard.Policy.DROP
+                    ? 1 + (long) (SESSIONS - 1) * BROADCASTS
+                    : 1 + (long) SESSIONS * BROADCASTS;
+            assertThat(run.awaitCompletedTasks(frames - 1)).as("outbound tasks completed").isTrue();
+            assertThat(run.stalledWrites.get()).isEqualTo(1);
+
+            Map<String, Object> executorMetrics = run.executor.getMetrics();
+            assertThat(executorMetrics.get("queueDepth")).isEqualTo(0);
+            assertThat((int) executorMetrics.get("poolSize")).isLessThanOrEqualTo(16);
+
+            Map<String, Object> laneMetrics = run.lanes.getMetrics();
+            @SuppressWarnings("unchecked")
+            Map<String, Object> messages = (Map<String, Object>) laneMetrics.get("messages");
+            assertThat(messages.get("queued")).isEqualTo(frames);
+            assertThat(messages.get("sent")).isEqualTo(frames);
+            assertThat(messages.get("shed")).isEqualTo(0L);
+            assertThat(laneMetrics.get("sessionsWithBacklog")).isEqualTo(0);
+
+            Map<String, Object> guardMetrics = run.guard.getMetrics();
+            if (policy == SlowConsumerGuard.Policy.DROP) {
+                assertThat(guardMetrics.get("droppedFrames")).isEqualTo((long) BROADCASTS);
+                assertThat(guardMetrics.get("stalledSessions")).isEqualTo(1L);
+                assertThat(guardMetrics.get("terminatedSessions")).isEqualTo(0L);
+                assertThat(run.stalledClosed).isNull();
+            } else {
+                assertThat(guardMetrics.get("droppedFrames")).isEqualTo(0L);
+                assertThat(guardMetrics.get("terminatedSessions")).isEqualTo(1L);
+                assertThat(run.stalledClosed).isEqualTo(CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        } finally {
+            run.stop();
+        }
+    }
+
+    /**
+     * One broadcast run against fresh channel components.
+     */
+    private static class BroadcastRun {
+        private final SlowConsumerGuard.Policy policy;
+        private final SlowConsumerGuard guard = new SlowConsumerGuard();
+        private final OutboundPriorityLanes lanes = new OutboundPriorityLanes();
+        private final InstrumentedChannelExecutor executor = new InstrumentedChannelExecutor();
+
+        private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> delivered = new ConcurrentHashMap<>();
+        private final CountDownLatch healthyFrames = new CountDownLatch(BROADCASTS * (SESSIONS - 1));
+        private final CountDownLatch stallEntered = new CountDownLatch(1);
+        private final CountDownLatch stallReleased = new CountDownLatch(1);
+        private final AtomicInteger stalledWrites = new AtomicInteger();
+
+        private volatile CloseStatus stalledClosed;
+
+        BroadcastRun(SlowConsumerGuard.Policy policy) {
+            this.policy = policy;
+            ReflectionTestUtils.setField(guard, "sendTimeLimitMs", SEND_TIME_LIMIT_MS);
+            ReflectionTestUtils.setField(guard, "sendBufferSizeLimit", SEND_BUFFER_SIZE_LIMIT);
+            ReflectionTestUtils.setField(guard, "policy", policy);
+            ReflectionTestUtils.setField(guard, "dropAfterMs", DROP_AFTER_MS);
+
+            ReflectionTestUtils.setField(lanes, "enabled", true);
+            ReflectionTestUtils.setField(lanes, "shedTypingDepth", 50);
+            ReflectionTestUtils.setField(lanes, "shedPresenceDepth", 200);
+
+            // Pool sizes of the application.properties defaults; the queue takes the whole
+            // broadcast so that no task is rejected
+            executor.setCorePoolSize(8);
+            executor.setMaxPoolSize(16);
+            executor.setQueueCapacity(SESSIONS * BROADCASTS + 1);
+            executor.setThreadNamePrefix("outbound-stall-");
+            // Let the stalled write return once released instead of interrupting it
+            executor.setWaitForTasksToCompleteOnShutdown(true);
+        }
+
+        void start() throws Exception {
+            executor.initialize();
+            ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel(executor);
+            outbound.setInterceptors(Arrays.asList(guard, lanes));
+
+            Map<String, WebSocketSession> guarded = new ConcurrentHashMap<>();
+            WebSocketHandler handler = guard.decorate(new AbstractWebSocketHandler() {
+                @Override
+                public void afterConnectionEstablished(WebSocketSession session) {
+                    guarded.put(session.getId(), session);
+                }
+            });
+            for (int i = 0; i < SESSIONS; i++) {
+                String sessionId = "session-" + i;
+                handler.afterConnectionEstablished(socket(sessionId));
+                sessions.put(sessionId, new ConcurrentWebSocketSessionDecorator(
+                        guarded.get(sessionId), SEND_TIME_LIMIT_MS, SEND_BUFFER_SIZE_LIMIT));
+            }
+            outbound.subscribe(sendToSession(handler));
+
+            // Park one outbound thread in the stalled session's write before broadcasting
+            outbound.send(frame(STALLED_SESSION));
+            assertThat(stallEntered.await(30, TimeUnit.SECONDS)).as("stalled write started").isTrue();
+            if (policy == SlowConsumerGuard.Policy.DROP) {
+                assertThat(awaitMetric(() -> guard.getMetrics().get("stalledSessions"), 1L))
+                        .as("stalled write detected").isTrue();
+            }
+
+            for (int i = 0; i < BROADCASTS; i++) {
+                for (String sessionId : sessions.keySet()) {
+                    outbound.send(frame(sessionId));
+                }
+            }
+        }
+
+        boolean awaitCompletedTasks(long expected) throws InterruptedException {
+            return awaitMetric(() -> executor.getMetrics().get("tasks"), expected);
+        }
+
+        private static boolean awaitMetric(Supplier<Object> metric, long expected) throws InterruptedException {
+            for (int i = 0; i < 3000; i++) {
+                if ((long) metric.get() >= expected) {
+                    return metric.get().equals(expected);
+                }
+                Thread.sleep(10);
+            }
+            return false;
+        }
+
+        void stop() {
+            stallReleased.countDown();
+            executor.shutdown();
+        }
+
+        /**
+         * The subscriber SubProtocolWebSocketHandler would be: writes the frame to its session
+         * and closes sessions that exceed their send limits.
+         */
+        private MessageHandler sendToSession(WebSocketHandler handler) {
+            return message -> {
+                WebSocketSession session = sessions.get(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+                try {
+                    session.sendMessage(new TextMessage((String) message.getPayload()));
+                } catch (SessionLimitExceededException ex) {
+                    try {
+                        session.close(ex.getStatus());
+                        handler.afterConnectionClosed(session, ex.getStatus());
+                    } catch (Exception closeEx) {
+                        throw new MessageDeliveryException(message, closeEx);
+                    }
+                } catch (IOException ex) {
+                    throw new MessageDeliveryException(message, ex);
+                }
+            };
+        }
+
+        /**
+         * A native socket that counts the frames written to it, or never finishes a write
+         * for the stalled session until the run is stopped.
+         */
+        private WebSocketSession socket(String sessionId) throws IOException {
+            WebSocketSession socket = mock(WebSocketSession.class, withSettings().stubOnly());
+            when(socket.getId()).thenReturn(sessionId);
+            when(socket.isOpen()).thenReturn(true);
+            AtomicInteger count = delivered.computeIfAbsent(sessionId, id -> new AtomicInteger());
+            boolean stalled = STALLED_SESSION.equals(sessionId);
+            doAnswer(invocation -> {
+                if (stalled) {
+                    stalledWrites.incrementAndGet();
+                    stallEntered.countDown();
+                    stallReleased.await();
+                } else {
+                    count.incrementAndGet();
+                    healthyFrames.countDown();
+                }
+                return null;
+            }).when(socket).sendMessage(any());
+            doAnswer(invocation -> {
+                stalledClosed = invocation.getArgument(0);
+                return null;
+            }).when(socket).close(any());
+            return socket;
+        }
+
+        private static Message<String> frame(String sessionId) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setSessionId(sessionId);
+            accessor.setDestination("/topic/chat/1");
+            return MessageBuilder.createMessage(PAYLOAD, accessor.getMessageHeaders());
+        }
+    }
+}